@@ -2,6 +2,8 @@ from scipy.fftpack import ss_diff
 from scipy.special import rel_entr
 from zipfile import ZipFile
 
+import atexit
+import numpy as np
 import os
 import subprocess
 import torch
@@ -12,6 +14,10 @@ class ConstraintProgramming():
     PITCH = 'pitch'
     BASIC_JAVA_CMD = f'java -cp ../../../target/minicpbp-1.0.jar minicpbp.examples.'
     FILENAME_TOKEN_RHYTHM = f'token_rhythm.dat'
+    SERVER_CLASS = 'MusicCPServer'
+    # binary data files (see minicpbp.util.io.TensorFile): a little-endian header of 6 int32
+    # (magic, number of samples, vocabulary size, step, number of tokens, bytes per probability), the int32 tokens, then the probabilities
+    TENSOR_FILE_MAGIC = 0x4250434D
 
     def __init__(self, config, frame_per_bar):
         self.config = config
@@ -24,13 +30,43 @@ class ConstraintProgramming():
         self.minicpbp_path = config['minicpbp_path']
         self.minicpbp_music_path = os.path.join(self.minicpbp_path, 'src', 'main', 'java', 'minicpbp', 'examples', 'data', 'MusicCP')
         self.minicpbp_working_dir = os.path.join(self.minicpbp_path, 'src', 'main', 'java')
+
+        # number of samples solved in parallel by minicpbp
+        self.workers = config.get('workers', 1)
+
+        # persistent minicpbp process (the JVM is started once instead of once per token), if minicpbp is used at all
+        self.server = None
+        if config.get('server', False) and (config[self.RHYTHM]['activate'] or config[self.PITCH]['activate']):
+            self.server = subprocess.Popen(f'{self.BASIC_JAVA_CMD}{self.SERVER_CLASS} {self.workers}'.split(), cwd=self.minicpbp_working_dir,
+                                           stdin=subprocess.PIPE, stdout=subprocess.PIPE, universal_newlines=True, bufsize=1)
+            # the server is kept across the generations (one per sampling epoch) and stopped when python exits
+            atexit.register(self.close)
+
+    def close(self):
+        if self.server is not None:
+            if self.server.poll() is None:
+                self.server.stdin.write('quit\n')
+                self.server.stdin.close()
+                self.server.wait()
+            self.server = None
     
+    # whether the data files are exchanged in the binary format (the server protocol is text only)
+    def _binary(self):
+        return self.config.get('binary', False) and self.server is None
+
     def save_rhythm_token(self, rhythm_tokens):
-        with open(os.path.join(self.minicpbp_music_path, self.FILENAME_TOKEN_RHYTHM), 'w') as f:
-            num_sample = rhythm_tokens.shape[0]
-            for j in range(num_sample):
-                f.write(' '.join(map(str, rhythm_tokens[j].tolist())))
-                f.write('\n')
+        if self.server is not None:
+            # kept by the server for the pitch requests
+            lines = [' '.join(map(str, rhythm_tokens[j].tolist())) for j in range(rhythm_tokens.shape[0])]
+            self._server_request(f'rhythmTokens {len(lines)}', lines)
+        elif self._binary():
+            self._write_tensor_file(os.path.join(self.minicpbp_music_path, self.FILENAME_TOKEN_RHYTHM), 0, rhythm_tokens, None)
+        else:
+            with open(os.path.join(self.minicpbp_music_path, self.FILENAME_TOKEN_RHYTHM), 'w') as f:
+                num_sample = rhythm_tokens.shape[0]
+                for j in range(num_sample):
+                    f.write(' '.join(map(str, rhythm_tokens[j].tolist())))
+                    f.write('\n')
     
     def get_cp_rhythm_idx(self, rhythm_tokens, rhythm_output, epoch, i, device):
         return self._cpbp_java(rhythm_tokens, rhythm_output, epoch, i, device, True)
@@ -49,15 +85,11 @@ class ConstraintProgramming():
         probs = F.softmax(output, dim=-1)
         filename = f'cp_{key}_{epoch}_{i}.dat'
 
-        # create .dat files for java CP model (ML.txt and Token.txt can be used to debug)
-        with open(os.path.join(self.minicpbp_music_path, filename), 'w') as f, open('ML.txt', 'a') as f2, open('Token.txt', 'a') as f3:
+        # debug files (ML.txt and Token.txt)
+        with open('ML.txt', 'a') as f2, open('Token.txt', 'a') as f3:
             f2.write(i_title + '\n')
             f3.write(i_title + '\n')
             for j in range(num_sample):
-                f.write(' '.join(map(str, tokens[j].tolist()[:i])))
-                f.write(' ' + ' '.join(map(str, probs[j].tolist())))
-                f.write('\n')
-
                 f2.write(' '.join(map(str, probs[j].tolist())))
                 f2.write('\n')
 
@@ -65,23 +97,40 @@ class ConstraintProgramming():
                 f3.write('\n')
         
         # get belief propagation probs from minicpbp
-        current_dir_backup = os.getcwd()
-        os.chdir(self.minicpbp_working_dir)
         cmd = self._get_java_command(key, filename, num_sample, i, ml_weight)
-        process = subprocess.run(cmd, stdout=subprocess.PIPE, stderr=subprocess.PIPE, universal_newlines=True)
-        os.chdir(current_dir_backup)
-
-        if process.returncode != 0:
-            raise Exception(f'Java MiniCPBP failed: {process.stderr}')
+        if self.server is not None:
+            # the samples are sent over the pipe, after the arguments of the command line without the file names,
+            # and the marginals read from it: no data file is exchanged
+            request = [cmd[3][len('minicpbp.examples.'):]] + [arg for arg in cmd[4:] if arg not in (filename, self.FILENAME_TOKEN_RHYTHM)]
+            lines = self._server_request(' '.join(request), [self._sample_line(tokens[j], probs[j], i) for j in range(num_sample)])
+            probs_cp = None
+        else:
+            # create .dat files for java CP model
+            if self._binary():
+                self._write_tensor_file(os.path.join(self.minicpbp_music_path, filename), i, tokens[:, :i], probs)
+            else:
+                with open(os.path.join(self.minicpbp_music_path, filename), 'w') as f:
+                    for j in range(num_sample):
+                        f.write(self._sample_line(tokens[j], probs[j], i) + '\n')
+            self._run_java_command(cmd)
+            results_path = os.path.join(self.minicpbp_music_path, filename[:-4] + '_results.dat')
+            if self._binary():
+                probs_cp = torch.as_tensor(self._read_tensor_file(results_path), dtype=probs.dtype).to(device)
+            else:
+                with open(results_path, 'r') as f:
+                    lines = [f.readline() for _ in range(num_sample)]
 
         # replace probs with new ones from belief propagation (Oracle.txt can be used to debug)
-        with open(os.path.join(self.minicpbp_music_path, filename[:-4] + '_results.dat'), 'r') as f, open('Oracle.txt', 'a') as f2:
+        with open('Oracle.txt', 'a') as f2:
             f2.write(i_title + '\n')
-            for j in range(num_sample):
-                line = f.readline()
-                probs_cp = torch.as_tensor(list(map(float, (line.split())))).to(device)
-                probs[j] = probs_cp
-                f2.write(line)
+            if probs_cp is not None:
+                probs[:] = probs_cp
+                for j in range(num_sample):
+                    f2.write(' '.join(map(str, probs_cp[j].tolist())) + '\n')
+            else:
+                for j, line in enumerate(lines):
+                    probs[j] = torch.as_tensor(list(map(float, (line.split())))).to(device)
+                    f2.write(line)
 
         # if sampling rhythm token, direclty get the token value
         if cp_on_rhythm:
@@ -92,6 +141,52 @@ class ConstraintProgramming():
         # else return the distribution and model.py will sample from the top 5 probs
         return probs
 
+    def _run_java_command(self, cmd):
+        current_dir_backup = os.getcwd()
+        os.chdir(self.minicpbp_working_dir)
+        process = subprocess.run(cmd + [str(self.workers)], stdout=subprocess.PIPE, stderr=subprocess.PIPE, universal_newlines=True)
+        os.chdir(current_dir_backup)
+
+        if process.returncode != 0:
+            raise Exception(f'Java MiniCPBP failed: {process.stderr}')
+
+    # writes the tokens (and probabilities as float32, if any) of each sample to a binary data file
+    def _write_tensor_file(self, path, step, tokens, probs):
+        tokens = tokens.cpu().numpy().astype('<i4')
+        probs = np.zeros((tokens.shape[0], 0)) if probs is None else probs.detach().cpu().numpy()
+        header = np.array([self.TENSOR_FILE_MAGIC, tokens.shape[0], probs.shape[1], step, tokens.shape[1], 4], dtype='<i4')
+        with open(path, 'wb') as f:
+            f.write(header.tobytes())
+            f.write(tokens.tobytes())
+            f.write(probs.astype('<f4').tobytes())
+
+    # returns the probabilities of a binary data file, as a (number of samples, vocabulary size) array
+    def _read_tensor_file(self, path):
+        magic, num_sample, vocabulary_size, _, num_tokens, probability_bytes = np.fromfile(path, dtype='<i4', count=6)
+        if magic != self.TENSOR_FILE_MAGIC:
+            raise Exception(f'Not a MiniCPBP binary data file: {path}')
+        probs = np.fromfile(path, dtype='<f8' if probability_bytes == 8 else '<f4', count=int(num_sample * vocabulary_size),
+                            offset=int(4 * (6 + num_sample * num_tokens)))
+        return probs.reshape(num_sample, vocabulary_size)
+
+    # the line of a sample in the text data files and server requests: its first i tokens, then the probabilities
+    def _sample_line(self, sample_tokens, sample_probs, i):
+        return ' '.join(map(str, sample_tokens.tolist()[:i])) + ' ' + ' '.join(map(str, sample_probs.tolist()))
+
+    # sends a request (header line followed by one line per sample) to the minicpbp server and returns its answer lines
+    def _server_request(self, header, lines):
+        self.server.stdin.write(header + '\n')
+        for line in lines:
+            self.server.stdin.write(line + '\n')
+        self.server.stdin.flush()
+
+        status = self.server.stdout.readline()
+        if not status.startswith('ok'):
+            raise Exception(f'Java MiniCPBP server failed: {status}')
+        if header.startswith('rhythmTokens'):
+            return []
+        return [self.server.stdout.readline() for _ in range(int(status.split()[1]))]
+
     def _get_weight(self, i, cp_on_rhythm=True):
         key = self.RHYTHM if cp_on_rhythm else self.PITCH
         tech = self.config[key]['weight_variation']['technique']
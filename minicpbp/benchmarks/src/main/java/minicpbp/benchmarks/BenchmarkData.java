@@ -0,0 +1,74 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Scanner;
+
+/**
+ * Location and reading of the data files used by the benchmarks.
+ * The paths are relative to the benchmarks directory, from which the benchmarks are expected to be run;
+ * the data directory of the engine can be set with {@code -Dminicpbp.home=...}.
+ */
+final class BenchmarkData {
+
+    private static final String HOME = System.getProperty("minicpbp.home", "..");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param path a path relative to the minicpbp directory
+     */
+    static File file(String path) {
+        return new File(HOME, path);
+    }
+
+    /**
+     * @param filename a file of the bundled MusicCP test data
+     */
+    static File musicFile(String filename) {
+        return file("src/main/java/minicpbp/examples/data/MusicCP/" + filename);
+    }
+
+    /**
+     * Reads the first whitespace-separated numbers of a file.
+     */
+    static double[] readNumbers(File file, int n) {
+        double[] numbers = new double[n];
+        try (Scanner scanner = new Scanner(file)) {
+            for (int i = 0; i < n; i++) {
+                numbers[i] = Double.parseDouble(scanner.next());
+            }
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException("Missing benchmark data " + file + " (run from the benchmarks directory or set -Dminicpbp.home)", e);
+        }
+        return numbers;
+    }
+
+    static int[] toTokens(double[] numbers, int from, int to) {
+        int[] tokens = new int[to - from];
+        for (int i = from; i < to; i++) {
+            tokens[i - from] = (int) numbers[i];
+        }
+        return tokens;
+    }
+}
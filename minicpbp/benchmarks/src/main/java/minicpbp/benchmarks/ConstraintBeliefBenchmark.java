@@ -0,0 +1,134 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.benchmarks;
+
+import minicpbp.engine.core.Constraint;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static minicpbp.cp.Factory.*;
+
+/**
+ * The computation of the local beliefs of a constraint (its updateBelief()),
+ * given non-uniform outside beliefs, across scope and domain sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConstraintBeliefBenchmark {
+
+    @Param({"Regular", "CostRegular", "Sum", "TableCT", "AllDifferentAC", "Among"})
+    public String constraint;
+
+    // scope size
+    @Param({"5", "20"})
+    public int n;
+
+    // domain size
+    @Param({"20", "50"})
+    public int d;
+
+    private Constraint c;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rnd = new Random(42);
+        Solver cp = makeSolver();
+        IntVar[] x = makeIntVarArray(cp, n, d);
+        switch (constraint) {
+            case "Regular":
+                c = regular(x, randomAutomaton(rnd, 5, d));
+                break;
+            case "CostRegular": {
+                int[] cost = new int[d];
+                for (int v = 0; v < d; v++) {
+                    cost[v] = rnd.nextInt(10);
+                }
+                c = costRegular(x, randomAutomaton(rnd, 5, d), cost, makeIntVar(cp, 2 * n, 6 * n));
+                break;
+            }
+            case "Sum":
+                c = sum(x, n * (d - 1) / 2);
+                break;
+            case "TableCT": {
+                int[][] table = new int[10 * d][n];
+                for (int[] tuple : table) {
+                    for (int i = 0; i < n; i++) {
+                        tuple[i] = rnd.nextInt(d);
+                    }
+                }
+                c = table(x, table);
+                break;
+            }
+            case "AllDifferentAC":
+                c = allDifferentAC(x);
+                break;
+            case "Among": {
+                int[] values = new int[d / 4];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = v;
+                }
+                c = among(x, values, makeIntVar(cp, n / 8, n / 2));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(constraint);
+        }
+        cp.post(c);
+        // non-uniform messages to the constraint
+        int[] values = new int[d];
+        for (int v = 0; v < d; v++) {
+            values[v] = v;
+        }
+        for (IntVar xi : x) {
+            double[] marginals = new double[d];
+            for (int v = 0; v < d; v++) {
+                marginals[v] = 0.1 + rnd.nextDouble();
+            }
+            cp.post(oracle(xi, values, marginals));
+        }
+        cp.fixPoint();
+        cp.beliefPropa();
+        c.receiveMessages();
+    }
+
+    private static int[][] randomAutomaton(Random rnd, int nbStates, int nbValues) {
+        int[][] A = new int[nbStates][nbValues];
+        for (int[] transitions : A) {
+            for (int v = 0; v < nbValues; v++) {
+                transitions[v] = rnd.nextInt(nbStates);
+            }
+        }
+        return A;
+    }
+
+    @Benchmark
+    public Constraint updateBelief() {
+        c.computeLocalBelief();
+        return c;
+    }
+}
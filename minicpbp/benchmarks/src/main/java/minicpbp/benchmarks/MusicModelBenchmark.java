@@ -0,0 +1,136 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.benchmarks;
+
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.examples.MusicCPSession;
+import minicpbp.examples.pitchKey;
+import minicpbp.examples.rhythmAlldifferentReset;
+import minicpbp.state.StateManager;
+import minicpbp.util.exception.InconsistencyException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagation and belief propagation on the music models, with the bundled MusicCP test data:
+ * the model of a generation step, whose prefix is fixed and whose next token holds the oracle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MusicModelBenchmark {
+
+    @Param({"pitchKey", "rhythmAlldifferentReset"})
+    public String model;
+
+    private Solver cp;
+    private StateManager sm;
+    private IntVar next; // the variable of the next token
+    private int value; // its most likely value
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int[] prefix;
+        double[] distribution;
+        MusicCPSession session;
+        double oracleWeight;
+        switch (model) {
+            case "pitchKey": {
+                double[] data = BenchmarkData.readNumbers(BenchmarkData.musicFile("pitch_testing_62.dat"), 62 + pitchKey.nbVal);
+                prefix = BenchmarkData.toTokens(data, 0, 62);
+                distribution = Arrays.copyOfRange(data, 62, data.length);
+                int[] rhythm = BenchmarkData.toTokens(BenchmarkData.readNumbers(BenchmarkData.musicFile("rhythm_for_pitch_testing.dat"), pitchKey.nbVar), 0, pitchKey.nbVar);
+                session = pitchKey.makeSession(rhythm, prefix, 1, 6);
+                oracleWeight = pitchKey.oracleWeight(0.6, prefix.length, 6);
+                break;
+            }
+            case "rhythmAlldifferentReset": {
+                double[] data = BenchmarkData.readNumbers(BenchmarkData.musicFile("rhythm_testing_31.dat"), 31 + rhythmAlldifferentReset.nbVal);
+                prefix = BenchmarkData.toTokens(data, 0, 31);
+                distribution = Arrays.copyOfRange(data, 31, data.length);
+                session = rhythmAlldifferentReset.makeSession(prefix, 2);
+                oracleWeight = 0.7;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(model);
+        }
+        // posts the oracle and applies a first BP
+        double[] marginals = session.marginals(prefix, distribution, oracleWeight);
+        cp = session.getSolver();
+        sm = cp.getStateManager();
+        next = cp.getVariables().get(prefix.length); // the token variables are created first
+        value = 0;
+        for (int v = 1; v < marginals.length; v++) {
+            if (marginals[v] > marginals[value])
+                value = v;
+        }
+    }
+
+    /**
+     * Belief propagation on the model of the step.
+     */
+    @Benchmark
+    public double beliefPropa() {
+        cp.beliefPropa();
+        return next.marginal(value);
+    }
+
+    /**
+     * Propagation of the choice of the next token.
+     */
+    @Benchmark
+    public int fixPoint() {
+        sm.saveState();
+        try {
+            next.assign(value);
+            cp.fixPoint();
+        } catch (InconsistencyException e) {
+            return -1;
+        } finally {
+            sm.restoreState();
+        }
+        return next.size();
+    }
+
+    /**
+     * The choice of the next token, followed by propagation and belief propagation.
+     */
+    @Benchmark
+    public double step() {
+        sm.saveState();
+        try {
+            next.assign(value);
+            cp.fixPoint();
+            cp.beliefPropa();
+            return cp.beliefPropaResidual();
+        } catch (InconsistencyException e) {
+            return -1;
+        } finally {
+            sm.restoreState();
+        }
+    }
+}
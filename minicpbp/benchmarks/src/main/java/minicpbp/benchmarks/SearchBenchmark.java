@@ -0,0 +1,127 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.benchmarks;
+
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.Objective;
+import minicpbp.search.SearchStatistics;
+import minicpbp.util.io.InputReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+
+/**
+ * Depth-first searches, in the default propagation mode of the solver,
+ * on the models of the NQueens and QAP examples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+    // the QAP instance is restricted to its first facilities and locations,
+    // and its search to its first nodes: each node runs belief propagation on the large domain of the cost
+    private static final int QAP_SIZE = 5;
+    private static final int QAP_NODE_LIMIT = 20;
+
+    private PrintStream out;
+    private int[][] qapWeights;
+    private int[][] qapDistances;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the search prints its progress
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        InputReader reader = new InputReader(BenchmarkData.file("data/qap.txt").getPath());
+        int n = reader.getInt();
+        int[][] w = reader.getMatrix(n, n);
+        int[][] d = reader.getMatrix(n, n);
+        qapWeights = new int[QAP_SIZE][];
+        qapDistances = new int[QAP_SIZE][];
+        for (int i = 0; i < QAP_SIZE; i++) {
+            qapWeights[i] = Arrays.copyOf(w[i], QAP_SIZE);
+            qapDistances[i] = Arrays.copyOf(d[i], QAP_SIZE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * All the solutions of the 8-queens problem.
+     */
+    @Benchmark
+    public int nQueens() {
+        int n = 8;
+        Solver cp = makeSolver();
+        IntVar[] q = makeIntVarArray(cp, n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                cp.post(notEqual(q[i], q[j]));
+                cp.post(notEqual(q[i], q[j], j - i));
+                cp.post(notEqual(q[i], q[j], i - j));
+            }
+        }
+        DFSearch search = makeDfs(cp, firstFail(q));
+        SearchStatistics stats = search.solve();
+        return stats.numberOfSolutions();
+    }
+
+    /**
+     * The first nodes of the minimization of (a restriction of) the QAP example instance.
+     */
+    @Benchmark
+    public int qap() {
+        int n = qapWeights.length;
+        Solver cp = makeSolver();
+        IntVar[] x = makeIntVarArray(cp, n, n);
+        cp.post(allDifferent(x));
+        IntVar[] weightedDist = new IntVar[n * n];
+        for (int k = 0, i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                weightedDist[k] = mul(element(qapDistances, x[i], x[j]), qapWeights[i][j]);
+                k++;
+            }
+        }
+        IntVar totCost = sum(weightedDist);
+        Objective obj = cp.minimize(totCost);
+        DFSearch search = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = search.optimize(obj, s -> s.numberOfNodes() >= QAP_NODE_LIMIT);
+        return stats.numberOfSolutions();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.benchmarks;
+
+import minicpbp.state.Copier;
+import minicpbp.state.StateDoubleArray;
+import minicpbp.state.StateInt;
+import minicpbp.state.StateManager;
+import minicpbp.state.Trailer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and restoring the state along a dive of a given depth,
+ * with the trail and the copy strategies,
+ * the state consisting of stateful integers or of a restorable array (as the local beliefs of a constraint).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StateManagerBenchmark {
+
+    @Param({"Trailer", "Copier"})
+    public String stateManager;
+
+    @Param({"StateInt", "StateDoubleArray"})
+    public String state;
+
+    // nb of stateful entries, and nb of them modified at each level
+    @Param({"1000"})
+    public int size;
+    @Param({"100"})
+    public int modified;
+
+    private static final int DEPTH = 10;
+
+    private StateManager sm;
+    private StateInt[] ints;
+    private StateDoubleArray doubles;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        sm = stateManager.equals("Trailer") ? new Trailer() : new Copier();
+        if (state.equals("StateInt")) {
+            ints = new StateInt[size];
+            for (int i = 0; i < size; i++) {
+                ints[i] = sm.makeStateInt(i);
+            }
+        } else {
+            doubles = new StateDoubleArray(sm, size, 1.0);
+        }
+        sm.saveState();
+    }
+
+    @Benchmark
+    public int dive() {
+        int level = sm.getLevel();
+        for (int depth = 1; depth <= DEPTH; depth++) {
+            sm.saveState();
+            for (int k = 0; k < modified; k++) {
+                int i = (depth * modified + k) % size;
+                if (ints != null)
+                    ints[i].setValue(depth);
+                else
+                    doubles.set(i, depth);
+            }
+        }
+        sm.restoreStateUntil(level);
+        return sm.getLevel();
+    }
+}
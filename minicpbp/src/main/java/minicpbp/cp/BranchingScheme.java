@@ -29,6 +29,7 @@ import minicpbp.util.exception.NotImplementedException;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.Random;
 
 import static minicpbp.cp.Factory.*;
@@ -51,8 +52,8 @@ import static minicpbp.cp.Factory.*;
  *   else {
  *      IntVar qi = q[idx];
  *      int v = qi.min();
- *      Procedure left = () -> Factory.equal(qi, v);
- *      Procedure right = () -> Factory.notEqual(qi, v);
+ *      Procedure left = () -> branchEqual(qi, v);
+ *      Procedure right = () -> branchNotEqual(qi, v);
  *      return branch(left,right);
  *   }
  * });
@@ -92,6 +93,34 @@ public final class BranchingScheme {
         return branches;
     }
 
+    /**
+     * Decision of a branch assigning a variable to a value, followed by propagation
+     * (fix-point and/or belief propagation depending on the mode).
+     * It has the effect of posting {@link Factory#equal(IntVar, int)} with propagation,
+     * without creating a constraint nor adding it to those of the solver.
+     *
+     * @param x the variable
+     * @param v the value assigned to x
+     */
+    public static void branchEqual(IntVar x, int v) {
+        x.assign(v);
+        x.getSolver().propagateSolver();
+    }
+
+    /**
+     * Decision of a branch removing a value from the domain of a variable, followed by propagation
+     * (fix-point and/or belief propagation depending on the mode).
+     * It has the effect of posting {@link Factory#notEqual(IntVar, int)} with propagation,
+     * without creating a constraint nor adding it to those of the solver.
+     *
+     * @param x the variable
+     * @param v the value removed from the domain of x
+     */
+    public static void branchNotEqual(IntVar x, int v) {
+        x.remove(v);
+        x.getSolver().propagateSolver();
+    }
+
     /**
      * Minimum selector.
      * <p>Example of usage.
@@ -162,6 +191,73 @@ public final class BranchingScheme {
         return sel;
     }
 
+    /**
+     * Minimum selector on a primitive evaluation, which is not boxed.
+     * Equivalent to {@link #selectMin(Object[], Predicate, Function)}
+     * with an evaluation function returning a {@link Double}.
+     *
+     * @param x   the array on which the minimum value is searched
+     * @param p   the predicate that filters the element eligible for selection
+     * @param f   the evaluation function applied on an element of x
+     * @param <T> the type of the elements in x, for instance {@link IntVar}
+     * @return the minimum element in x that satisfies the predicate p
+     * or null if no element satisfies the predicate.
+     */
+    public static <T> T selectMinDouble(T[] x, Predicate<T> p, ToDoubleFunction<T> f) {
+        T sel = null;
+        double min = 0;
+        for (T xi : x) {
+            if (p.test(xi)) {
+                double fi = f.applyAsDouble(xi);
+                if (sel == null || Double.compare(fi, min) < 0) {
+                    sel = xi;
+                    min = fi;
+                }
+            }
+        }
+        return sel;
+    }
+
+    /**
+     * Minimum selector on a primitive evaluation, which is not boxed, with randomized tie-breaking.
+     * Equivalent to {@link #selectMinRandomTieBreak(Object[], Predicate, Function)}
+     * with an evaluation function returning a {@link Double}.
+     *
+     * @param x   the array on which the minimum value is searched
+     * @param p   the predicate that filters the element eligible for selection
+     * @param f   the evaluation function applied on an element of x
+     * @param <T> the type of the elements in x, for instance {@link IntVar}
+     * @return a minimum element in x that satisfies the predicate p, chosen uniformly at random,
+     * or null if no element satisfies the predicate.
+     */
+    public static <T> T selectMinDoubleRandomTieBreak(T[] x, Predicate<T> p, ToDoubleFunction<T> f) {
+        nbTied = 0;
+        T sel = null;
+        double min = 0;
+        for (T xi : x) {
+            if (p.test(xi)) {
+                double fi = f.applyAsDouble(xi);
+                if (sel == null) {
+                    sel = xi;
+                    min = fi;
+                    nbTied = 1;
+                } else {
+                    int comparison = Double.compare(fi, min);
+                    if (comparison < 0) {
+                        sel = xi;
+                        min = fi;
+                        nbTied = 1;
+                    } else if (comparison == 0) {
+                        nbTied++;
+                        if (rand.nextInt(nbTied) == 0) // with probability 1/nbTied
+                            sel = xi;
+                    }
+                }
+            }
+        }
+        return sel;
+    }
+
     //TODO
     /**
      * Lexicographic strategy.
@@ -177,7 +273,7 @@ public final class BranchingScheme {
     public static Supplier<Procedure[]> lexico(IntVar... x) {
         boolean tracing = x[0].getSolver().tracingSearch(); // TODO set in every search ?
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> 1); // any constant value
             if (xs == null)
@@ -188,12 +284,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -213,7 +309,7 @@ public final class BranchingScheme {
     public static Supplier<Procedure[]> firstFail(IntVar... x) {
         boolean tracing = x[0].getSolver().tracingSearch();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> xi.size());
             if (xs == null)
@@ -224,12 +320,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -249,7 +345,7 @@ public final class BranchingScheme {
     public static Supplier<Procedure[]> firstFailRandomVal(IntVar... x) {
         boolean tracing = x[0].getSolver().tracingSearch();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> xi.size());
             if (xs == null)
@@ -260,12 +356,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -286,7 +382,7 @@ public final class BranchingScheme {
     public static Supplier<Procedure[]> firstFailRandomTieBreakRandomVal(IntVar... x) {
         boolean tracing = x[0].getSolver().tracingSearch();
         return () -> {
-            IntVar xs = selectMinRandomTieBreak(x,
+            IntVar xs = selectMinDoubleRandomTieBreak(x,
                     xi -> xi.size() > 1,
                     xi -> xi.size());
             if (xs == null)
@@ -297,12 +393,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + "; nb of ties=" + nbTied);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -322,7 +418,7 @@ public final class BranchingScheme {
     public static Supplier<Procedure[]> randomVarRandomVal(IntVar... x) {
         boolean tracing = x[0].getSolver().tracingSearch();
         return () -> {
-            IntVar xs = selectMinRandomTieBreak(x,
+            IntVar xs = selectMinDoubleRandomTieBreak(x,
                     xi -> xi.size() > 1,
                     xi -> 1); // any constant value
             if (xs == null)
@@ -333,12 +429,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + "; nb of ties=" + nbTied);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -360,7 +456,7 @@ public final class BranchingScheme {
         boolean tracing = x[0].getSolver().tracingSearch();
         Belief beliefRep = x[0].getSolver().getBeliefRep();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> 1.0 / xi.size() - beliefRep.rep2std(xi.maxMarginal()));
             if (xs == null)
@@ -371,12 +467,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + "; marginal=" + beliefRep.rep2std(xs.maxMarginal()) + "; strength=" + (beliefRep.rep2std(xs.maxMarginal()) - 1.0 / xs.size()));
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -399,7 +495,7 @@ public final class BranchingScheme {
         Belief beliefRep = x[0].getSolver().getBeliefRep();
 
         return () -> {
-            IntVar xs = selectMinRandomTieBreak(x,
+            IntVar xs = selectMinDoubleRandomTieBreak(x,
                     xi -> xi.size() > 1,
                     xi -> Math.floor(precisionForTie * (1.0 / xi.size() - beliefRep.rep2std(xi.maxMarginal()))) / precisionForTie); // tie = same first few decimal places
             if (xs == null)
@@ -410,12 +506,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + "; marginal=" + beliefRep.rep2std(xs.maxMarginal()) + "; strength=" + (beliefRep.rep2std(xs.maxMarginal()) - 1.0 / xs.size()) + "; nb of ties=" + nbTied);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -438,7 +534,7 @@ public final class BranchingScheme {
         Belief beliefRep = x[0].getSolver().getBeliefRep();
 
         return () -> {
-            IntVar xs = selectMinRandomTieBreak(x,
+            IntVar xs = selectMinDoubleRandomTieBreak(x,
                     xi -> xi.size() > 1,
                     xi -> Math.floor(precisionForTie * (-beliefRep.rep2std(xi.maxMarginalRegret()))) / precisionForTie); // tie = same first few decimal places
             if (xs == null)
@@ -449,12 +545,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + "; marginal=" + beliefRep.rep2std(xs.maxMarginal()) + "; regret=" + (beliefRep.rep2std(xs.maxMarginalRegret())) + "; nb of ties=" + nbTied);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -476,7 +572,7 @@ public final class BranchingScheme {
         boolean tracing = x[0].getSolver().tracingSearch();
         Belief beliefRep = x[0].getSolver().getBeliefRep();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> beliefRep.rep2std(xi.minMarginal()) - 1.0 / xi.size());
             if (xs == null)
@@ -487,12 +583,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v + " marginal=" + (1 - beliefRep.rep2std(xs.minMarginal())));
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         });
             }
         };
@@ -514,7 +610,7 @@ public final class BranchingScheme {
         boolean tracing = x[0].getSolver().tracingSearch();
         Belief beliefRep = x[0].getSolver().getBeliefRep();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> -beliefRep.rep2std(xi.maxMarginal()));
             if (xs == null)
@@ -525,12 +621,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v + " marginal=" + beliefRep.rep2std(xs.maxMarginal()));
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v);
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         });
             }
         };
@@ -552,7 +648,7 @@ public final class BranchingScheme {
         boolean tracing = x[0].getSolver().tracingSearch();
         Belief beliefRep = x[0].getSolver().getBeliefRep();
         return () -> {
-            IntVar xs = selectMin(x,
+            IntVar xs = selectMinDouble(x,
                     xi -> xi.size() > 1,
                     xi -> beliefRep.rep2std(xi.minMarginal()));
             if (xs == null)
@@ -563,12 +659,12 @@ public final class BranchingScheme {
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "!=" + v + " marginal=" + (1 - beliefRep.rep2std(xs.minMarginal())));
-                            xs.getSolver().post(notEqual(xs, v),true);
+                            branchNotEqual(xs, v);
                         },
                         () -> {
                             if (tracing)
                                 System.out.println("### branching on " + xs.getName() + "=" + v);
-                            xs.getSolver().post(equal(xs, v),true);
+                            branchEqual(xs, v);
                         });
             }
         };
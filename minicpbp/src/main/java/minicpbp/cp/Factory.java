@@ -85,6 +85,29 @@ public final class Factory {
         return new MiniCP(byCopy ? new Copier() : new Trailer());
     }
 
+    /**
+     * Creates a constraint programming solver with the given parameters
+     *
+     * @param config the parameters of the solver
+     * @return a constraint programming solver with trail-based memory management
+     */
+    public static Solver makeSolver(SolverConfig config) {
+        return new MiniCP(new Trailer(), config);
+    }
+
+    /**
+     * Creates a constraint programming solver with the given parameters
+     *
+     * @param byCopy a value that should be true to specify
+     *               copy-based state management
+     *               or falso for a trail-based memory management
+     * @param config the parameters of the solver
+     * @return a constraint programming solver
+     */
+    public static Solver makeSolver(boolean byCopy, SolverConfig config) {
+        return new MiniCP(byCopy ? new Copier() : new Trailer(), config);
+    }
+
     /**
      * Creates a variable with a domain of specified arity.
      *
@@ -949,7 +972,9 @@ public final class Factory {
     /**
      * Returns an among constraint.
      * This relation is enforced by the {@link Among} constraint
-     * posted by calling this method.
+     * posted by calling this method, which has no indicator variables;
+     * if the solver fuses the constraints (see {@link Solver#setFuseConstraints(boolean)}),
+     * it is fused with the other among constraints on the same variables.
      *
      * @param x an array of variables whose instantiations belonging to V we count
      * @param V an array of values whose occurrences in x we count
@@ -957,15 +982,22 @@ public final class Factory {
      * @return a constraint so that {@code (x[0] \in V) + (x[1] \in V) + ... + (x[x.length-1] \in V) == o}
      */
     public static Constraint among(IntVar[] x, int[] V, IntVar o) {
-        Solver cp = x[0].getSolver();
-        IntVar[] vars = Arrays.copyOf(x, 2 * x.length);
-        IntVar[] y = new IntVar[x.length]; // indicator variables: (y[i] == 1) iff (x[i] \in V)
-        for (int i = 0; i < y.length; i++) {
-            y[i] = makeIntVar(cp, 0, 1);
-            y[i].setName("y" + "[" + i + "]");
-            vars[x.length + i] = y[i];
-        }
-        return new Among(x, V, o, y, vars);
+        return new Among(x, V, o);
+    }
+
+    /**
+     * Returns a multi-among constraint, i.e. among constraints on the same variables
+     * for pairwise disjoint sets of values, without indicator variables.
+     * This relation is enforced by the {@link MultiAmong} constraint
+     * posted by calling this method.
+     *
+     * @param x an array of variables whose instantiations belonging to each V[j] we count
+     * @param V pairwise disjoint arrays of values whose occurrences in x we count
+     * @param o the variables corresponding to the number of occurrences of values from each V[j] in x
+     * @return a constraint so that {@code (x[0] \in V[j]) + (x[1] \in V[j]) + ... + (x[x.length-1] \in V[j]) == o[j]} for each j
+     */
+    public static Constraint among(IntVar[] x, int[][] V, IntVar[] o) {
+        return new MultiAmong(x, V, o);
     }
 
     /**
@@ -1004,20 +1036,17 @@ public final class Factory {
 
     /**
      * Returns a cardinality constraint.
-     * This relation is currently enforced by decomposing it into {@link Among} constraints; hence it is not domain consistent
+     * This relation is enforced by the {@link Cardinality} constraint
+     * posted by calling this method, domain consistent on x given the bounds of o.
      *
      * @param x    an array of variables
-     * @param vals an array of values whose occurrences in x we count
+     * @param vals an array of distinct values whose occurrences in x we count
      * @param o    an array of variables corresponding to the number of occurrences of vals in x
      * @return a cardinality constraint
      */
     public static Constraint cardinality(IntVar[] x, int[] vals, IntVar[] o) {
         assert (vals.length == o.length);
-        int maxDomainSize = 0;
-        for (int i = 0; i < x.length; i++) {
-            maxDomainSize = Math.max(maxDomainSize, x[i].size());
-        }
-        return new Cardinality(x, vals, o, makeIntVar(x[0].getSolver(), 1, maxDomainSize));
+        return new Cardinality(x, vals, o);
     }
 
     /**
@@ -1025,18 +1054,13 @@ public final class Factory {
      */
     public static Constraint cardinality(IntVar[] x, int[] vals, int[] o) {
         assert (vals.length == o.length);
-        int maxDomainSize = 0;
-        for (int i = 0; i < x.length; i++) {
-            maxDomainSize = Math.max(maxDomainSize, x[i].size());
-        }
         IntVar[] oVar = new IntVar[o.length];
         Solver cp = x[0].getSolver();
         for (int i = 0; i < o.length; i++) {
             oVar[i] = makeIntVar(cp, o[i], o[i]);
         }
-        return new Cardinality(x, vals, oVar, makeIntVar(cp, 1, maxDomainSize));
+        return new Cardinality(x, vals, oVar);
     }
-
     /**
      * Returns a sum modulo p constraint.
      *
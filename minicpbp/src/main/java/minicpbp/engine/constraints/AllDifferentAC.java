@@ -230,10 +230,10 @@ public class AllDifferentAC extends AbstractConstraint {
     }
 
     @Override
-    public void updateBelief() {
-        int nbVar, nbVal;
+    public void eliminateBoundVars() {
+        super.eliminateBoundVars();
         // update freeVars/Vals according to bound variables
-        nbVar = freeVars.fillArray(varIndices);
+        int nbVar = freeVars.fillArray(varIndices);
         for (int j = 0; j < nbVar; j++) {
             int i = varIndices[j];
             if (x[i].isBound()) {
@@ -255,6 +255,12 @@ public class AllDifferentAC extends AbstractConstraint {
                 }
             }
         }
+    }
+
+    @Override
+    public void updateBelief() {
+        int nbVar, nbVal;
+        // the bound variables were removed from freeVars/Vals by eliminateBoundVars()
         // initialize outside beliefs matrix (MUST BE IN STANDARD [0,1] REPRESENTATION)
         nbVar = freeVars.fillArray(varIndices);
         nbVal = freeVals.fillArray(vals);
@@ -18,76 +18,282 @@
 
 package minicpbp.engine.constraints;
 
-import java.util.Arrays;
-
-import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
-import minicpbp.engine.core.Solver;
+import minicpbp.util.GraphUtil;
+import minicpbp.util.GraphUtil.Graph;
+import minicpbp.util.exception.InconsistencyException;
 
-import static minicpbp.cp.Factory.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Creates a cardinality constraint.
- * This relation is currently enforced by decomposing it into
- * table constraints linking each x[i] to its indicator variables y[i][j] (y[i][j]==1 iff x[i]==vals[j]) and
- * sum constraints y[0][j]+...+y[x.length-1][j]==o[j];
- * hence it is not domain consistent
- *
- * @param x    an array of variables
- * @param vals an array of values whose occurrences in x we count
- * @param o    an array of variables corresponding to the number of occurrences of vals in x
- * @return a cardinality constraint
+ * Cardinality (global cardinality) constraint: the nb of occurrences of each vals[j] in x is o[j].
+ * <p>
+ * The variables x are filtered to domain consistency given the bounds of the o variables,
+ * from a feasible flow in the variable-value network whose arcs from each value to the sink
+ * are bounded by [o[j].min(),o[j].max()] (values not in vals being unbounded) and
+ * the strongly connected components of its residual graph.
+ * Algorithm described in
+ * "Generalized arc consistency for global cardinality constraint" J-C. Régin, AAAI-96
+ * <p>
+ * The o variables are filtered by counting the variables that must and that may take each value,
+ * and the beliefs are computed as those of the {@link MultiAmong} constraint with a single value per set:
+ * exact weighted counting by a DP over the vectors of the counts of the values while there are at most
+ * {@link MultiAmong#MAX_JOINT_STATES} of them, and otherwise an approximation, the product of a counting DP
+ * per value as if the counts of the values were independent (see {@link #isExactWCounting()}).
  */
-public class Cardinality extends AbstractConstraint {
+public class Cardinality extends MultiAmong {
 
     private IntVar[] x;
-    private int[] vals;
     private IntVar[] o;
-    private Solver cp;
-    private IntVar[][] y;
-    private int[][][] indicatorTable;
+    private int nVar;
+    private int nVal;
+    private int minVal;
+    private int[] card; // card[v - minVal] = j if v == vals[j], -1 otherwise
+    private int[] low; // low[v - minVal] = lower bound on the nb of occurrences of v
+    private int[] up; // up[v - minVal] = upper bound on the nb of occurrences of v
+
+    // the flow: the value taken by each variable, and the nb of variables taking each value
+    private int[] match;
+    private int[] load;
+    // augmenting paths
+    private int[] queue;
+    private int[] varQueue;
+    private int[] prevVar; // for a value, the variable through which it was reached
+    private int[] prevVal; // for a value, the value from which it was reached
+    private int[] seen;
+    private int[] varSeen;
+    private int magic = 0;
+
+    // residual graph
+    private List<List<Integer>> in;
+    private List<List<Integer>> out;
+    private int nNodes;
+    private Graph g = new Graph() {
+        @Override
+        public int n() {
+            return nNodes;
+        }
 
-    public Cardinality(IntVar[] x, int[] vals, IntVar[] o, IntVar dummy) {
-        super(x[0].getSolver(), new IntVar[]{dummy}); // not a real constraint so we want a minimal footprint in the superclass' constructor, but with a domain large enough to define an appropriate domainValues array
+        @Override
+        public Iterable<Integer> in(int idx) {
+            return in.get(idx);
+        }
+
+        @Override
+        public Iterable<Integer> out(int idx) {
+            return out.get(idx);
+        }
+    };
+
+    /**
+     * Creates a cardinality constraint.
+     * <p> This constraint holds iff
+     * {@code (x[0] == vals[j]) + (x[1] == vals[j]) + ... + (x[x.length-1] == vals[j]) == o[j]} for each j.
+     *
+     * @param x    an array of variables
+     * @param vals an array of distinct values whose occurrences in x we count
+     * @param o    an array of variables corresponding to the number of occurrences of vals in x
+     */
+    public Cardinality(IntVar[] x, int[] vals, IntVar[] o) {
+        super(x, singletons(vals), o);
         setName("Cardinality");
         this.x = x;
-        this.vals = vals;
         this.o = o;
-        cp = x[0].getSolver();
-        y = new IntVar[x.length][vals.length]; // indicator variables: (y[i][j] == 1) iff (x[i] == vals[j])
-        indicatorTable = new int[x.length][][];
-        for (int i = 0; i < x.length; i++) {
-            for (int j = 0; j < vals.length; j++) {
-                y[i][j] = makeIntVar(cp, 0, 1);
-                y[i][j].setName("y" + "[" + i + "]" + "[" + j + "]");
-            }
+        nVar = x.length;
+        minVal = Integer.MAX_VALUE;
+        int maxVal = Integer.MIN_VALUE;
+        for (IntVar var : x) {
+            minVal = Math.min(minVal, var.min());
+            maxVal = Math.max(maxVal, var.max());
+        }
+        nVal = maxVal - minVal + 1;
+        card = new int[nVal];
+        Arrays.fill(card, -1);
+        for (int j = 0; j < vals.length; j++) {
+            if (vals[j] >= minVal && vals[j] <= maxVal)
+                card[vals[j] - minVal] = j;
+        }
+        low = new int[nVal];
+        up = new int[nVal];
+        match = new int[nVar];
+        Arrays.fill(match, -1);
+        load = new int[nVal];
+        queue = new int[nVal];
+        varQueue = new int[nVar];
+        varSeen = new int[nVar];
+        prevVar = new int[nVal];
+        prevVal = new int[nVal];
+        seen = new int[nVal];
+        nNodes = nVar + nVal + 1;
+        in = new ArrayList<>(nNodes);
+        out = new ArrayList<>(nNodes);
+        for (int i = 0; i < nNodes; i++) {
+            in.add(new ArrayList<>());
+            out.add(new ArrayList<>());
+        }
+    }
+
+    private static int[][] singletons(int[] vals) {
+        int[][] V = new int[vals.length][];
+        for (int j = 0; j < vals.length; j++) {
+            V[j] = new int[]{vals[j]};
+        }
+        return V;
+    }
+
+    @Override
+    protected boolean fusible() {
+        return false; // the fused constraint would not filter as much
+    }
+
+    @Override
+    public void propagate() {
+        for (int k = 0; k < nVal; k++) {
+            int j = card[k];
+            low[k] = j < 0 ? 0 : o[j].min();
+            up[k] = j < 0 ? nVar : o[j].max();
+        }
+        findFlow();
+        updateGraph();
+        int[] scc = GraphUtil.stronglyConnectedComponents(g);
+        for (int i = 0; i < nVar; i++) {
             int s = x[i].fillArray(domainValues);
-            indicatorTable[i] = new int[s][vals.length + 1];
-            for (int j = 0; j < s; j++) {
-                int v = domainValues[j];
-                for (int k = 0; k < vals.length; k++) {
-                    indicatorTable[i][j][k] = (vals[k] == v ? 1 : 0);
+            for (int k = 0; k < s; k++) {
+                int v = domainValues[k] - minVal;
+                if (match[i] != v && scc[i] != scc[nVar + v]) {
+                    x[i].remove(domainValues[k]);
                 }
-                indicatorTable[i][j][vals.length] = v;
             }
         }
-        setExactWCounting(false);
+        // the bounds of the o variables
+        super.propagate();
     }
 
-    @Override
-    public void post() {
-        for (int i = 0; i < x.length; i++) {
-            IntVar[] vars = Arrays.copyOf(y[i], vals.length + 1);
-            vars[vals.length] = x[i];
-            cp.post(table(vars, indicatorTable[i]));
+    // a flow within the bounds, starting from the previous one, or an inconsistency
+    private void findFlow() {
+        Arrays.fill(load, 0);
+        for (int i = 0; i < nVar; i++) {
+            if (match[i] >= 0 && x[i].contains(match[i] + minVal) && load[match[i]] < up[match[i]])
+                load[match[i]]++;
+            else
+                match[i] = -1;
         }
-        for (int j = 0; j < vals.length; j++) {
-            IntVar[] vars = new IntVar[x.length];
-            for (int i = 0; i < x.length; i++) {
-                vars[i] = y[i][j];
+        // each variable takes a value within the upper bounds
+        for (int i = 0; i < nVar; i++) {
+            if (match[i] < 0 && !assign(i))
+                throw new InconsistencyException();
+        }
+        // then each value is taken up to its lower bound
+        for (int v = 0; v < nVal; v++) {
+            while (load[v] < low[v]) {
+                if (!fill(v))
+                    throw new InconsistencyException();
             }
-            cp.post(sum(vars, o[j]));
         }
     }
 
+    // finds an augmenting path from variable i to a value below its upper bound
+    private boolean assign(int i) {
+        magic++;
+        int head = 0;
+        int tail = 0;
+        varQueue[tail++] = i;
+        varSeen[i] = magic;
+        while (head < tail) {
+            int var = varQueue[head++];
+            int s = x[var].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int v = domainValues[k] - minVal;
+                if (seen[v] == magic)
+                    continue;
+                seen[v] = magic;
+                prevVar[v] = var;
+                if (load[v] < up[v]) {
+                    // shift the variables along the path
+                    load[v]++;
+                    int old;
+                    do {
+                        var = prevVar[v];
+                        old = match[var];
+                        match[var] = v;
+                        v = old;
+                    } while (var != i);
+                    return true;
+                }
+                // continue from the variables taking v
+                for (int z = 0; z < nVar; z++) {
+                    if (match[z] == v && varSeen[z] != magic) {
+                        varSeen[z] = magic;
+                        varQueue[tail++] = z;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // finds an augmenting path from value v to a variable taking a value above its lower bound
+    private boolean fill(int v) {
+        magic++;
+        seen[v] = magic;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = v;
+        while (head < tail) {
+            int a = queue[head++];
+            for (int i = 0; i < nVar; i++) {
+                int b = match[i];
+                if (b == a || seen[b] == magic || !x[i].contains(a + minVal))
+                    continue;
+                seen[b] = magic;
+                prevVar[b] = i;
+                prevVal[b] = a;
+                if (load[b] > low[b]) {
+                    // shift the variables along the path
+                    load[b]--;
+                    load[v]++;
+                    while (b != v) {
+                        match[prevVar[b]] = prevVal[b];
+                        b = prevVal[b];
+                    }
+                    return true;
+                }
+                queue[tail++] = b;
+            }
+        }
+        return false;
+    }
+
+    private void updateGraph() {
+        int sink = nNodes - 1;
+        for (int j = 0; j < nNodes; j++) {
+            in.get(j).clear();
+            out.get(j).clear();
+        }
+        for (int i = 0; i < nVar; i++) {
+            int s = x[i].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int v = domainValues[k] - minVal;
+                if (match[i] == v) {
+                    in.get(i).add(nVar + v);
+                    out.get(nVar + v).add(i);
+                } else {
+                    in.get(nVar + v).add(i);
+                    out.get(i).add(nVar + v);
+                }
+            }
+        }
+        for (int v = 0; v < nVal; v++) {
+            if (load[v] < up[v]) {
+                in.get(sink).add(nVar + v);
+                out.get(nVar + v).add(sink);
+            }
+            if (load[v] > low[v]) {
+                in.get(nVar + v).add(sink);
+                out.get(sink).add(nVar + v);
+            }
+        }
+    }
 }
@@ -20,19 +20,25 @@ package minicpbp.engine.constraints;
 
 import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
+import minicpbp.state.StateInt;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
 
 /**
  * CostRegular Constraint
+ * <p>
+ * The shortest and longest path lengths through each state of the layered graph give it a cost window;
+ * the propagation removes the values whose arcs all have a window (that of the paths through them) missing the domain
+ * of the total cost, and belief propagation only visits the states whose window intersects it,
+ * reusing the path lengths computed by the propagation in the same search node.
+ * The transitions are stored per value, so that only the valid ones are visited.
  */
 public class CostRegular extends AbstractConstraint {
     private IntVar[] x;
     private int[][] transitionFct;
     private int initialState;
-    private List<Integer> finalStates;
+    private int[] finalStates;
     private int[][][] cost;
     private IntVar totalCost;
     private int n;
@@ -43,6 +49,15 @@ public class CostRegular extends AbstractConstraint {
     private int[][] ominp; // ominp[i][j] = length of shortest path from state (i,j) to a final state by reading x[i+1]..x[n-1]
     private int[][] imaxp; // iminp[i][j] = length of longest path reaching state (i,j) by reading x[0]..x[i-1] from the initial state
     private int[][] omaxp; // ominp[i][j] = length of longest path from state (i,j) to a final state by reading x[i+1]..x[n-1]
+    // the valid transitions on value v: arcFrom[v][a] -> arcTo[v][a]
+    private int[][] arcFrom;
+    private int[][] arcTo;
+    private long[] minSuffix; // minSuffix[i] = lower bound on the cost of reading x[i]..x[n-1]
+    private long[] maxSuffix; // maxSuffix[i] = upper bound on the cost of reading x[i]..x[n-1]
+    private boolean[][] inWindow; // inWindow[i][k] iff the cost window of state k of layer i intersects D(totalCost)
+    // the path lengths are those computed in the same search node, or in an ancestor (whose windows contain the current ones)
+    private StateInt pathsVersion;
+    private int version;
 
     /**
      * Creates a cost-regular constraint.
@@ -66,12 +81,10 @@ public class CostRegular extends AbstractConstraint {
         transitionFct = A;
         nbStates = A.length;
         initialState = s;
-        finalStates = f;
+        finalStates = f.stream().mapToInt(Integer::intValue).toArray();
         totalCost = tc;
         assert ((initialState >= 0) && (initialState < nbStates));
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int state = itr.next().intValue();
+        for (int state : finalStates) {
             assert ((state >= 0) && (state < nbStates));
         }
         int maxVal = Integer.MIN_VALUE;
@@ -96,12 +109,7 @@ public class CostRegular extends AbstractConstraint {
                 }
             }
         }
-        ip = new double[n][nbStates];
-        op = new double[n][nbStates];
-        iminp = new int[n][nbStates];
-        ominp = new int[n][nbStates];
-        imaxp = new int[n][nbStates];
-        omaxp = new int[n][nbStates];
+        init(maxVal + 1);
 
         setExactWCounting(true);
     }
@@ -117,12 +125,10 @@ public class CostRegular extends AbstractConstraint {
         transitionFct = A;
         nbStates = A.length;
         initialState = s;
-        finalStates = f;
+        finalStates = f.stream().mapToInt(Integer::intValue).toArray();
         totalCost = tc;
         assert ((initialState >= 0) && (initialState < nbStates));
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int state = itr.next().intValue();
+        for (int state : finalStates) {
             assert ((state >= 0) && (state < nbStates));
         }
         int maxVal = Integer.MIN_VALUE;
@@ -146,12 +152,7 @@ public class CostRegular extends AbstractConstraint {
                 }
             }
         }
-        ip = new double[n][nbStates];
-        op = new double[n][nbStates];
-        iminp = new int[n][nbStates];
-        ominp = new int[n][nbStates];
-        imaxp = new int[n][nbStates];
-        omaxp = new int[n][nbStates];
+        init(maxVal + 1);
 
         setExactWCounting(true);
     }
@@ -167,12 +168,10 @@ public class CostRegular extends AbstractConstraint {
         transitionFct = A;
         nbStates = A.length;
         initialState = s;
-        finalStates = f;
+        finalStates = f.stream().mapToInt(Integer::intValue).toArray();
         totalCost = tc;
         assert ((initialState >= 0) && (initialState < nbStates));
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int state = itr.next().intValue();
+        for (int state : finalStates) {
             assert ((state >= 0) && (state < nbStates));
         }
         int maxVal = Integer.MIN_VALUE;
@@ -195,14 +194,61 @@ public class CostRegular extends AbstractConstraint {
                 }
             }
         }
+        init(maxVal + 1);
+
+        setExactWCounting(true);
+    }
+
+    private void init(int nbValues) {
         ip = new double[n][nbStates];
         op = new double[n][nbStates];
-        iminp = new int[n][nbStates];
+        iminp = new int[n + 1][nbStates];
         ominp = new int[n][nbStates];
-        imaxp = new int[n][nbStates];
+        imaxp = new int[n + 1][nbStates];
         omaxp = new int[n][nbStates];
-
-        setExactWCounting(true);
+        inWindow = new boolean[n + 1][nbStates];
+        int[] nbArcs = new int[nbValues];
+        for (int k = 0; k < nbStates; k++) {
+            for (int v = 0; v < nbValues; v++) {
+                if (transitionFct[k][v] >= 0)
+                    nbArcs[v]++;
+            }
+        }
+        arcFrom = new int[nbValues][];
+        arcTo = new int[nbValues][];
+        for (int v = 0; v < nbValues; v++) {
+            arcFrom[v] = new int[nbArcs[v]];
+            arcTo[v] = new int[nbArcs[v]];
+            nbArcs[v] = 0;
+        }
+        for (int k = 0; k < nbStates; k++) {
+            for (int v = 0; v < nbValues; v++) {
+                if (transitionFct[k][v] >= 0) {
+                    arcFrom[v][nbArcs[v]] = k;
+                    arcTo[v][nbArcs[v]++] = transitionFct[k][v];
+                }
+            }
+        }
+        // bounds on the cost of the suffixes, from the initial domains
+        minSuffix = new long[n + 1];
+        maxSuffix = new long[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            int minCost = Integer.MAX_VALUE;
+            int maxCost = Integer.MIN_VALUE;
+            int s = x[i].fillArray(domainValues);
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    minCost = Math.min(minCost, cost[i][arcFrom[v][a]][v]);
+                    maxCost = Math.max(maxCost, cost[i][arcFrom[v][a]][v]);
+                }
+            }
+            if (minCost > maxCost) // no valid transition: the propagation fails
+                minCost = maxCost = 0;
+            minSuffix[i] = minSuffix[i + 1] + minCost;
+            maxSuffix[i] = maxSuffix[i + 1] + maxCost;
+        }
+        pathsVersion = getSolver().getStateManager().makeStateInt(0);
     }
 
     @Override
@@ -219,25 +265,34 @@ public class CostRegular extends AbstractConstraint {
         propagate();
     }
 
-    @Override
-    public void propagate() {
-        for (int i = 0; i < n; i++) {
-            Arrays.fill(ip[i], 0);
+    // whether some path through the arc from state k of layer i to state q of layer i+1, labelled v, has a cost in D(totalCost)
+    private boolean inCostWindow(int i, int k, int v, int q) {
+        return iminp[i][k] != Integer.MAX_VALUE && ominp[i][q] != Integer.MAX_VALUE &&
+                (iminp[i][k] + cost[i][k][v] + ominp[i][q] <= totalCost.max()) &&
+                (imaxp[i][k] + cost[i][k][v] + omaxp[i][q] >= totalCost.min());
+    }
+
+    // computes the path lengths over the arcs in the cost window (a state outside of any has iminp or ominp at Integer.MAX_VALUE)
+    private void computePaths() {
+        int tcMin = totalCost.min();
+        int tcMax = totalCost.max();
+        for (int i = 0; i <= n; i++) {
             Arrays.fill(iminp[i], Integer.MAX_VALUE);
             Arrays.fill(imaxp[i], Integer.MIN_VALUE);
         }
-        // Reach forward
-        ip[0][initialState] = 1;
+        // Reach forward, skipping the arcs whose bounds on the cost of the whole word miss D(totalCost)
         iminp[0][initialState] = 0;
         imaxp[0][initialState] = 0;
-        for (int i = 0; i < n - 1; i++) {
+        for (int i = 0; i < n; i++) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (ip[i][k] > 0)) {
-                        ip[i + 1][newState] = 1;
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if ((iminp[i][k] != Integer.MAX_VALUE) &&
+                            (iminp[i][k] + cost[i][k][v] + minSuffix[i + 1] <= tcMax) &&
+                            (imaxp[i][k] + cost[i][k][v] + maxSuffix[i + 1] >= tcMin)) {
                         iminp[i + 1][newState] = Math.min(iminp[i + 1][newState], iminp[i][k] + cost[i][k][v]);
                         imaxp[i + 1][newState] = Math.max(imaxp[i + 1][newState], imaxp[i][k] + cost[i][k][v]);
                     }
@@ -246,37 +301,44 @@ public class CostRegular extends AbstractConstraint {
         }
 
         for (int i = 0; i < n; i++) {
-            Arrays.fill(op[i], 0);
             Arrays.fill(ominp[i], Integer.MAX_VALUE);
             Arrays.fill(omaxp[i], Integer.MIN_VALUE);
         }
-        // Reach backward and remove unsupported var/val pairs
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int tmp = itr.next().intValue();
-            op[n - 1][tmp] = 1;
-            ominp[n - 1][tmp] = 0;
-            omaxp[n - 1][tmp] = 0;
+        // Reach backward over the arcs in the cost window
+        for (int state : finalStates) {
+            ominp[n - 1][state] = 0;
+            omaxp[n - 1][state] = 0;
         }
         for (int i = n - 1; i > 0; i--) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                double belief = 0;
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (op[i][newState] > 0) &&
-                            (iminp[i][k] + cost[i][k][v] + ominp[i][newState] <= totalCost.max()) && // cost-based reasoning
-                            (imaxp[i][k] + cost[i][k][v] + omaxp[i][newState] >= totalCost.min())) {
-                        op[i - 1][k] = 1;
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if (inCostWindow(i, k, v, newState)) {
                         ominp[i - 1][k] = Math.min(ominp[i - 1][k], ominp[i][newState] + cost[i][k][v]);
                         omaxp[i - 1][k] = Math.max(omaxp[i - 1][k], omaxp[i][newState] + cost[i][k][v]);
-                        if (ip[i][k] > 0) {
-                            belief = 1;
-                        }
                     }
                 }
-                if (belief == 0) // sat-based filtering
+            }
+        }
+        pathsVersion.setValue(++version);
+    }
+
+    @Override
+    public void propagate() {
+        computePaths();
+        // remove unsupported var/val pairs
+        for (int i = n - 1; i > 0; i--) {
+            int s = x[i].fillArray(domainValues);
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                boolean supported = false;
+                for (int a = 0; a < arcFrom[v].length && !supported; a++) {
+                    supported = inCostWindow(i, arcFrom[v][a], v, arcTo[v][a]);
+                }
+                if (!supported) // sat-based and cost-based filtering
                     x[i].remove(v);
             }
         }
@@ -286,9 +348,7 @@ public class CostRegular extends AbstractConstraint {
         for (int j = 0; j < s; j++) {
             int v = domainValues[j];
             int newState = transitionFct[initialState][v];
-            if ((newState >= 0) && (op[0][newState] > 0) &&
-                    (cost[0][initialState][v] + ominp[0][newState] <= totalCost.max()) && // cost-based reasoning
-                    (cost[0][initialState][v] + omaxp[0][newState] >= totalCost.min())) {
+            if ((newState >= 0) && inCostWindow(0, initialState, v, newState)) {
                 shortestPath = Math.min(shortestPath, cost[0][initialState][v] + ominp[0][newState]);
                 longestPath = Math.max(longestPath, cost[0][initialState][v] + omaxp[0][newState]);
             } else
@@ -301,6 +361,24 @@ public class CostRegular extends AbstractConstraint {
 
     @Override
     public void updateBelief() {
+        // the path lengths of the propagation are reused unless computed below the current search node
+        if (pathsVersion.value() != version)
+            computePaths();
+        // only the states whose cost window intersects D(totalCost) are visited
+        int tcMin = totalCost.min();
+        int tcMax = totalCost.max();
+        Arrays.fill(inWindow[0], false);
+        inWindow[0][initialState] = true;
+        for (int i = 1; i < n; i++) {
+            for (int k = 0; k < nbStates; k++) {
+                inWindow[i][k] = iminp[i][k] != Integer.MAX_VALUE && ominp[i - 1][k] != Integer.MAX_VALUE &&
+                        (iminp[i][k] + ominp[i - 1][k] <= tcMax) && (imaxp[i][k] + omaxp[i - 1][k] >= tcMin);
+            }
+        }
+        Arrays.fill(inWindow[n], false);
+        for (int state : finalStates) {
+            inWindow[n][state] = iminp[n][state] <= tcMax && imaxp[n][state] >= tcMin;
+        }
 
         for (int i = 0; i < n; i++) {
             Arrays.fill(ip[i], beliefRep.zero());
@@ -311,11 +389,13 @@ public class CostRegular extends AbstractConstraint {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (!beliefRep.isZero(ip[i][k]))) {
+                double outside = outsideBelief(i, v);
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if (inWindow[i + 1][newState] && (!beliefRep.isZero(ip[i][k]))) {
                         // add the combination of ip[i][k] and outsideBelief(i,v) to ip[i+1][newState]
-                        ip[i + 1][newState] = beliefRep.add(ip[i + 1][newState], beliefRep.multiply(ip[i][k], outsideBelief(i, v)));
+                        ip[i + 1][newState] = beliefRep.add(ip[i + 1][newState], beliefRep.multiply(ip[i][k], outside));
                     }
                 }
             }
@@ -325,20 +405,22 @@ public class CostRegular extends AbstractConstraint {
             Arrays.fill(op[i], beliefRep.zero());
         }
         // Reach backward and set local beliefs
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            op[n - 1][itr.next().intValue()] = beliefRep.one();
+        for (int state : finalStates) {
+            if (inWindow[n][state])
+                op[n - 1][state] = beliefRep.one();
         }
         for (int i = n - 1; i > 0; i--) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
                 double belief = beliefRep.zero();
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (!beliefRep.isZero(op[i][newState]))) {
+                double outside = outsideBelief(i, v);
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if (inWindow[i][k] && (!beliefRep.isZero(op[i][newState]))) {
                         // add the combination of op[i][newState] and outsideBelief(i,v) to op[i-1][k]
-                        op[i - 1][k] = beliefRep.add(op[i - 1][k], beliefRep.multiply(op[i][newState], outsideBelief(i, v)));
+                        op[i - 1][k] = beliefRep.add(op[i - 1][k], beliefRep.multiply(op[i][newState], outside));
                         // add the combination of ip[i][k] and op[i][newState] to belief
                         belief = beliefRep.add(belief, beliefRep.multiply(ip[i][k], op[i][newState]));
                     }
@@ -0,0 +1,483 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.core.AbstractConstraint;
+import minicpbp.engine.core.Constraint;
+import minicpbp.engine.core.IntVar;
+import minicpbp.state.StateInt;
+import minicpbp.util.ArrayUtil;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Several among constraints on the same variables, counting the occurrences of pairwise disjoint sets of values,
+ * as a single constraint without indicator variables.
+ * <p>
+ * The beliefs are computed by a counting DP over the unbound variables whose states are the vectors
+ * of the counts of the sets, which is exact weighted counting. When there are too many such vectors
+ * (more than {@link #MAX_JOINT_STATES}), they are computed instead by a counting DP per set of values,
+ * combined for each variable: the belief of x[i]==v, v in V[j], is the weight of the
+ * counts of V[j] with x[i] taking it times that of the other sets without x[i],
+ * the counts of the sets being taken as independent.
+ */
+public class MultiAmong extends AbstractConstraint {
+    /**
+     * The largest number of count vectors of the joint DP
+     */
+    public static final int MAX_JOINT_STATES = 1 << 14;
+
+    private IntVar[] x;
+    private int[][] V;
+    private IntVar[] o;
+    private int n;
+    private int nbGroups;
+    private int[] groupOf; // groupOf[v - ofs] = j if v belongs to V[j], -1 otherwise
+    private int ofs;
+    private StateInt[] nbEliminated; // the nb of variables eliminated as bound to a value of V[j]
+
+    // for the propagation
+    private int[] undecided; // indices of vars from x whose domain contains values from several sets, or from a set and none
+    private StateInt nUndecided; // current size of undecided
+    private StateInt[] nbDecided; // the nb of variables that can only take a value of V[j]
+    private boolean[] inGroup;
+    private int[] possible;
+    // for the belief updates
+    private int[] pos; // the positions of x not eliminated
+    private double[] p; // p[t] = belief of x[pos[t]] taking a value of the current set
+    private double[][] ip; // ip[t][c] = belief of c occurrences in x[pos[0..t-1]]
+    private double[][] op; // op[t][c] = belief of x[pos[t..]] completing c occurrences into an allowed count
+    private double[][] inside; // inside[j][t] = belief of the counts of V[j] with x[pos[t]] in V[j]
+    private double[][] outside; // outside[j][t] = belief of the counts of V[j] with x[pos[t]] not in V[j]
+    private double[] prefix;
+    private double[] groupBelief;
+    // for the joint DP, whose states are the vectors of the counts c[j] in 0..cap[j] of the sets in x[pos[..]],
+    // indexed by the sum of the c[j]*stride[j]
+    private int[] cap;
+    private int[] stride;
+    private double[][] w; // w[t][j] = belief of x[pos[t]] taking a value of V[j], or of no set for j = nbGroups
+    private double[][] countBelief; // countBelief[j][c] = outside belief of o[j] for c occurrences in x[pos[..]]
+    private double[][] jip; // jip[t][s] = belief of the counts of state s in x[pos[0..t-1]]
+    private double[][] jop; // jop[t][s] = belief of x[pos[t..]] completing the counts of state s into allowed ones
+    private double[] countTotal; // countTotal[c] = belief of c occurrences of a set in x[pos[..]]
+
+    /**
+     * Creates a multi-among constraint.
+     * <p> This constraint holds iff for each j,
+     * {@code (x[0] \in V[j]) + (x[1] \in V[j]) + ... + (x[x.length-1] \in V[j]) == o[j]}.
+     *
+     * @param x an array of variables whose instantiations belonging to each V[j] we count
+     * @param V pairwise disjoint arrays of values whose occurrences in x we count
+     * @param o the variables corresponding to the number of occurrences of values from each V[j] in x
+     */
+    public MultiAmong(IntVar[] x, int[][] V, IntVar[] o) {
+        super(x[0].getSolver(), ArrayUtil.append(x, o));
+        assert V.length == o.length : "MultiAmong constraint: one count per set of values";
+        setName("MultiAmong");
+        this.x = x;
+        this.V = V;
+        this.o = o;
+        n = x.length;
+        nbGroups = V.length;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (IntVar var : x) {
+            min = Math.min(min, var.min());
+            max = Math.max(max, var.max());
+        }
+        ofs = min;
+        groupOf = new int[max - min + 1];
+        Arrays.fill(groupOf, -1);
+        nbEliminated = new StateInt[nbGroups];
+        for (int j = 0; j < nbGroups; j++) {
+            for (int v : V[j]) {
+                if (v >= min && v <= max) {
+                    assert groupOf[v - ofs] < 0 || groupOf[v - ofs] == j : "MultiAmong constraint: the sets of values should be disjoint";
+                    groupOf[v - ofs] = j;
+                }
+            }
+            nbEliminated[j] = getSolver().getStateManager().makeStateInt(0);
+        }
+        undecided = IntStream.range(0, n).toArray();
+        nUndecided = getSolver().getStateManager().makeStateInt(n);
+        nbDecided = new StateInt[nbGroups];
+        for (int j = 0; j < nbGroups; j++) {
+            nbDecided[j] = getSolver().getStateManager().makeStateInt(0);
+        }
+        inGroup = new boolean[nbGroups];
+        possible = new int[nbGroups];
+        pos = new int[n];
+        p = new double[n];
+        ip = new double[n + 1][n + 1];
+        op = new double[n + 1][n + 2];
+        inside = new double[nbGroups][n];
+        outside = new double[nbGroups][n];
+        prefix = new double[nbGroups + 1];
+        groupBelief = new double[nbGroups + 1];
+        cap = new int[nbGroups];
+        stride = new int[nbGroups];
+        w = new double[n][nbGroups + 1];
+        countBelief = new double[nbGroups][n + 1];
+        jip = new double[n + 1][0];
+        jop = new double[n + 1][0];
+        countTotal = new double[n + 1];
+        setExactWCounting(nbGroups == 1);
+    }
+
+    private int group(int v) {
+        return v < ofs || v - ofs >= groupOf.length ? -1 : groupOf[v - ofs];
+    }
+
+    /**
+     * @return whether it can be fused with other multi-among constraints, i.e. whether
+     * a multi-among constraint enforces it as well
+     */
+    protected boolean fusible() {
+        return true;
+    }
+
+    /**
+     * Fuses with another multi-among constraint on the same variables whose sets of values are disjoint from its own.
+     */
+    @Override
+    public Constraint fuse(Constraint other) {
+        if (!fusible() || !(other instanceof MultiAmong) || !((MultiAmong) other).fusible())
+            return null;
+        MultiAmong c = (MultiAmong) other;
+        if (c.n != n)
+            return null;
+        for (int i = 0; i < n; i++) {
+            if (c.x[i] != x[i])
+                return null;
+        }
+        for (int[] values : c.V) {
+            for (int v : values) {
+                if (group(v) >= 0)
+                    return null;
+            }
+        }
+        int[][] fusedV = Arrays.copyOf(V, nbGroups + c.nbGroups);
+        System.arraycopy(c.V, 0, fusedV, nbGroups, c.nbGroups);
+        return new MultiAmong(x, fusedV, ArrayUtil.append(o, c.o));
+    }
+
+    @Override
+    public void post() {
+        switch (getSolver().getMode()) {
+            case BP:
+                break;
+            case SP:
+            case SBP:
+                for (IntVar var : x)
+                    var.propagateOnDomainChange(this);
+                for (IntVar var : o)
+                    var.propagateOnBoundChange(this);
+        }
+        propagate();
+    }
+
+    @Override
+    public void propagate() {
+        // the nb of variables that must and that may take a value of V[j]
+        Arrays.fill(possible, 0);
+        int nU = nUndecided.value();
+        for (int k = nU - 1; k >= 0; k--) {
+            int i = undecided[k];
+            int g = decided(i);
+            if (g == -2) {
+                for (int j = 0; j < nbGroups; j++) {
+                    if (inGroup[j])
+                        possible[j]++;
+                }
+                continue; // still undecided
+            }
+            if (g >= 0)
+                nbDecided[g].increment();
+            undecided[k] = undecided[nU - 1];
+            undecided[nU - 1] = i;
+            nU--;
+        }
+        nUndecided.setValue(nU);
+        for (int j = 0; j < nbGroups; j++) {
+            int mandatory = nbDecided[j].value();
+            possible[j] += mandatory;
+            o[j].removeBelow(mandatory);
+            o[j].removeAbove(possible[j]);
+            if (mandatory == possible[j])
+                continue;
+            // the removals schedule the constraint again, the counts of the other sets being outdated
+            if (o[j].max() == mandatory) {
+                for (int k = 0; k < nU; k++) {
+                    if (decided(undecided[k]) == -2 && inGroup[j])
+                        removeValues(undecided[k], j, true);
+                }
+            } else if (o[j].min() == possible[j]) {
+                for (int k = 0; k < nU; k++) {
+                    if (decided(undecided[k]) == -2 && inGroup[j])
+                        removeValues(undecided[k], j, false);
+                }
+            }
+        }
+    }
+
+    // returns j if x[i] can only take a value of V[j], -1 if it cannot take a value of any set,
+    // -2 otherwise, inGroup then telling which sets it can take a value from
+    private int decided(int i) {
+        Arrays.fill(inGroup, false);
+        int s = x[i].fillArray(domainValues);
+        int first = group(domainValues[0]);
+        boolean same = true;
+        for (int k = 0; k < s; k++) {
+            int g = group(domainValues[k]);
+            if (g >= 0)
+                inGroup[g] = true;
+            same &= g == first;
+        }
+        return same ? first : -2;
+    }
+
+    // removes from x[i] the values of V[j] (inside) or the other values
+    private void removeValues(int i, int j, boolean inside) {
+        int s = x[i].fillArray(domainValues);
+        for (int k = 0; k < s; k++) {
+            if ((group(domainValues[k]) == j) == inside)
+                x[i].remove(domainValues[k]);
+        }
+    }
+
+    @Override
+    public void eliminateBoundVars() {
+        int nbFree = nbFreeVars();
+        super.eliminateBoundVars();
+        // the variables just eliminated are moved after the free ones
+        for (int k = nbFreeVars(); k < nbFree; k++) {
+            int i = freeVar(k);
+            if (i < n) {
+                int g = group(x[i].min());
+                if (g >= 0)
+                    nbEliminated[g].increment();
+            }
+        }
+    }
+
+    @Override
+    public void updateBelief() {
+        int nbPos = 0;
+        int nbFree = nbFreeVars();
+        for (int k = 0; k < nbFree; k++) {
+            if (freeVar(k) < n)
+                pos[nbPos++] = freeVar(k);
+        }
+        int nbStates = nbGroups > 1 ? jointStates(nbPos) : -1;
+        setExactWCounting(nbGroups == 1 || nbStates >= 0);
+        if (nbStates >= 0)
+            jointBelief(nbPos, nbStates);
+        else
+            independentBelief(nbPos);
+    }
+
+    // sets cap and stride for the counts in x[pos[0..nbPos-1]], and returns the nb of states of the joint DP,
+    // or -1 if it exceeds MAX_JOINT_STATES
+    private int jointStates(int nbPos) {
+        int nbStates = 1;
+        for (int j = 0; j < nbGroups; j++) {
+            cap[j] = Math.max(0, Math.min(nbPos, o[j].max() - nbEliminated[j].value()));
+            stride[j] = nbStates;
+            if ((long) nbStates * (cap[j] + 1) > MAX_JOINT_STATES)
+                return -1;
+            nbStates *= cap[j] + 1;
+        }
+        return nbStates;
+    }
+
+    private int count(int state, int j) {
+        return state / stride[j] % (cap[j] + 1);
+    }
+
+    // a DP over the vectors of the counts of the sets
+    private void jointBelief(int nbPos, int nbStates) {
+        for (int t = 0; t <= nbPos; t++) {
+            if (jip[t].length < nbStates) {
+                jip[t] = new double[Math.max(nbStates, 2 * jip[t].length)];
+                jop[t] = new double[jip[t].length];
+            }
+        }
+        for (int t = 0; t < nbPos; t++) {
+            Arrays.fill(w[t], beliefRep.zero());
+            int s = x[pos[t]].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int g = group(domainValues[k]);
+                int j = g >= 0 ? g : nbGroups;
+                w[t][j] = beliefRep.add(w[t][j], outsideBelief(pos[t], domainValues[k]));
+            }
+        }
+        for (int j = 0; j < nbGroups; j++) {
+            int eliminated = nbEliminated[j].value();
+            for (int c = 0; c <= cap[j]; c++) {
+                countBelief[j][c] = o[j].contains(c + eliminated) ? outsideBelief(n + j, c + eliminated) : beliefRep.zero();
+            }
+        }
+        // forward counts
+        Arrays.fill(jip[0], 0, nbStates, beliefRep.zero());
+        jip[0][0] = beliefRep.one();
+        for (int t = 0; t < nbPos; t++) {
+            double[] cur = jip[t];
+            double[] next = jip[t + 1];
+            Arrays.fill(next, 0, nbStates, beliefRep.zero());
+            for (int state = 0; state < nbStates; state++) {
+                double b = cur[state];
+                next[state] = beliefRep.add(next[state], beliefRep.multiply(b, w[t][nbGroups]));
+                for (int j = 0; j < nbGroups; j++) {
+                    if (count(state, j) < cap[j])
+                        next[state + stride[j]] = beliefRep.add(next[state + stride[j]], beliefRep.multiply(b, w[t][j]));
+                }
+            }
+        }
+        // backward counts, starting from the outside beliefs of o
+        for (int state = 0; state < nbStates; state++) {
+            double b = beliefRep.one();
+            for (int j = 0; j < nbGroups; j++) {
+                b = beliefRep.multiply(b, countBelief[j][count(state, j)]);
+            }
+            jop[nbPos][state] = b;
+        }
+        for (int t = nbPos - 1; t >= 0; t--) {
+            double[] cur = jop[t];
+            double[] next = jop[t + 1];
+            for (int state = 0; state < nbStates; state++) {
+                double b = beliefRep.multiply(next[state], w[t][nbGroups]);
+                for (int j = 0; j < nbGroups; j++) {
+                    if (count(state, j) < cap[j])
+                        b = beliefRep.add(b, beliefRep.multiply(next[state + stride[j]], w[t][j]));
+                }
+                cur[state] = b;
+            }
+        }
+        // set beliefs for x
+        for (int t = 0; t < nbPos; t++) {
+            Arrays.fill(groupBelief, beliefRep.zero());
+            for (int state = 0; state < nbStates; state++) {
+                double b = jip[t][state];
+                groupBelief[nbGroups] = beliefRep.add(groupBelief[nbGroups], beliefRep.multiply(b, jop[t + 1][state]));
+                for (int j = 0; j < nbGroups; j++) {
+                    if (count(state, j) < cap[j])
+                        groupBelief[j] = beliefRep.add(groupBelief[j], beliefRep.multiply(b, jop[t + 1][state + stride[j]]));
+                }
+            }
+            int i = pos[t];
+            int s = x[i].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int g = group(domainValues[k]);
+                setLocalBelief(i, domainValues[k], groupBelief[g >= 0 ? g : nbGroups]);
+            }
+        }
+        // set beliefs for o, the counts of the other sets being weighted by the outside beliefs of their o
+        for (int j = 0; j < nbGroups; j++) {
+            Arrays.fill(countTotal, 0, cap[j] + 1, beliefRep.zero());
+            for (int state = 0; state < nbStates; state++) {
+                double b = jip[nbPos][state];
+                for (int k = 0; k < nbGroups; k++) {
+                    if (k != j)
+                        b = beliefRep.multiply(b, countBelief[k][count(state, k)]);
+                }
+                int c = count(state, j);
+                countTotal[c] = beliefRep.add(countTotal[c], b);
+            }
+            int eliminated = nbEliminated[j].value();
+            int s = o[j].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int c = domainValues[k] - eliminated;
+                setLocalBelief(n + j, domainValues[k], c >= 0 && c <= cap[j] ? countTotal[c] : beliefRep.zero());
+            }
+        }
+    }
+
+    // a DP per set of values, the sets being taken as independent
+    private void independentBelief(int nbPos) {
+        for (int j = 0; j < nbGroups; j++) {
+            for (int t = 0; t < nbPos; t++) {
+                double b = beliefRep.zero();
+                int s = x[pos[t]].fillArray(domainValues);
+                for (int k = 0; k < s; k++) {
+                    if (group(domainValues[k]) == j)
+                        b = beliefRep.add(b, outsideBelief(pos[t], domainValues[k]));
+                }
+                p[t] = b;
+            }
+            // forward counts
+            ip[0][0] = beliefRep.one();
+            for (int t = 0; t < nbPos; t++) {
+                double q = beliefRep.complement(p[t]);
+                ip[t + 1][0] = beliefRep.multiply(ip[t][0], q);
+                for (int c = 1; c <= t; c++) {
+                    ip[t + 1][c] = beliefRep.add(beliefRep.multiply(ip[t][c], q), beliefRep.multiply(ip[t][c - 1], p[t]));
+                }
+                ip[t + 1][t + 1] = beliefRep.multiply(ip[t][t], p[t]);
+            }
+            // backward counts, starting from the outside beliefs of o[j]
+            int eliminated = nbEliminated[j].value();
+            for (int c = 0; c <= nbPos + 1; c++) {
+                int count = c + eliminated;
+                op[nbPos][c] = c <= nbPos && o[j].contains(count) ? outsideBelief(n + j, count) : beliefRep.zero();
+            }
+            for (int t = nbPos - 1; t >= 0; t--) {
+                double q = beliefRep.complement(p[t]);
+                for (int c = 0; c <= t; c++) {
+                    op[t][c] = beliefRep.add(beliefRep.multiply(op[t + 1][c], q), beliefRep.multiply(op[t + 1][c + 1], p[t]));
+                }
+            }
+            for (int t = 0; t < nbPos; t++) {
+                double in = beliefRep.zero();
+                double out = beliefRep.zero();
+                for (int c = 0; c <= t; c++) {
+                    in = beliefRep.add(in, beliefRep.multiply(ip[t][c], op[t + 1][c + 1]));
+                    out = beliefRep.add(out, beliefRep.multiply(ip[t][c], op[t + 1][c]));
+                }
+                inside[j][t] = in;
+                outside[j][t] = out;
+            }
+            // set beliefs for o[j]
+            int s = o[j].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int c = domainValues[k] - eliminated;
+                setLocalBelief(n + j, domainValues[k], c >= 0 && c <= nbPos ? ip[nbPos][c] : beliefRep.zero());
+            }
+        }
+        // set beliefs for x, combining the sets
+        for (int t = 0; t < nbPos; t++) {
+            int i = pos[t];
+            prefix[0] = beliefRep.one();
+            for (int j = 0; j < nbGroups; j++) {
+                prefix[j + 1] = beliefRep.multiply(prefix[j], outside[j][t]);
+            }
+            double suffix = beliefRep.one();
+            for (int j = nbGroups - 1; j >= 0; j--) {
+                // the belief of x[i] taking a value of V[j]
+                groupBelief[j] = beliefRep.multiply(beliefRep.multiply(prefix[j], inside[j][t]), suffix);
+                suffix = beliefRep.multiply(suffix, outside[j][t]);
+            }
+            int s = x[i].fillArray(domainValues);
+            for (int k = 0; k < s; k++) {
+                int g = group(domainValues[k]);
+                setLocalBelief(i, domainValues[k], g >= 0 ? groupBelief[g] : prefix[nbGroups]);
+            }
+        }
+    }
+}
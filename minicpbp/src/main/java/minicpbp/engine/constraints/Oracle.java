@@ -20,15 +20,23 @@ package minicpbp.engine.constraints;
 
 import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
+import minicpbp.state.StateDouble;
+
+import java.nio.DoubleBuffer;
 
 /**
  * Oracle unary constraint providing fixed marginals (possibly through ML)
  * Does not perform any filtering
+ * <p>
+ * The marginals can be replaced and the constraint moved to another variable once posted,
+ * so that a single oracle serves successive ML distributions.
+ * Its weight is trailed: a weight set after saving the state is restored with it.
  */
 public class Oracle extends AbstractConstraint {
     private IntVar x;
     private double[] marginal;
     private int ofs;
+    private final StateDouble weight;
 
     /**
      * @param x the variable
@@ -39,10 +47,47 @@ public class Oracle extends AbstractConstraint {
     public Oracle(IntVar x, int[] v, double[] m) {
         super(x.getSolver(), new IntVar[]{x});
         setName("Oracle");
-        assert (v.length == m.length);
+        weight = getSolver().getStateManager().makeStateDouble(super.weight());
+        setVar(x);
+        setMarginals(v, m);
+        setExactWCounting(true);
+    }
+
+    private void setVar(IntVar x) {
         this.x = x;
         ofs = x.min();
         marginal = new double[x.max() - ofs + 1];
+    }
+
+    /**
+     * Moves the oracle to another variable, with zero marginals.
+     * Like the marginals, the variable is not restored with the state,
+     * and the oracle keeps sending messages to it if it is unbound, even after restoring a state
+     * in which the previous variable was bound.
+     *
+     * @param x the new variable, from the same solver
+     */
+    public void setVariable(IntVar x) {
+        assert (x.getSolver() == getSolver());
+        if (x == this.x)
+            return;
+        replaceVar(0, x);
+        setVar(x);
+    }
+
+    public IntVar getVariable() {
+        return x;
+    }
+
+    /**
+     * Replaces the marginals.
+     *
+     * @param v the values
+     * @param m the marginals for v
+     *          Note: any domain value not appearing in v will be assigned a zero marginal
+     */
+    public void setMarginals(int[] v, double[] m) {
+        assert (v.length == m.length);
         for (int i = 0; i < marginal.length; i++) {
             marginal[i] = 0;
         }
@@ -51,7 +96,47 @@ public class Oracle extends AbstractConstraint {
                 marginal[v[i] - ofs] = m[i];
             }
         }
-        setExactWCounting(true);
+    }
+
+    /**
+     * Replaces the marginals by a slice of an array indexed by value:
+     * the marginal of value val is m[from + val]
+     * Note: any domain value outside the slice will be assigned a zero marginal
+     *
+     * @param m the array
+     * @param from the index in m of value 0
+     */
+    public void setMarginals(double[] m, int from) {
+        for (int i = 0; i < marginal.length; i++) {
+            int j = from + ofs + i;
+            marginal[i] = (j >= 0 && j < m.length && x.contains(ofs + i)) ? m[j] : 0;
+        }
+    }
+
+    /**
+     * Replaces the marginals by a slice of a buffer indexed by value:
+     * the marginal of value val is m.get(from + val)
+     * Note: any domain value outside the slice will be assigned a zero marginal
+     *
+     * @param m the buffer, whose position is left unchanged
+     * @param from the index in m of value 0
+     */
+    public void setMarginals(DoubleBuffer m, int from) {
+        for (int i = 0; i < marginal.length; i++) {
+            int j = from + ofs + i;
+            marginal[i] = (j >= 0 && j < m.limit() && x.contains(ofs + i)) ? m.get(j) : 0;
+        }
+    }
+
+    @Override
+    public void setWeight(double w) {
+        assert w >= 0 : "A constraint's weight should be nonnegative";
+        weight.setValue(w);
+    }
+
+    @Override
+    public double weight() {
+        return weight.value();
     }
 
     @Override
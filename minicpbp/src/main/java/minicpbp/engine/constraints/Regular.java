@@ -20,23 +20,56 @@ package minicpbp.engine.constraints;
 
 import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
+import minicpbp.state.StateInt;
+import minicpbp.state.StateManager;
+import minicpbp.state.StateSparseSet;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
 
 /**
  * Regular Constraint
+ * <p>
+ * The layered graph of the automaton unfolded over x (layer i holding the states before reading x[i])
+ * is maintained incrementally, as described in
+ * "A Regular Language Membership Constraint for Finite Sequences of Variables" G. Pesant, CP 2004:
+ * the states of each layer on a path from the initial state to a final state are kept in a sparse set,
+ * along with the number of arcs in and out of each of them and the number of arcs labelled with each value;
+ * a removed value only visits its own arcs, and a state losing all its incoming or outgoing arcs is removed in turn.
+ * The transitions are stored per value, so that only the valid ones are visited.
  */
 public class Regular extends AbstractConstraint {
     private IntVar[] x;
     private int[][] transitionFct;
     private int initialState;
-    private List<Integer> finalStates;
+    private int[] finalStates;
     private int n;
     private int nbStates;
+    private int nbValues;
+    // the valid transitions on value v: arcFrom[v][a] -> arcTo[v][a]
+    private int[][] arcFrom;
+    private int[][] arcTo;
+    // the valid transitions into state q: inFrom[q][a] on value inVal[q][a], and out of state k: on outVal[k][a] to outTo[k][a]
+    private int[][] inFrom;
+    private int[][] inVal;
+    private int[][] outVal;
+    private int[][] outTo;
+    // the layered graph
+    private StateSparseSet[] states; // states[i] = states of layer i on a path from the initial state to a final state
+    private StateInt[][] inDegree; // inDegree[i][q] = nb of arcs from layer i-1 into state q of layer i
+    private StateInt[][] outDegree; // outDegree[i][k] = nb of arcs from state k of layer i to layer i+1
+    private StateInt[][] support; // support[i][v] = nb of arcs labelled v from layer i
+    private StateInt[] nbSupported; // nbSupported[i] = nb of values with a positive support in layer i
+    private int[] deadLayer; // the states whose removal is pending, with their layer
+    private int[] deadState;
+    private int nbDead;
+    private boolean[][] live; // live[i][k] iff state k is in states[i], copied once per belief update
+    private int[] stateValues;
     private double[][] ip; // ip[i][]>0 for states reached by reading x[0]..x[i-1] from the initial state
     private double[][] op; // op[i][]>0 for states reaching a final state by reading x[i+1]..x[n-1]
+    // x[0]..x[prefixLength-1] are bound and lead from the initial state to prefixState (see eliminateBoundVars)
+    private StateInt prefixLength;
+    private StateInt prefixState;
 
     /**
      * Creates a regular constraint.
@@ -58,11 +91,9 @@ public class Regular extends AbstractConstraint {
         transitionFct = A;
         nbStates = A.length;
         initialState = s;
-        finalStates = f;
+        finalStates = f.stream().mapToInt(Integer::intValue).toArray();
         assert ((initialState >= 0) && (initialState < nbStates));
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int state = itr.next().intValue();
+        for (int state : finalStates) {
             assert ((state >= 0) && (state < nbStates));
         }
         int maxVal = Integer.MIN_VALUE;
@@ -77,8 +108,80 @@ public class Regular extends AbstractConstraint {
             }
         }
 
+        nbValues = maxVal + 1;
+        // the transitions, per value and per state
+        int[] nbArcs = new int[nbValues];
+        int[] nbIn = new int[nbStates];
+        int[] nbOut = new int[nbStates];
+        for (int k = 0; k < nbStates; k++) {
+            for (int v = 0; v < nbValues; v++) {
+                if (transitionFct[k][v] >= 0) {
+                    nbArcs[v]++;
+                    nbIn[transitionFct[k][v]]++;
+                    nbOut[k]++;
+                }
+            }
+        }
+        arcFrom = new int[nbValues][];
+        arcTo = new int[nbValues][];
+        for (int v = 0; v < nbValues; v++) {
+            arcFrom[v] = new int[nbArcs[v]];
+            arcTo[v] = new int[nbArcs[v]];
+            nbArcs[v] = 0;
+        }
+        inFrom = new int[nbStates][];
+        inVal = new int[nbStates][];
+        outVal = new int[nbStates][];
+        outTo = new int[nbStates][];
+        for (int k = 0; k < nbStates; k++) {
+            inFrom[k] = new int[nbIn[k]];
+            inVal[k] = new int[nbIn[k]];
+            outVal[k] = new int[nbOut[k]];
+            outTo[k] = new int[nbOut[k]];
+            nbIn[k] = 0;
+            nbOut[k] = 0;
+        }
+        for (int k = 0; k < nbStates; k++) {
+            for (int v = 0; v < nbValues; v++) {
+                int q = transitionFct[k][v];
+                if (q >= 0) {
+                    arcFrom[v][nbArcs[v]] = k;
+                    arcTo[v][nbArcs[v]++] = q;
+                    inFrom[q][nbIn[q]] = k;
+                    inVal[q][nbIn[q]++] = v;
+                    outVal[k][nbOut[k]] = v;
+                    outTo[k][nbOut[k]++] = q;
+                }
+            }
+        }
+
+        StateManager sm = getSolver().getStateManager();
+        states = new StateSparseSet[n + 1];
+        inDegree = new StateInt[n + 1][nbStates];
+        outDegree = new StateInt[n + 1][nbStates];
+        support = new StateInt[n][nbValues];
+        nbSupported = new StateInt[n];
+        for (int i = 0; i <= n; i++) {
+            states[i] = new StateSparseSet(sm, nbStates, 0);
+            for (int k = 0; k < nbStates; k++) {
+                inDegree[i][k] = sm.makeStateInt(0);
+                outDegree[i][k] = sm.makeStateInt(0);
+            }
+            if (i < n) {
+                for (int v = 0; v < nbValues; v++) {
+                    support[i][v] = sm.makeStateInt(0);
+                }
+                nbSupported[i] = sm.makeStateInt(0);
+            }
+        }
+        deadLayer = new int[(n + 1) * nbStates];
+        deadState = new int[(n + 1) * nbStates];
+        live = new boolean[n + 1][nbStates];
+        stateValues = new int[nbStates];
         ip = new double[n][nbStates];
         op = new double[n][nbStates];
+        prefixLength = getSolver().getStateManager().makeStateInt(0);
+        prefixState = getSolver().getStateManager().makeStateInt(initialState);
 
         setExactWCounting(true);
     }
@@ -93,106 +196,200 @@ public class Regular extends AbstractConstraint {
                 for (IntVar var : x)
                     var.propagateOnDomainChange(this);
         }
-        propagate();
+        buildGraph();
     }
 
-    @Override
-    public void propagate() {
-        for (int i = 0; i < n; i++) {
-            Arrays.fill(ip[i], 0);
-        }
+    // builds the layered graph from the current domains and removes the unsupported values
+    private void buildGraph() {
+        boolean[][] reached = new boolean[n + 1][nbStates];
         // Reach forward
-        ip[0][initialState] = 1;
-        for (int i = 0; i < n - 1; i++) {
+        reached[0][initialState] = true;
+        for (int i = 0; i < n; i++) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (ip[i][k] > 0)) {
-                        ip[i + 1][newState] = 1;
-                    }
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    if (reached[i][arcFrom[v][a]])
+                        reached[i + 1][arcTo[v][a]] = true;
                 }
             }
         }
-
-        for (int i = 0; i < n; i++) {
-            Arrays.fill(op[i], 0);
+        // Reach backward, keeping the states on a path to a final state
+        boolean[] isFinal = new boolean[nbStates];
+        for (int state : finalStates) {
+            isFinal[state] = true;
         }
-        // Reach backward and remove unsupported var/val pairs
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            int tmp = itr.next().intValue();
-            op[n - 1][tmp] = 1;
+        for (int k = 0; k < nbStates; k++) {
+            if (!reached[n][k] || !isFinal[k])
+                states[n].remove(k);
         }
-        for (int i = n - 1; i > 0; i--) {
+        for (int i = n - 1; i >= 0; i--) {
+            boolean[] live = new boolean[nbStates];
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                double belief = 0;
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (op[i][newState] > 0)) {
-                        op[i - 1][k] = 1;
-                        if (ip[i][k] > 0) {
-                            belief = 1;
-                        }
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int q = arcTo[v][a];
+                    if (reached[i][k] && states[i + 1].contains(q)) {
+                        live[k] = true;
+                        outDegree[i][k].increment();
+                        inDegree[i + 1][q].increment();
+                        support[i][v].increment();
                     }
                 }
-                if (belief == 0)
+            }
+            for (int k = 0; k < nbStates; k++) {
+                if (!live[k])
+                    states[i].remove(k);
+            }
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                if (support[i][v].value() == 0)
                     x[i].remove(v);
+                else
+                    nbSupported[i].increment();
             }
         }
-        int s = x[0].fillArray(domainValues);
-        for (int j = 0; j < s; j++) {
-            int v = domainValues[j];
-            int newState = transitionFct[initialState][v];
-            if ((newState < 0) || (op[0][newState] == 0)) {
-                x[0].remove(v);
+    }
+
+    @Override
+    public void propagate() {
+        nbDead = 0; // left over by an inconsistency
+        // only the layers from which values were removed since the previous propagation
+        for (int i = 0; i < n; i++) {
+            if (x[i].size() == nbSupported[i].value())
+                continue;
+            for (int v = 0; v < nbValues; v++) {
+                if (support[i][v].value() > 0 && !x[i].contains(v)) {
+                    removeValue(i, v);
+                    removeDeadStates();
+                }
+            }
+        }
+    }
+
+    // removes the arcs labelled v from layer i
+    private void removeValue(int i, int v) {
+        for (int a = 0; a < arcFrom[v].length; a++) {
+            int k = arcFrom[v][a];
+            int q = arcTo[v][a];
+            if (states[i].contains(k) && states[i + 1].contains(q))
+                removeArc(i, k, v, q);
+        }
+    }
+
+    // removes the arc from state k of layer i to state q of layer i+1, labelled v
+    private void removeArc(int i, int k, int v, int q) {
+        if (support[i][v].decrement() == 0) {
+            nbSupported[i].decrement();
+            x[i].remove(v);
+        }
+        if (outDegree[i][k].decrement() == 0) {
+            deadLayer[nbDead] = i;
+            deadState[nbDead++] = k;
+        }
+        if (inDegree[i + 1][q].decrement() == 0) {
+            deadLayer[nbDead] = i + 1;
+            deadState[nbDead++] = q;
+        }
+    }
+
+    // removes the states that lost all their incoming or outgoing arcs, along with their other arcs
+    private void removeDeadStates() {
+        while (nbDead > 0) {
+            int i = deadLayer[--nbDead];
+            int k = deadState[nbDead];
+            if (!states[i].contains(k))
+                continue; // already removed, both of its degrees having dropped to zero
+            states[i].remove(k);
+            if (i > 0) {
+                for (int a = 0; a < inFrom[k].length; a++) {
+                    int p = inFrom[k][a];
+                    int v = inVal[k][a];
+                    if (states[i - 1].contains(p) && support[i - 1][v].value() > 0)
+                        removeArc(i - 1, p, v, k);
+                }
             }
+            if (i < n) {
+                for (int a = 0; a < outVal[k].length; a++) {
+                    int v = outVal[k][a];
+                    int q = outTo[k][a];
+                    if (states[i + 1].contains(q) && support[i][v].value() > 0)
+                        removeArc(i, k, v, q);
+                }
+            }
+        }
+    }
+    @Override
+    public void eliminateBoundVars() {
+        super.eliminateBoundVars();
+        // advance the start state over the bound prefix (up to a missing transition, left to updateBelief())
+        int p = prefixLength.value();
+        int state = prefixState.value();
+        while (p < n && x[p].isBound() && transitionFct[state][x[p].min()] >= 0) {
+            state = transitionFct[state][x[p].min()];
+            p++;
         }
+        prefixLength.setValue(p);
+        prefixState.setValue(state);
     }
 
     @Override
     public void updateBelief() {
-
-        for (int i = 0; i < n; i++) {
+        // the layers start after the bound prefix, from the state it leads to
+        int first = prefixLength.value();
+        if (first == n)
+            return;
+        int startState = prefixState.value();
+        // only the arcs between states of the layered graph are visited
+        for (int i = first; i <= n; i++) {
+            Arrays.fill(live[i], false);
+            int s = states[i].fillArray(stateValues);
+            for (int j = 0; j < s; j++) {
+                live[i][stateValues[j]] = true;
+            }
+        }
+        for (int i = first; i < n; i++) {
             Arrays.fill(ip[i], beliefRep.zero());
         }
         // Reach forward
-        ip[0][initialState] = beliefRep.one();
-        for (int i = 0; i < n - 1; i++) {
+        ip[first][startState] = beliefRep.one();
+        for (int i = first; i < n - 1; i++) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (!beliefRep.isZero(ip[i][k]))) {
+                double outside = outsideBelief(i, v);
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if (live[i + 1][newState] && (!beliefRep.isZero(ip[i][k]))) {
                         // add the combination of ip[i][k] and outsideBelief(i,v) to ip[i+1][newState]
-                        ip[i + 1][newState] = beliefRep.add(ip[i + 1][newState], beliefRep.multiply(ip[i][k], outsideBelief(i, v)));
+                        ip[i + 1][newState] = beliefRep.add(ip[i + 1][newState], beliefRep.multiply(ip[i][k], outside));
                     }
                 }
             }
         }
 
-        for (int i = 0; i < n; i++) {
+        for (int i = first; i < n; i++) {
             Arrays.fill(op[i], beliefRep.zero());
         }
         // Reach backward and set local beliefs
-        Iterator<Integer> itr = finalStates.iterator();
-        while (itr.hasNext()) {
-            op[n - 1][itr.next().intValue()] = beliefRep.one();
+        for (int state : finalStates) {
+            op[n - 1][state] = beliefRep.one();
         }
-        for (int i = n - 1; i > 0; i--) {
+        for (int i = n - 1; i > first; i--) {
             int s = x[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 int v = domainValues[j];
                 double belief = beliefRep.zero();
-                for (int k = 0; k < nbStates; k++) {
-                    int newState = transitionFct[k][v];
-                    if ((newState >= 0) && (!beliefRep.isZero(op[i][newState]))) {
+                double outside = outsideBelief(i, v);
+                for (int a = 0; a < arcFrom[v].length; a++) {
+                    int k = arcFrom[v][a];
+                    int newState = arcTo[v][a];
+                    if (live[i][k] && (!beliefRep.isZero(op[i][newState]))) {
                         // add the combination of op[i][newState] and outsideBelief(i,v) to op[i-1][k]
-                        op[i - 1][k] = beliefRep.add(op[i - 1][k], beliefRep.multiply(op[i][newState], outsideBelief(i, v)));
+                        op[i - 1][k] = beliefRep.add(op[i - 1][k], beliefRep.multiply(op[i][newState], outside));
                         // add the combination of ip[i][k] and op[i][newState] to belief
                         belief = beliefRep.add(belief, beliefRep.multiply(ip[i][k], op[i][newState]));
                     }
@@ -200,14 +397,14 @@ public class Regular extends AbstractConstraint {
                 setLocalBelief(i, v, belief);
             }
         }
-        int s = x[0].fillArray(domainValues);
+        int s = x[first].fillArray(domainValues);
         for (int j = 0; j < s; j++) {
             int v = domainValues[j];
-            int newState = transitionFct[initialState][v];
+            int newState = transitionFct[startState][v];
             if (newState >= 0) {
-                setLocalBelief(0, v, op[0][newState]);
+                setLocalBelief(first, v, op[first][newState]);
             } else
-                setLocalBelief(0, v, beliefRep.zero());
+                setLocalBelief(first, v, beliefRep.zero());
         }
     }
 
@@ -23,6 +23,8 @@ import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
 import minicpbp.state.StateInt;
 import minicpbp.util.ArrayUtil;
+import minicpbp.util.FFT;
+import minicpbp.util.StdBelief;
 import minicpbp.util.exception.InconsistencyException;
 
 import java.util.Arrays;
@@ -31,6 +33,15 @@ import java.util.stream.IntStream;
 
 /**
  * Sum Constraint
+ * <p>
+ * The local beliefs are computed by dynamic programming over the partial sums of the unbound variables,
+ * restricted for each layer to the range of feasible partial sums:
+ * with dense tables when they are small enough, convolving the wide layers through an FFT
+ * when it is cheaper (and the beliefs use the standard representation, zero beliefs not removing values),
+ * or with hashed tables holding only the reachable partial sums when they are expected to be much fewer
+ * (their number being bounded from the domain sizes and the gcd of the differences between domain values).
+ * Beyond a budget on the number of partial sums, the local beliefs are approximated by moment matching:
+ * the sum of the other variables is taken as normally distributed, with the mean and variance of their outside beliefs.
  */
 public class Sum extends AbstractConstraint {
     private Integer[] unBounds;
@@ -38,14 +49,19 @@ public class Sum extends AbstractConstraint {
     private StateInt sumBounds;
     private IntVar[] x;
     private int n;
-    private double[][] ip; // ip[i][]>0 for partial sums x[0]+x[1]+...+x[i-1]; layer i (i.e. before x[i])
-    private double[][] op; // op[i][]>0 for partial sums x[i+1]+...+x[n-1]; layer i+1 (i.e. after x[i])
-    private int[] minState; // minState[i] = lowest-numbered feasible state in layer i
-    private int[] maxState; // maxState[i] = highest-numbered feasible state in layer i
-    private int offset;
-    private int mini;
-    private int maxi;
-    private boolean incrementalUpdateBelief;
+    private double[][] ip; // ip[i][k-minState[i]] for partial sum k of x[0]+x[1]+...+x[i-1]; layer i (i.e. before x[i])
+    private double[][] op; // op[i][k-minState[i+1]] for partial sum k of -(x[i+1]+...+x[n-1]); layer i+1 (i.e. after x[i])
+    private int[] minState; // minState[i] = lowest feasible partial sum in layer i
+    private int[] maxState; // maxState[i] = highest feasible partial sum in layer i
+    private FFT fft;
+    private double[] weights; // outside beliefs of a variable, from its min value on
+    private double[] reversed;
+    private double[] convolution;
+    private SparseLayer[] layers;
+    private double[] mean;
+    private double[] variance;
+    private static final int memoryBudget = 1 << 21; // max nb of partial sums over all layers for an exact computation
+    private static final int sparseCost = 4; // cost of a hashed partial sum relative to a dense one
     private DomRangeComparator domRangeComparator;
 
     public class DomRangeComparator implements Comparator<Integer> {
@@ -96,54 +112,15 @@ public class Sum extends AbstractConstraint {
         sumBounds = getSolver().getStateManager().makeStateInt(0);
         unBounds = IntStream.range(0, n).boxed().toArray(Integer[]::new);
         setExactWCounting(true);
-        switch (getSolver().getMode()) {
-            case BP:
-                incrementalUpdateBelief = false; // will not be able to use SP's updated unBounds[]
-                break;
-            case SP:
-            case SBP:
-                incrementalUpdateBelief = true;
-        }
-        // compute the extent of the dynamic programming tables ip and op
-        if (incrementalUpdateBelief) {
-            maxi = 0;
-            for (int i = 0; i < n; i++) {
-                if (x[i].max() > 0)
-                    maxi += x[i].max();
-            }
-            offset = maxi;
-            op = new double[n][2 * maxi + 1]; // TODO : doesn't handle big integers
-            ip = new double[n][2 * maxi + 1];
-            minState = new int[n + 1];
-            maxState = new int[n + 1];
-            domRangeComparator = new DomRangeComparator();
-        } else { // exploits the fact that variables appear in order from x[0] to x[n-1] to reduce the extent
-            int fwd = 0;
-            int bwd = 0;
-            for (int i = 0; i < n; i++) {
-                bwd -= x[i].min();
-            }
-            maxi = 0;
-            for (int i = 0; i < n; i++) {
-                maxi = Math.max(maxi, Math.min(fwd, bwd));
-                fwd += x[i].max();
-                bwd += x[i].min();
-            }
-            fwd = 0;
-            bwd = 0;
-            for (int i = 0; i < n; i++) {
-                bwd -= x[i].max();
-            }
-            mini = 0;
-            for (int i = 0; i < n; i++) {
-                mini = Math.min(mini, Math.max(fwd, bwd));
-                fwd += x[i].min();
-                bwd += x[i].max();
-            }
-            offset = -mini;
-            op = new double[n][maxi - mini + 1];
-            ip = new double[n][maxi - mini + 1];
-        }
+        // the rows of the dynamic programming tables are allocated as the layers need them
+        op = new double[n][];
+        ip = new double[n][];
+        minState = new int[n + 1];
+        maxState = new int[n + 1];
+        weights = new double[0];
+        reversed = new double[0];
+        convolution = new double[0];
+        domRangeComparator = new DomRangeComparator();
     }
 
     @Override
@@ -185,128 +162,398 @@ public class Sum extends AbstractConstraint {
             x[idx].removeAbove(-(sumMin - idxMin));
             x[idx].removeBelow(-(sumMax - idxMax));
         }
-        if (incrementalUpdateBelief) {
-            // In an effort to keep the range of DP states small, we order vars by increasing domain range.
+        // In an effort to keep the range of DP states small, we order vars by increasing domain range.
+        Arrays.sort(unBounds, 0, nU, domRangeComparator);
+    }
+
+    @Override
+    public void eliminateBoundVars() {
+        super.eliminateBoundVars();
+        // fold the bound variables into the partial sum, as propagate() does
+        // (unless in BP mode, where it is not called when variables get bound)
+        int nU = nUnBounds.value();
+        for (int i = nU - 1; i >= 0; i--) {
+            int idx = unBounds[i];
+            if (x[idx].isBound()) {
+                sumBounds.setValue(sumBounds.value() + x[idx].min());
+                unBounds[i] = unBounds[nU - 1]; // Swap the variables
+                unBounds[nU - 1] = idx;
+                nU--;
+            }
+        }
+        if (nU < nUnBounds.value()) {
+            nUnBounds.setValue(nU);
             Arrays.sort(unBounds, 0, nU, domRangeComparator);
         }
     }
 
+    /**
+     * The reachable partial sums of a layer, hashed, with their forward and backward beliefs
+     */
+    private static class SparseLayer {
+        private int[] keys = new int[16];
+        private double[] ip = new double[16];
+        private double[] op = new double[16];
+        private int size;
+        private int[] table = new int[32]; // index+1 of the partial sum in keys, 0 for an empty slot
+
+        void clear() {
+            size = 0;
+            Arrays.fill(table, 0);
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9;
+            int mask = table.length - 1;
+            int p = (h ^ (h >>> 16)) & mask;
+            while (table[p] != 0 && keys[table[p] - 1] != key) {
+                p = (p + 1) & mask;
+            }
+            return p;
+        }
+
+        // the index of partial sum key, -1 if it is not reachable
+        int find(int key) {
+            return table[slot(key)] - 1;
+        }
+
+        // the index of partial sum key, added with zero beliefs if it was not reachable
+        int add(int key, double zero) {
+            int p = slot(key);
+            if (table[p] != 0)
+                return table[p] - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                ip = Arrays.copyOf(ip, 2 * size);
+                op = Arrays.copyOf(op, 2 * size);
+            }
+            keys[size] = key;
+            ip[size] = zero;
+            op[size] = zero;
+            table[p] = ++size;
+            if (2 * size > table.length) {
+                table = new int[2 * table.length];
+                for (int j = 0; j < size; j++) {
+                    table[slot(keys[j])] = j + 1;
+                }
+            }
+            return size - 1;
+        }
+    }
+
     @Override
     public void updateBelief() {
-        int idx, s, v;
-        if (incrementalUpdateBelief) { // incremental version using unBounds[]
-            // NOTE: we do not explicitly set the local belief of bound variables: handled by normalizeMarginals()
-            if (nUnBounds.value() == 0)
-                return;
-            // compute the range of feasible states for each layer
-            int fwd_hi = offset + sumBounds.value();
-            int fwd_lo = fwd_hi;
-            int bwd_hi = offset;
-            int bwd_lo = bwd_hi;
-            for (int i = 0; i < nUnBounds.value(); i++) {
-                idx = unBounds[i];
-                bwd_hi -= x[idx].min();
-                bwd_lo -= x[idx].max();
-            }
-            for (int i = 0; i < nUnBounds.value(); i++) {
-                minState[i] = Math.max(fwd_lo, bwd_lo);
-                maxState[i] = Math.min(fwd_hi, bwd_hi);
-                idx = unBounds[i];
+        // incremental version using unBounds[], from which the bound variables have been removed
+        // NOTE: we do not explicitly set the local belief of bound variables: handled by normalizeMarginals()
+        int nU = nUnBounds.value();
+        if (nU == 0)
+            return;
+        // compute the range of feasible states for each layer
+        int fwd_hi = sumBounds.value();
+        int fwd_lo = fwd_hi;
+        int bwd_hi = 0;
+        int bwd_lo = bwd_hi;
+        for (int i = 0; i < nU; i++) {
+            int idx = unBounds[i];
+            bwd_hi -= x[idx].min();
+            bwd_lo -= x[idx].max();
+        }
+        long nbStates = 0;
+        for (int i = 0; i <= nU; i++) {
+            minState[i] = Math.max(fwd_lo, bwd_lo);
+            maxState[i] = Math.min(fwd_hi, bwd_hi);
+            nbStates += Math.max(0, maxState[i] - minState[i] + 1);
+            if (i < nU) {
+                int idx = unBounds[i];
                 fwd_hi += x[idx].max();
                 fwd_lo += x[idx].min();
                 bwd_hi += x[idx].min();
                 bwd_lo += x[idx].max();
             }
-            minState[nUnBounds.value()] = Math.max(fwd_lo, bwd_lo);
-            maxState[nUnBounds.value()] = Math.min(fwd_hi, bwd_hi);
-            // Reach forward
-            ip[0][minState[0]] = beliefRep.one();
-            for (int i = 0; i < nUnBounds.value() - 1; i++) {
-                idx = unBounds[i];
-                Arrays.fill(ip[i + 1], minState[i + 1], maxState[i + 1] + 1, beliefRep.zero());
-                s = x[idx].fillArray(domainValues);
-                for (int j = 0; j < s; j++) {
-                    v = domainValues[j];
-                    for (int k = Math.max(minState[i], minState[i + 1] - v); k <= Math.min(maxState[i], maxState[i + 1] - v); k++) {
-                        if (!beliefRep.isZero(ip[i][k])) {
-                            // add the combination of ip[i][k] and outsideBelief(idx,v) to ip[i+1][k+v]
-                            ip[i + 1][k + v] = beliefRep.add(ip[i + 1][k + v], beliefRep.multiply(ip[i][k], outsideBelief(idx, v)));
-                        }
-                    }
-                }
+        }
+        if (nbStates <= memoryBudget && sparseCost * nbReachableStates(nU, 1) >= nbStates) {
+            denseBelief(nU);
+            return;
+        }
+        // the partial sums of a layer differ by multiples of the gcd of the differences between domain values
+        int gcd = 0;
+        for (int i = 0; i < nU && gcd != 1; i++) {
+            int idx = unBounds[i];
+            int s = x[idx].fillArray(domainValues);
+            for (int j = 0; j < s && gcd != 1; j++) {
+                gcd = gcd(gcd, domainValues[j] - x[idx].min());
             }
-            // Reach backward and set local beliefs
-            op[nUnBounds.value() - 1][minState[nUnBounds.value()]] = beliefRep.one();
-            for (int i = nUnBounds.value() - 1; i > 0; i--) {
-                idx = unBounds[i];
-                Arrays.fill(op[i - 1], minState[i], maxState[i] + 1, beliefRep.zero());
-                s = x[idx].fillArray(domainValues);
-                for (int j = 0; j < s; j++) {
-                    v = domainValues[j];
-                    double belief = beliefRep.zero();
-                    for (int k = Math.max(minState[i + 1], minState[i] + v); k <= Math.min(maxState[i + 1], maxState[i] + v); k++) {
-                        if (!beliefRep.isZero(op[i][k])) {
-                            // add the combination of op[i][k] and outsideBelief(idx,v) to op[i-1][k-v]
-                            op[i - 1][k - v] = beliefRep.add(op[i - 1][k - v], beliefRep.multiply(op[i][k], outsideBelief(idx, v)));
-                            // add the combination of ip[i][k-v] and op[i][k] to belief
-                            belief = beliefRep.add(belief, beliefRep.multiply(ip[i][k - v], op[i][k]));
-                        }
+        }
+        long nbReachable = nbReachableStates(nU, Math.max(1, gcd));
+        if (nbStates <= memoryBudget && sparseCost * nbReachable >= nbStates)
+            denseBelief(nU);
+        else if (nbReachable <= memoryBudget)
+            sparseBelief(nU);
+        else
+            momentMatchedBelief(nU);
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    // returns a bound on the nb of partial sums reachable from the first layer, over all layers,
+    // those of a layer being spaced at least step apart
+    private long nbReachableStates(int nU, int step) {
+        long cap = 1L << 40;
+        long fwd = 1;
+        long nb = 0;
+        for (int i = 0; i <= nU; i++) {
+            nb += Math.min(Math.max(0, maxState[i] - minState[i] + step) / step, fwd);
+            if (i < nU) {
+                int size = x[unBounds[i]].size();
+                fwd = fwd > cap / size ? cap : fwd * size;
+            }
+        }
+        return nb;
+    }
+
+    // the outside beliefs of x[idx], given its domain values in domainValues[0..s-1], into weights[0..span-1] (span = max-min+1)
+    private void fillWeights(int idx, int s) {
+        int span = x[idx].max() - x[idx].min() + 1;
+        if (weights.length < span)
+            weights = new double[span];
+        Arrays.fill(weights, 0, span, 0);
+        for (int j = 0; j < s; j++) {
+            int v = domainValues[j];
+            weights[v - x[idx].min()] = outsideBelief(idx, v);
+        }
+    }
+
+    // makes room in reversed for length elements, and in convolution for the convolution of sequences of lengths na and nb
+    private void ensureCapacity(int length, int na, int nb) {
+        if (fft == null)
+            fft = new FFT();
+        if (reversed.length < length)
+            reversed = new double[length];
+        if (convolution.length < na + nb - 1)
+            convolution = new double[na + nb - 1];
+    }
+
+    private void denseBelief(int nU) {
+        int idx, s, v;
+        for (int i = 0; i <= nU; i++) {
+            if (maxState[i] < minState[i]) { // no feasible partial sum
+                for (int j = 0; j < nU; j++) {
+                    idx = unBounds[j];
+                    s = x[idx].fillArray(domainValues);
+                    for (int k = 0; k < s; k++) {
+                        setLocalBelief(idx, domainValues[k], beliefRep.zero());
                     }
-                    setLocalBelief(idx, v, belief);
                 }
+                return;
             }
-            idx = unBounds[0];
+        }
+        for (int i = 0; i < nU; i++) {
+            int width = maxState[i] - minState[i] + 1;
+            if (ip[i] == null || ip[i].length < width)
+                ip[i] = new double[width];
+            width = maxState[i + 1] - minState[i + 1] + 1;
+            if (op[i] == null || op[i].length < width)
+                op[i] = new double[width];
+        }
+        // the FFT clears the entries at the level of its rounding errors, which may be tiny but feasible:
+        // not when a zero belief removes the value
+        boolean fftAllowed = beliefRep instanceof StdBelief && !getSolver().actingOnZeroOneBelief();
+        // Reach forward
+        ip[0][0] = beliefRep.one();
+        for (int i = 0; i < nU - 1; i++) {
+            idx = unBounds[i];
+            int lo = minState[i];
+            int lo1 = minState[i + 1];
+            int width = maxState[i] - lo + 1;
+            int width1 = maxState[i + 1] - lo1 + 1;
+            int span = x[idx].max() - x[idx].min() + 1;
             s = x[idx].fillArray(domainValues);
+            if (fftAllowed && (long) s * width > FFT.cost(width, span)) {
+                // ip[i+1] is the convolution of ip[i] with the outside beliefs of x[idx]
+                fillWeights(idx, s);
+                ensureCapacity(0, width, span);
+                fft.convolve(ip[i], width, weights, span, convolution);
+                for (int k = 0; k < width1; k++) {
+                    int t = k + lo1 - lo - x[idx].min();
+                    ip[i + 1][k] = (t >= 0 && t < width + span - 1) ? convolution[t] : 0;
+                }
+                continue;
+            }
+            Arrays.fill(ip[i + 1], 0, width1, beliefRep.zero());
             for (int j = 0; j < s; j++) {
                 v = domainValues[j];
-                setLocalBelief(idx, v, op[0][minState[0] + v]);
-            }
-        } else { // non-incremental version
-            for (int i = 0; i < n; i++) {
-                Arrays.fill(ip[i], beliefRep.zero());
+                for (int k = Math.max(lo, lo1 - v); k <= Math.min(maxState[i], maxState[i + 1] - v); k++) {
+                    if (!beliefRep.isZero(ip[i][k - lo])) {
+                        // add the combination of ip[i][k] and outsideBelief(idx,v) to ip[i+1][k+v]
+                        ip[i + 1][k + v - lo1] = beliefRep.add(ip[i + 1][k + v - lo1], beliefRep.multiply(ip[i][k - lo], outsideBelief(idx, v)));
+                    }
+                }
             }
-            // Reach forward
-            ip[0][offset] = beliefRep.one();
-            for (int i = 0; i < n - 1; i++) {
-                s = x[i].fillArray(domainValues);
+        }
+        // Reach backward and set local beliefs
+        op[nU - 1][0] = beliefRep.one();
+        for (int i = nU - 1; i > 0; i--) {
+            idx = unBounds[i];
+            int lo = minState[i];
+            int lo1 = minState[i + 1];
+            int width = maxState[i] - lo + 1;
+            int width1 = maxState[i + 1] - lo1 + 1;
+            int span = x[idx].max() - x[idx].min() + 1;
+            s = x[idx].fillArray(domainValues);
+            if (fftAllowed && (long) s * width1 > 2 * FFT.cost(width1, Math.max(span, width))) {
+                // op[i-1] is the correlation of op[i] with the outside beliefs of x[idx], and the local beliefs that of op[i] with ip[i]
+                fillWeights(idx, s);
+                ensureCapacity(Math.max(span, width), width1, Math.max(span, width));
+                for (int t = 0; t < span; t++) {
+                    reversed[t] = weights[span - 1 - t];
+                }
+                fft.convolve(op[i], width1, reversed, span, convolution);
+                for (int k = 0; k < width; k++) {
+                    int q = k + lo - lo1 + x[idx].max();
+                    op[i - 1][k] = (q >= 0 && q < width1 + span - 1) ? convolution[q] : 0;
+                }
+                for (int t = 0; t < width; t++) {
+                    reversed[t] = ip[i][width - 1 - t];
+                }
+                fft.convolve(op[i], width1, reversed, width, convolution);
                 for (int j = 0; j < s; j++) {
                     v = domainValues[j];
-                    for (int k = mini - (v < 0 ? v : 0); k <= maxi - (v > 0 ? v : 0); k++) {
-                        if (!beliefRep.isZero(ip[i][k + offset])) {
-                            // add the combination of ip[i][k+offset] and outsideBelief(i,v) to ip[i+1][k+offset+v]
-                            ip[i + 1][k + offset + v] = beliefRep.add(ip[i + 1][k + offset + v], beliefRep.multiply(ip[i][k + offset], outsideBelief(i, v)));
-                        }
+                    int q = v + maxState[i] - lo1;
+                    setLocalBelief(idx, v, (q >= 0 && q < width1 + width - 1) ? convolution[q] : 0);
+                }
+                continue;
+            }
+            Arrays.fill(op[i - 1], 0, width, beliefRep.zero());
+            for (int j = 0; j < s; j++) {
+                v = domainValues[j];
+                double belief = beliefRep.zero();
+                for (int k = Math.max(lo1, lo + v); k <= Math.min(maxState[i + 1], maxState[i] + v); k++) {
+                    if (!beliefRep.isZero(op[i][k - lo1])) {
+                        // add the combination of op[i][k] and outsideBelief(idx,v) to op[i-1][k-v]
+                        op[i - 1][k - v - lo] = beliefRep.add(op[i - 1][k - v - lo], beliefRep.multiply(op[i][k - lo1], outsideBelief(idx, v)));
+                        // add the combination of ip[i][k-v] and op[i][k] to belief
+                        belief = beliefRep.add(belief, beliefRep.multiply(ip[i][k - v - lo], op[i][k - lo1]));
                     }
                 }
+                setLocalBelief(idx, v, belief);
             }
+        }
+        idx = unBounds[0];
+        s = x[idx].fillArray(domainValues);
+        for (int j = 0; j < s; j++) {
+            v = domainValues[j];
+            int k = minState[0] + v;
+            if (k >= minState[1] && k <= maxState[1])
+                setLocalBelief(idx, v, op[0][k - minState[1]]);
+            else
+                setLocalBelief(idx, v, beliefRep.zero());
+        }
+    }
 
-            for (int i = 0; i < n; i++) {
-                Arrays.fill(op[i], beliefRep.zero());
+    private void sparseBelief(int nU) {
+        if (layers == null || layers.length < nU + 1) {
+            layers = new SparseLayer[n + 1];
+            for (int i = 0; i <= n; i++) {
+                layers[i] = new SparseLayer();
             }
-            // Reach backward and set local beliefs
-            op[n - 1][offset] = beliefRep.one();
-            for (int i = n - 1; i > 0; i--) {
-                s = x[i].fillArray(domainValues);
-                for (int j = 0; j < s; j++) {
-                    v = domainValues[j];
-                    double belief = beliefRep.zero();
-                    for (int k = mini - (v < 0 ? v : 0); k <= maxi - (v > 0 ? v : 0); k++) {
-                        if (!beliefRep.isZero(op[i][k + offset + v])) {
-                            // add the combination of op[i][k+offset+v] and outsideBelief(i,v) to op[i-1][k+offset]
-                            op[i - 1][k + offset] = beliefRep.add(op[i - 1][k + offset], beliefRep.multiply(op[i][k + offset + v], outsideBelief(i, v)));
-                            // add the combination of ip[i][k+offset] and op[i][k+offset+V] to belief
-                            belief = beliefRep.add(belief, beliefRep.multiply(ip[i][k + offset], op[i][k + offset + v]));
-                        }
+        }
+        for (int i = 0; i <= nU; i++) {
+            layers[i].clear();
+        }
+        // Reach forward
+        if (minState[0] <= maxState[0])
+            layers[0].ip[layers[0].add(sumBounds.value(), beliefRep.zero())] = beliefRep.one();
+        for (int i = 0; i < nU; i++) {
+            int idx = unBounds[i];
+            SparseLayer layer = layers[i];
+            SparseLayer next = layers[i + 1];
+            int s = x[idx].fillArray(domainValues);
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                double outside = outsideBelief(idx, v);
+                for (int a = 0; a < layer.size; a++) {
+                    int k = layer.keys[a] + v;
+                    if (k >= minState[i + 1] && k <= maxState[i + 1] && !beliefRep.isZero(layer.ip[a])) {
+                        int b = next.add(k, beliefRep.zero());
+                        next.ip[b] = beliefRep.add(next.ip[b], beliefRep.multiply(layer.ip[a], outside));
                     }
-                    setLocalBelief(i, v, belief);
                 }
             }
-            s = x[0].fillArray(domainValues);
+        }
+        // Reach backward and set local beliefs
+        int last = layers[nU].find(0);
+        if (last >= 0)
+            layers[nU].op[last] = beliefRep.one();
+        for (int i = nU - 1; i >= 0; i--) {
+            int idx = unBounds[i];
+            SparseLayer layer = layers[i];
+            SparseLayer next = layers[i + 1];
+            int s = x[idx].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
-                v = domainValues[j];
-                setLocalBelief(0, v, op[0][offset + v]);
+                int v = domainValues[j];
+                double outside = outsideBelief(idx, v);
+                double belief = beliefRep.zero();
+                for (int a = 0; a < layer.size; a++) {
+                    int k = layer.keys[a] + v;
+                    int b = (k >= minState[i + 1] && k <= maxState[i + 1]) ? next.find(k) : -1;
+                    if (b >= 0 && !beliefRep.isZero(next.op[b])) {
+                        layer.op[a] = beliefRep.add(layer.op[a], beliefRep.multiply(next.op[b], outside));
+                        belief = beliefRep.add(belief, beliefRep.multiply(layer.ip[a], next.op[b]));
+                    }
+                }
+                setLocalBelief(idx, v, belief);
             }
+        }
+    }
 
+    // approximates the sum of the other variables by a normal distribution, matching the moments of their outside beliefs
+    private void momentMatchedBelief(int nU) {
+        if (mean == null) {
+            mean = new double[n];
+            variance = new double[n];
+        }
+        double totalMean = 0;
+        double totalVariance = 0;
+        for (int i = 0; i < nU; i++) {
+            int idx = unBounds[i];
+            int s = x[idx].fillArray(domainValues);
+            double mass = 0;
+            double m1 = 0;
+            double m2 = 0;
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                double w = beliefRep.rep2std(outsideBelief(idx, v));
+                mass += w;
+                m1 += w * v;
+                m2 += w * v * (double) v;
+            }
+            if (mass == 0) { // uniform
+                for (int j = 0; j < s; j++) {
+                    int v = domainValues[j];
+                    mass += 1;
+                    m1 += v;
+                    m2 += v * (double) v;
+                }
+            }
+            mean[i] = m1 / mass;
+            variance[i] = Math.max(0, m2 / mass - mean[i] * mean[i]);
+            totalMean += mean[i];
+            totalVariance += variance[i];
+        }
+        for (int i = 0; i < nU; i++) {
+            int idx = unBounds[i];
+            double otherMean = totalMean - mean[i];
+            double otherVariance = totalVariance - variance[i];
+            int s = x[idx].fillArray(domainValues);
+            for (int j = 0; j < s; j++) {
+                int v = domainValues[j];
+                // the sum of the other variables must be -(sumBounds+v)
+                double d = -(sumBounds.value() + (double) v) - otherMean;
+                double density = otherVariance > 0 ? Math.exp(-d * d / (2 * otherVariance)) : (Math.abs(d) < 0.5 ? 1 : 0);
+                setLocalBelief(idx, v, beliefRep.std2rep(density));
+            }
         }
     }
 }
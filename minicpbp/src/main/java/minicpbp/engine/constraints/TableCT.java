@@ -20,16 +20,22 @@ package minicpbp.engine.constraints;
 
 import minicpbp.engine.core.AbstractConstraint;
 import minicpbp.engine.core.IntVar;
+import minicpbp.state.StateInt;
+import minicpbp.state.StateManager;
+import minicpbp.state.StateSparseBitSet;
+import minicpbp.state.StateSparseSet;
 
-import java.util.BitSet;
-
-import static minicpbp.cp.Factory.minus;
+import static minicpbp.util.exception.InconsistencyException.INCONSISTENCY;
 
 /**
  * Implementation of Compact Table algorithm described in
  * <p><i>Compact-Table: Efficiently Filtering Table Constraints with Reversible Sparse Bit-Sets</i>
  * Jordan Demeulenaere, Renaud Hartert, Christophe Lecoutre, Guillaume Perez, Laurent Perron, Jean-Charles Régin, Pierre Schaus
  * <p>See <a href="https://www.info.ucl.ac.be/~pschaus/assets/publi/cp2016-compacttable.pdf">The article.</a>
+ * <p>The set of current tuples is a reversible sparse bit-set, updated from the values removed since the last call
+ * (or rebuilt from the remaining values when fewer of them remain).
+ * A value keeps a residue, the last word where its supports intersected the current tuples.
+ * Belief propagation only visits the non-zero words of the current tuples.
  */
 public class TableCT extends AbstractConstraint {
     private IntVar[] x; //variables
@@ -38,11 +44,17 @@ public class TableCT extends AbstractConstraint {
     private int tableLength;
     private int[] ofs; //offsets for each variable's domain
     //supports[i][v] is the set of tuples supported by x[i]=v
-    private BitSet[][] supports;
+    private StateSparseBitSet.BitSet[][] supports;
     private double[] tupleWeight;
-    //supportedTuples is the set of tuples supported by the current domains of the variables
-    private BitSet supportedTuples;
-    private BitSet supporti;
+    //currTable is the set of tuples supported by the current domains of the variables
+    private StateSparseBitSet currTable;
+    private StateSparseBitSet.BitSet mask;
+    //residues[i][v] is a word of currTable that intersected supports[i][v]
+    private int[][] residues;
+    //lastDomains[i] is the domain of x[i] when currTable was last updated, of size lastSizes[i]
+    private StateSparseSet[] lastDomains;
+    private StateInt[] lastSizes;
+    private int[] removedValues;
 
     /**
      * Table constraint.
@@ -68,28 +80,50 @@ public class TableCT extends AbstractConstraint {
         this.table = table;
         this.tableLength = table.length;
         setExactWCounting(true);
+        StateManager sm = getSolver().getStateManager();
         ofs = new int[xLength];
         tupleWeight = new double[tableLength];
-        supportedTuples = new BitSet(tableLength);
-        supporti = new BitSet(tableLength);
+        currTable = new StateSparseBitSet(sm, tableLength);
+        mask = currTable.new BitSet();
 
         // Allocate supportedByVarVal
-        supports = new BitSet[xLength][];
+        supports = new StateSparseBitSet.BitSet[xLength][];
+        residues = new int[xLength][];
+        lastDomains = new StateSparseSet[xLength];
+        lastSizes = new StateInt[xLength];
+        int maxRange = 0;
         for (int i = 0; i < xLength; i++) {
             ofs[i] = x[i].min(); // offsets map the variables' domain to start at 0 for supports[][]
-            supports[i] = new BitSet[x[i].max() - x[i].min() + 1];
+            int range = x[i].max() - x[i].min() + 1;
+            maxRange = Math.max(maxRange, range);
+            supports[i] = new StateSparseBitSet.BitSet[range];
             for (int j = 0; j < supports[i].length; j++)
-                supports[i][j] = new BitSet();
+                supports[i][j] = currTable.new BitSet();
+            residues[i] = new int[range];
+            lastDomains[i] = new StateSparseSet(sm, range, ofs[i]);
+            for (int v = ofs[i]; v < ofs[i] + range; v++) {
+                if (!x[i].contains(v))
+                    lastDomains[i].remove(v);
+            }
+            lastSizes[i] = sm.makeStateInt(lastDomains[i].size());
         }
+        removedValues = new int[maxRange];
 
         // Set values in supportedByVarVal, which contains all the tuples supported by each var-val pair
+        // and keep in currTable the tuples whose values are all in the domains
         for (int i = 0; i < tableLength; i++) { //i is the index of the tuple (in table)
+            boolean valid = true;
             for (int j = 0; j < xLength; j++) { //j is the index of the current variable (in x)
                 if (x[j].contains(table[i][j])) {
                     supports[j][table[i][j] - ofs[j]].set(i);
+                } else {
+                    valid = false;
                 }
             }
+            if (valid)
+                mask.set(i);
         }
+        currTable.intersect(mask);
     }
 
     @Override
@@ -105,59 +139,87 @@ public class TableCT extends AbstractConstraint {
         propagate();
     }
 
-    @Override
-    public void propagate() {
-
-        // Compute supportedTuples as
-        // supportedTuples = (supports[0][x[0].min()] | ... | supports[0][x[0].max()] ) & ... &
-        //                   (supports[x.length][x[0].min()] | ... | supports[x.length][x[0].max()] )
-        //
-        supportedTuples.set(0, tableLength); // set them all to true
-        for (int i = 0; i < xLength; i++) {
-            supporti.clear(); // set them all to false
-            int s = x[i].fillArray(domainValues);
+    /**
+     * Removes from currTable the tuples of the values removed from the domains since the last update.
+     */
+    private void updateTable() {
+        for (int i = 0; i < xLength && !currTable.isEmpty(); i++) {
+            int size = x[i].size();
+            if (size == lastSizes[i].value())
+                continue;
+            int nbRemoved = 0;
+            int s = lastDomains[i].fillArray(removedValues);
             for (int j = 0; j < s; j++) {
-                supporti.or(supports[i][domainValues[j] - ofs[i]]);
+                int v = removedValues[j];
+                if (!x[i].contains(v)) {
+                    lastDomains[i].remove(v);
+                    removedValues[nbRemoved++] = v;
+                }
             }
-            supportedTuples.and(supporti);
+            mask.clear();
+            if (nbRemoved <= size) { // incremental update from the removed values
+                for (int j = 0; j < nbRemoved; j++) {
+                    mask.union(supports[i][removedValues[j] - ofs[i]]);
+                }
+                currTable.remove(mask);
+            } else { // reset from the remaining values
+                s = x[i].fillArray(domainValues);
+                for (int j = 0; j < s; j++) {
+                    mask.union(supports[i][domainValues[j] - ofs[i]]);
+                }
+                currTable.intersect(mask);
+            }
+            lastSizes[i].setValue(size);
         }
+    }
+
+    @Override
+    public void propagate() {
+        updateTable();
+        if (currTable.isEmpty())
+            throw INCONSISTENCY;
 
         for (int i = 0; i < xLength; i++) {
             int s = x[i].fillArray(domainValues);
+            boolean removed = false;
             for (int j = 0; j < s; j++) {
                 // The condition for removing the setValue v from x[i] is to check if
-                // there is no intersection between supportedTuples and the support[i][v]
+                // there is no intersection between currTable and the support[i][v],
+                // first on the residue then on the non-zero words
                 int v = domainValues[j];
-                if (!supports[i][v - ofs[i]].intersects(supportedTuples)) {
-                    x[i].remove(v);
+                int idx = v - ofs[i];
+                if (!currTable.intersects(supports[i][idx], residues[i][idx])) {
+                    int residue = currTable.intersectIndex(supports[i][idx]);
+                    if (residue < 0) {
+                        x[i].remove(v);
+                        lastDomains[i].remove(v);
+                        removed = true;
+                    } else {
+                        residues[i][idx] = residue;
+                    }
                 }
             }
+            // the removed values had no support in currTable, which stays the same
+            if (removed)
+                lastSizes[i].setValue(x[i].size());
         }
     }
 
     @Override
     public void updateBelief() {
-
-        // Compute supportedTuples as
-        // supportedTuples = (supports[0][x[0].min()] | ... | supports[0][x[0].max()] ) & ... &
-        //                   (supports[x.length][x[0].min()] | ... | supports[x.length][x[0].max()] )
-        //
-        supportedTuples.set(0, tableLength); // set them all to true
-        for (int i = 0; i < xLength; i++) {
-            supporti.clear(); // set them all to false
-            int s = x[i].fillArray(domainValues);
-            for (int j = 0; j < s; j++) {
-                supporti.or(supports[i][domainValues[j] - ofs[i]]);
-            }
-            supportedTuples.and(supporti);
-        }
+        updateTable();
 
         // Each tuple has its own weight given by the product of the outside_belief of its elements.
-        // Compute these products, but only for supported tuples.
-        for (int k = supportedTuples.nextSetBit(0); k >= 0; k = supportedTuples.nextSetBit(k + 1)) {
-            tupleWeight[k] = beliefRep.one();
-            for (int i = 0; i < xLength; i++) {
-                tupleWeight[k] = beliefRep.multiply(tupleWeight[k], outsideBelief(i, table[k][i]));
+        // Compute these products, but only for supported tuples, i.e. the set bits of the non-zero words of currTable.
+        int nbWords = currTable.nbNonZeroWords();
+        for (int w = 0; w < nbWords; w++) {
+            int wordIdx = currTable.nonZeroWord(w);
+            for (long word = currTable.word(wordIdx); word != 0L; word &= word - 1) {
+                int k = (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+                tupleWeight[k] = beliefRep.one();
+                for (int i = 0; i < xLength; i++) {
+                    tupleWeight[k] = beliefRep.multiply(tupleWeight[k], outsideBelief(i, table[k][i]));
+                }
             }
         }
 
@@ -167,17 +229,15 @@ public class TableCT extends AbstractConstraint {
                 int v = domainValues[j];
                 double belief = beliefRep.zero();
                 double outsideBelief_i_v = outsideBelief(i, v);
-                BitSet support_i_v = supports[i][v - ofs[i]];
-                // Iterate over supports[i][v] /\ supportedTuples, accumulating the weight of tuples.
-                if (!beliefRep.isZero(outsideBelief_i_v)) {
-                    for (int k = support_i_v.nextSetBit(0); k >= 0; k = support_i_v.nextSetBit(k + 1)) {
-                        if (supportedTuples.get(k)) {
+                StateSparseBitSet.BitSet support_i_v = supports[i][v - ofs[i]];
+                // Iterate over supports[i][v] /\ currTable word by word, accumulating the weight of tuples.
+                for (int w = 0; w < nbWords; w++) {
+                    int wordIdx = currTable.nonZeroWord(w);
+                    for (long word = currTable.word(wordIdx) & support_i_v.word(wordIdx); word != 0L; word &= word - 1) {
+                        int k = (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+                        if (!beliefRep.isZero(outsideBelief_i_v)) {
                             belief = beliefRep.add(belief, beliefRep.divide(tupleWeight[k], outsideBelief_i_v));
-                        }
-                    }
-                } else { // special case of null outside belief (avoid division by zero)
-                    for (int k = support_i_v.nextSetBit(0); k >= 0; k = support_i_v.nextSetBit(k + 1)) {
-                        if (supportedTuples.get(k)) {
+                        } else { // special case of null outside belief (avoid division by zero)
                             double weight = beliefRep.one();
                             for (int i2 = 0; i2 < i; i2++) {
                                 weight = beliefRep.multiply(weight, outsideBelief(i2, table[k][i2]));
@@ -195,6 +255,6 @@ public class TableCT extends AbstractConstraint {
     }
 
     // FOR SIMPLE COUNTING:
-    // the frequency of x[i]=v is given by (supports[i][v] /\ supportedTuples).cardinality()
+    // the frequency of x[i]=v is given by the popcount of supports[i][v] /\ currTable over the non-zero words of currTable
 
 }
@@ -19,10 +19,14 @@
 package minicpbp.engine.core;
 
 import minicpbp.state.StateBool;
-import minicpbp.state.StateDouble;
+import minicpbp.state.StateDoubleArray;
+import minicpbp.state.StateInt;
 
 import minicpbp.util.Belief;
 
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
 /**
  * Abstract class the most of the constraints
  * should extend.
@@ -37,18 +41,27 @@ public abstract class AbstractConstraint implements Constraint {
     private boolean scheduled = false;
     private final StateBool active;
 
-    private StateDouble[][] localBelief;
-    private double[][] outsideBelief;
-    private StateDouble[][] prevOutsideBelief; // needed for message damping
+    // the beliefs of all the (variable,value) pairs of the scope are stored contiguously:
+    // that of value val of vars[i] is at index base[i] + val - ofs[i]
+    // local beliefs are saved/restored as a whole (they are mostly rewritten at each search-tree node)
+    private StateDoubleArray localBelief;
+    private double[] outsideBelief;
+    private double[] prevOutsideBelief; // needed for message damping
     private double weight; // an optional nonnegative weight applied to the constraint's local belief
     protected Belief beliefRep;
     private int[] ofs;
+    private int[] base; // base[vars.length] is the total number of (variable,value) pairs
     private IntVar[] vars; // all the variables in the scope of the constraint
+    // the indices of the variables not eliminated as bound are freeVars[0..nbFreeVars-1] (see eliminateBoundVars)
+    private int[] freeVars;
+    private StateInt nbFreeVars;
+    private boolean scopeReplaced = false; // whether a variable was replaced, possibly an eliminated one (see replaceVar)
     private int maxDomainSize;
     protected int[] domainValues; // an array large enough to hold any domain of vars
     protected double[] beliefValues; // an auxiliary array as large as domainValues
     private boolean exactWCounting = false;
     private boolean updateBeliefWarningPrinted = false;
+    private ConstraintProfile profile = null;
 
     public AbstractConstraint(Solver cp, IntVar[] vars) {
         this.cp = cp;
@@ -65,30 +78,133 @@ public abstract class AbstractConstraint implements Constraint {
                 weight = 1.0 + ((double) vars.length) / ((double) cp.getVariables().size());
                 break;
         }
-        localBelief = new StateDouble[vars.length][];
         ofs = new int[vars.length];
-        outsideBelief = new double[vars.length][];
-        prevOutsideBelief = new StateDouble[vars.length][];
-
+        base = new int[vars.length + 1];
         maxDomainSize = 0;
         for (int i = 0; i < vars.length; i++) {
             ofs[i] = vars[i].min();
-            localBelief[i] = new StateDouble[vars[i].max() - vars[i].min() + 1];
-            outsideBelief[i] = new double[vars[i].max() - vars[i].min() + 1];
-            prevOutsideBelief[i] = new StateDouble[outsideBelief[i].length];
-            for (int j = 0; j < localBelief[i].length; j++) {
-                localBelief[i][j] = cp.getStateManager().makeStateDouble(beliefRep.one()); // no belief yet; initialized to ONE (certainly true) in order to retrieve the first var-to-constraint msg correctly
-                prevOutsideBelief[i][j] = cp.getStateManager().makeStateDouble(beliefRep.one()); // arbitrary
-            }
+            base[i + 1] = base[i] + vars[i].max() - vars[i].min() + 1;
             maxDomainSize = Math.max(maxDomainSize, vars[i].max() - vars[i].min() + 1);
         }
+        // no belief yet; initialized to ONE (certainly true) in order to retrieve the first var-to-constraint msg correctly
+        localBelief = new StateDoubleArray(cp.getStateManager(), base[vars.length], beliefRep.one());
+        outsideBelief = new double[base[vars.length]];
+        prevOutsideBelief = new double[base[vars.length]];
+        Arrays.fill(prevOutsideBelief, beliefRep.one()); // arbitrary
         domainValues = new int[maxDomainSize];
         beliefValues = new double[maxDomainSize];
+        freeVars = new int[vars.length];
+        for (int i = 0; i < vars.length; i++) {
+            freeVars[i] = i;
+        }
+        nbFreeVars = cp.getStateManager().makeStateInt(vars.length);
+    }
+
+    /**
+     * Replaces a variable in the scope of the constraint, its beliefs starting afresh.
+     * The replacement is not undone when the state is restored: if the replaced variable had been eliminated
+     * as bound, restoring a state in which it was already eliminated leaves the new variable eliminated,
+     * until the next {@link #eliminateBoundVars()} brings it back if it is unbound.
+     * CAVEAT: the constraint is not registered on the domain events of the new variable
+     *
+     * @param i the index of the variable in the scope
+     * @param x the new variable
+     */
+    protected void replaceVar(int i, IntVar x) {
+        vars[i] = x;
+        int[] oldBase = base.clone();
+        ofs[i] = x.min();
+        for (int k = i; k < vars.length; k++) {
+            base[k + 1] = base[k] + vars[k].max() - vars[k].min() + 1;
+        }
+        maxDomainSize = Math.max(maxDomainSize, x.max() - x.min() + 1);
+        double[] local = new double[base[vars.length]];
+        copyBeliefs(localBelief::get, oldBase, local, i, beliefRep.one());
+        localBelief.replace(local);
+        double[] outside = new double[base[vars.length]];
+        copyBeliefs(k -> outsideBelief[k], oldBase, outside, i, beliefRep.zero());
+        outsideBelief = outside;
+        double[] prevOutside = new double[base[vars.length]];
+        copyBeliefs(k -> prevOutsideBelief[k], oldBase, prevOutside, i, beliefRep.one());
+        prevOutsideBelief = prevOutside;
+        if (domainValues.length < maxDomainSize) {
+            domainValues = new int[maxDomainSize];
+            beliefValues = new double[maxDomainSize];
+        }
+        // the new variable may be unbound
+        scopeReplaced = true;
+        int nbFree = nbFreeVars.value();
+        for (int k = nbFree; k < vars.length; k++) {
+            if (freeVars[k] == i) {
+                freeVars[k] = freeVars[nbFree];
+                freeVars[nbFree] = i;
+                nbFreeVars.setValue(nbFree + 1);
+            }
+        }
+        cp.scopeChanged(this);
+    }
+
+    // copies the beliefs laid out according to oldBase to the current layout, those of vars[i] starting afresh
+    private void copyBeliefs(IntToDoubleFunction oldBeliefs, int[] oldBase, double[] beliefs, int i, double initValue) {
+        for (int k = 0; k < vars.length; k++) {
+            if (k == i) {
+                Arrays.fill(beliefs, base[k], base[k + 1], initValue);
+            } else {
+                for (int j = 0; j < base[k + 1] - base[k]; j++) {
+                    beliefs[base[k] + j] = oldBeliefs.applyAsDouble(oldBase[k] + j);
+                }
+            }
+        }
     }
 
     public void post() {
     }
 
+    /**
+     * Removes the bound variables from those to which it sends messages, after setting their outside belief
+     * to certainty: belief propagation then only visits the unbound variables of its scope.
+     * Constraints overriding it to fold the bound variables into their own state should call it first.
+     */
+    public void eliminateBoundVars() {
+        int nbFree = nbFreeVars.value();
+        if (scopeReplaced) {
+            // a restored state may have a replacing variable eliminated while it is unbound
+            for (int k = nbFree; k < vars.length; k++) {
+                int i = freeVars[k];
+                if (!vars[i].isBound()) {
+                    freeVars[k] = freeVars[nbFree];
+                    freeVars[nbFree] = i;
+                    nbFree++;
+                }
+            }
+        }
+        for (int k = nbFree - 1; k >= 0; k--) {
+            int i = freeVars[k];
+            if (vars[i].isBound()) {
+                setOutsideBelief(i, vars[i].min(), beliefRep.one());
+                freeVars[k] = freeVars[nbFree - 1];
+                freeVars[nbFree - 1] = i;
+                nbFree--;
+            }
+        }
+        nbFreeVars.setValue(nbFree);
+    }
+
+    /**
+     * @return the number of variables of the scope not eliminated (see {@link #eliminateBoundVars()})
+     */
+    protected int nbFreeVars() {
+        return nbFreeVars.value();
+    }
+
+    /**
+     * @param k an index smaller than {@link #nbFreeVars()}
+     * @return the index in the scope of the k-th variable not eliminated
+     */
+    protected int freeVar(int k) {
+        return freeVars[k];
+    }
+
     public Solver getSolver() {
         return cp;
     }
@@ -112,11 +228,15 @@ public abstract class AbstractConstraint implements Constraint {
         return active.value();
     }
 
+    public Constraint fuse(Constraint other) {
+        return null;
+    }
+
     protected void setExactWCounting(boolean exact) {
         this.exactWCounting = exact;
     }
 
-    protected boolean isExactWCounting() {
+    public boolean isExactWCounting() {
         return exactWCounting;
     }
 
@@ -130,59 +250,73 @@ public abstract class AbstractConstraint implements Constraint {
     }
 
     protected double localBelief(int i, int val) {
-        return localBelief[i][val - ofs[i]].value();
+        return localBelief.get(base[i] + val - ofs[i]);
     }
 
     protected double setLocalBelief(int i, int val, double b) {
-        return localBelief[i][val - ofs[i]].setValue(b);
+        return localBelief.set(base[i] + val - ofs[i], b);
     }
 
     protected double outsideBelief(int i, int val) {
-        return outsideBelief[i][val - ofs[i]];
+        return outsideBelief[base[i] + val - ofs[i]];
     }
 
     protected double setOutsideBelief(int i, int val, double b) {
-        outsideBelief[i][val - ofs[i]] = b;
+        outsideBelief[base[i] + val - ofs[i]] = b;
         return b;
     }
 
     protected double prevOutsideBelief(int i, int val) {
-        return prevOutsideBelief[i][val - ofs[i]].value();
+        return prevOutsideBelief[base[i] + val - ofs[i]];
     }
 
     protected double setPrevOutsideBelief(int i, int val, double b) {
-        return prevOutsideBelief[i][val - ofs[i]].setValue(b);
-    }
-
-    interface getBelief {
-        double get(int i, int val);
+        prevOutsideBelief[base[i] + val - ofs[i]] = b;
+        return b;
     }
 
-    interface setBelief {
-        double set(int i, int val, double b);
+    private void normalizeLocalBelief(int i) {
+        int s = vars[i].fillArray(domainValues);
+        if (s == 1) { // variable is bound
+            setLocalBelief(i, domainValues[0], beliefRep.one());
+            return;
+        }
+        for (int j = 0; j < s; j++) {
+            beliefValues[j] = localBelief(i, domainValues[j]);
+        }
+        double normalizingConstant = beliefRep.summation(beliefValues, s);
+        if (beliefRep.isZero(normalizingConstant)) // temporary state of a soon-to-be-empty domain
+            return;
+        for (int j = 0; j < s; j++) {
+            int val = domainValues[j];
+            setLocalBelief(i, val, beliefRep.divide(beliefValues[j], normalizingConstant));
+            assert localBelief(i, val) <= beliefRep.one() && localBelief(i, val) >= beliefRep.zero() : "Should be normalized! localBelief(i,val) = " + localBelief(i, val);
+        }
     }
 
-    private void normalizeBelief(int i, getBelief f1, setBelief f2) {
+    private void normalizeOutsideBelief(int i) {
         int s = vars[i].fillArray(domainValues);
         if (s == 1) { // variable is bound
-            f2.set(i, domainValues[0], beliefRep.one());
+            setOutsideBelief(i, domainValues[0], beliefRep.one());
             return;
         }
         for (int j = 0; j < s; j++) {
-            beliefValues[j] = f1.get(i, domainValues[j]);
+            beliefValues[j] = outsideBelief(i, domainValues[j]);
         }
         double normalizingConstant = beliefRep.summation(beliefValues, s);
         if (beliefRep.isZero(normalizingConstant)) // temporary state of a soon-to-be-empty domain
             return;
         for (int j = 0; j < s; j++) {
             int val = domainValues[j];
-            f2.set(i, val, beliefRep.divide(f1.get(i, val), normalizingConstant));
-            assert f1.get(i, val) <= beliefRep.one() && f1.get(i, val) >= beliefRep.zero() : "Should be normalized! f1.get(i,val) = " + f1.get(i, val);
+            setOutsideBelief(i, val, beliefRep.divide(beliefValues[j], normalizingConstant));
+            assert outsideBelief(i, val) <= beliefRep.one() && outsideBelief(i, val) >= beliefRep.zero() : "Should be normalized! outsideBelief(i,val) = " + outsideBelief(i, val);
         }
     }
 
     public void resetLocalBelief() {
-        for (int i = 0; i < vars.length; i++) {
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            int i = freeVars[k];
             int s = vars[i].fillArray(domainValues);
             for (int j = 0; j < s; j++) {
                 setLocalBelief(i, domainValues[j], beliefRep.one());
@@ -190,6 +324,35 @@ public abstract class AbstractConstraint implements Constraint {
         }
     }
 
+    private void updateLocalBelief() {
+        if (profile == null) {
+            updateBelief();
+        } else {
+            long start = System.nanoTime();
+            updateBelief();
+            profile.beliefUpdated(System.nanoTime() - start);
+        }
+    }
+
+    public void computeLocalBelief() {
+        updateLocalBelief();
+    }
+
+    public void sendLocalBelief() {
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            int i = freeVars[k];
+            if (!vars[i].isBound()) {
+                normalizeLocalBelief(i);
+                int s = vars[i].fillArray(domainValues);
+                for (int j = 0; j < s; j++) {
+                    int val = domainValues[j];
+                    vars[i].receiveMessage(val, beliefRep.pow(localBelief(i, val), weight()));
+                }
+            }
+        }
+    }
+
     private void dampenMessages(int i) {
         double lambda = beliefRep.std2rep(cp.dampingFactor());
         double oneMinusLambda = beliefRep.complement(lambda);
@@ -198,11 +361,13 @@ public abstract class AbstractConstraint implements Constraint {
             int val = domainValues[j];
             setOutsideBelief(i, val, beliefRep.add(beliefRep.multiply(lambda, outsideBelief(i, val)), beliefRep.multiply(oneMinusLambda, prevOutsideBelief(i, val))));
         }
-        normalizeBelief(i, (j, val) -> outsideBelief(j, val), (j, val, b) -> setOutsideBelief(j, val, b));
+        normalizeOutsideBelief(i);
     }
 
     public void receiveMessages() {
-        for (int i = 0; i < vars.length; i++) {
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            int i = freeVars[k];
             if (vars[i].isBound()) {
                 setOutsideBelief(i, vars[i].min(), beliefRep.one());
             } else {
@@ -210,10 +375,9 @@ public abstract class AbstractConstraint implements Constraint {
                 for (int j = 0; j < s; j++) {
                     int val = domainValues[j];
                     assert localBelief(i, val) <= beliefRep.one() && localBelief(i, val) >= beliefRep.zero() : "Should be normalized! localBelief(i,val) = " + localBelief(i, val);
-                    setOutsideBelief(i, val, vars[i].sendMessage(val, beliefRep.pow(localBelief(i, val), weight)));
+                    setOutsideBelief(i, val, vars[i].sendMessage(val, beliefRep.pow(localBelief(i, val), weight())));
                 }
-                normalizeBelief(i, (j, val) -> outsideBelief(j, val),
-                        (j, val, b) -> setOutsideBelief(j, val, b));
+                normalizeOutsideBelief(i);
                 if (cp.dampingMessages()) {
                     if (cp.prevOutsideBeliefRecorded())
                         dampenMessages(i);
@@ -227,12 +391,13 @@ public abstract class AbstractConstraint implements Constraint {
     }
 
     public void sendMessages() {
-        updateBelief();
+        updateLocalBelief();
         // Note: does not discriminate between exact and approximate weighted counting
-        for (int i = 0; i < vars.length; i++) {
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            int i = freeVars[k];
             if (!vars[i].isBound()) { // if the variable is bound, it is pointless to send a "certainly true" message
-                normalizeBelief(i, (j, val) -> localBelief(j, val),
-                        (j, val, b) -> setLocalBelief(j, val, b));
+                normalizeLocalBelief(i);
                 int s = vars[i].fillArray(domainValues);
                 for (int j = 0; j < s; j++) {
                     int val = domainValues[j];
@@ -250,14 +415,64 @@ public abstract class AbstractConstraint implements Constraint {
                             getSolver().fixPoint();
                             break; // all other values in this loop will have been removed from the domain
                         } else
-                            vars[i].receiveMessage(val, beliefRep.pow(localB, weight));
+                            vars[i].receiveMessage(val, beliefRep.pow(localB, weight()));
                     } else
-                        vars[i].receiveMessage(val, beliefRep.pow(localB, weight));
+                        vars[i].receiveMessage(val, beliefRep.pow(localB, weight()));
+                }
+            }
+        }
+    }
+
+    public void replaceMessages() {
+        // CAVEAT: does not act on zero/one beliefs
+        updateLocalBelief();
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            int i = freeVars[k];
+            if (!vars[i].isBound()) {
+                normalizeLocalBelief(i);
+                int s = vars[i].fillArray(domainValues);
+                for (int j = 0; j < s; j++) {
+                    int val = domainValues[j];
+                    vars[i].setMarginal(val, beliefRep.multiply(outsideBelief(i, val), beliefRep.pow(localBelief(i, val), weight())));
                 }
+                vars[i].normalizeMarginals();
             }
         }
     }
 
+    public double pendingResidual() {
+        double residual = 0;
+        int nbFree = nbFreeVars.value();
+        for (int k = 0; k < nbFree; k++) {
+            residual = Math.max(residual, pendingResidual(freeVars[k]));
+        }
+        return residual;
+    }
+
+    public double pendingResidual(int i) {
+        // the difference between the normalized message from vars[i], as receiveMessages() would compute it, and its outside belief
+        if (vars[i].isBound())
+            return Math.abs(beliefRep.rep2std(beliefRep.one()) - beliefRep.rep2std(outsideBelief(i, vars[i].min())));
+        int s = vars[i].fillArray(domainValues);
+        for (int j = 0; j < s; j++) {
+            beliefValues[j] = vars[i].sendMessage(domainValues[j], beliefRep.pow(localBelief(i, domainValues[j]), weight()));
+        }
+        double normalizingConstant = beliefRep.summation(beliefValues, s);
+        if (beliefRep.isZero(normalizingConstant))
+            return 0;
+        double residual = 0;
+        for (int j = 0; j < s; j++) {
+            double message = beliefRep.rep2std(beliefRep.divide(beliefValues[j], normalizingConstant));
+            residual = Math.max(residual, Math.abs(message - beliefRep.rep2std(outsideBelief(i, domainValues[j]))));
+        }
+        return residual;
+    }
+
+    public IntVar[] getScope() {
+        return vars;
+    }
+
     /**
      * Updates its local belief given the outside beliefs.
      * To be defined in the actual constraint.
@@ -271,11 +486,7 @@ public abstract class AbstractConstraint implements Constraint {
                 System.out.println("Warning: method updateBelief not implemented yet for " + getName() + " constraint. Using uniform belief instead.");
             updateBeliefWarningPrinted = true;
         }
-        for (int i = 0; i < vars.length; i++) {
-            for (int j = 0; j < localBelief[i].length; j++) {
-                localBelief[i][j].setValue(beliefRep.one()); // will be normalized
-            }
-        }
+        localBelief.fill(0, localBelief.length(), beliefRep.one()); // will be normalized
     }
 
     @Override
@@ -287,4 +498,14 @@ public abstract class AbstractConstraint implements Constraint {
     public void setName(String name) {
         this.name = name;
     }
+
+    @Override
+    public void setProfile(ConstraintProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public ConstraintProfile getProfile() {
+        return profile;
+    }
 }
@@ -75,11 +75,42 @@ public interface Constraint {
      */
     boolean isActive();
 
+    /**
+     * Fuses with another constraint, not posted yet, into a single equivalent constraint
+     * (see {@link Solver#setFuseConstraints(boolean)}).
+     *
+     * @param other the constraint to fuse with, posted after it
+     * @return the constraint enforcing both of them, or null if they cannot be fused
+     */
+    Constraint fuse(Constraint other);
+
     String getName();
     void setName(String name);
 
+    /**
+     * Sets the profile in which its propagation and belief propagation statistics are recorded.
+     * Called by the solver (see {@link Solver#setProfiler(Profiler)}), not intended to be called by the user.
+     *
+     * @param profile the profile, or null to stop recording them
+     */
+    void setProfile(ConstraintProfile profile);
+
+    /**
+     * @return the profile in which its statistics are recorded, or null if it is not profiled
+     */
+    ConstraintProfile getProfile();
+
     /************* BP services *************/
 
+    /**
+     * Eliminates the bound variables of its scope from belief propagation: they are no longer visited
+     * when collecting and sending messages, and the constraint may fold them into its own state
+     * (e.g. a partial sum or a start state), so that the cost of its belief updates depends on
+     * the number of unbound variables rather than on the size of its scope.
+     * Called by the solver at the start of belief propagation; the elimination is undone when the state is restored.
+     */
+    void eliminateBoundVars();
+
     /**
      * Collects messages (outside beliefs) from the variables in its scope.
      */
@@ -91,11 +122,54 @@ public interface Constraint {
      */
     void sendMessages();
 
+    /**
+     * Updates its local belief given the outside beliefs, without sending it.
+     * Only reads the variables in its scope, so that several constraints can do it concurrently.
+     */
+    void computeLocalBelief();
+
+    /**
+     * Updates its local belief (given the outside beliefs) and replaces its previous messages
+     * to the variables in its scope, whose marginals are recomputed from their outside beliefs.
+     * Used by asynchronous schedules, in which the marginals are not rebuilt from all the constraints.
+     */
+    void replaceMessages();
+
+    /**
+     * Returns the largest change of the messages (outside beliefs) it would collect
+     * since it last collected them.
+     */
+    double pendingResidual();
+
+    /**
+     * Returns the largest change of the messages it would collect from a variable
+     * since it last collected them.
+     *
+     * @param i the index of the variable in its scope
+     */
+    double pendingResidual(int i);
+
+    /**
+     * Returns the variables in its scope (the array is not to be modified).
+     */
+    IntVar[] getScope();
+
     /**
      * Sets the local belief to certainty.
      */
     void resetLocalBelief();
 
+    /**
+     * Sends its current local belief as messages to the variables in its scope, without updating it.
+     */
+    void sendLocalBelief();
+
+    /**
+     * Returns whether its local belief is computed by exact weighted counting,
+     * that is, whether the messages it sends are exact given the messages it collects.
+     */
+    boolean isExactWCounting();
+
     /**
      * Sets the constraint's weight to a nonnegative value.
      * w > 1 amplifies deviations from the uniform belief;
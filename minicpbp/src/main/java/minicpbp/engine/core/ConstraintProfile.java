@@ -0,0 +1,138 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+/**
+ * The propagation and belief propagation statistics of a constraint,
+ * recorded by a {@link Profiler}.
+ * Times are in nanoseconds.
+ */
+public class ConstraintProfile {
+
+    private final String name;
+    private final Class<?> constraintClass;
+    private final ProfilerEvents jfrEvents; // null if the events are not recorded
+    private long propagateCalls = 0;
+    private long propagateTime = 0;
+    private long removedValues = 0;
+    private long failures = 0;
+    // constraints sharing the profile may update their belief in parallel
+    private long beliefUpdates = 0;
+    private long beliefUpdateTime = 0;
+
+    ConstraintProfile(Constraint c, ProfilerEvents jfrEvents) {
+        name = c.getName();
+        constraintClass = c.getClass();
+        this.jfrEvents = jfrEvents;
+    }
+
+    /**
+     * @return the name of the constraint (possibly null)
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getConstraintClass() {
+        return constraintClass;
+    }
+
+    /**
+     * @return the number of calls of {@link Constraint#propagate()}
+     */
+    public long propagateCalls() {
+        return propagateCalls;
+    }
+
+    /**
+     * @return the time spent in {@link Constraint#propagate()}
+     */
+    public long propagateTime() {
+        return propagateTime;
+    }
+
+    /**
+     * @return the number of domain values removed by {@link Constraint#propagate()}
+     * (from the variables in its scope)
+     */
+    public long removedValues() {
+        return removedValues;
+    }
+
+    /**
+     * @return the number of failures (inconsistencies) raised by {@link Constraint#propagate()}
+     */
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of updates of the local belief
+     */
+    public synchronized long beliefUpdates() {
+        return beliefUpdates;
+    }
+
+    /**
+     * @return the time spent updating the local belief
+     */
+    public synchronized long beliefUpdateTime() {
+        return beliefUpdateTime;
+    }
+
+    /**
+     * @return the time spent in propagation and in updating the local belief
+     */
+    public long totalTime() {
+        return propagateTime + beliefUpdateTime();
+    }
+
+    void propagated(long time, long removed, boolean failed) {
+        propagateCalls++;
+        propagateTime += time;
+        removedValues += removed;
+        if (failed)
+            failures++;
+        if (jfrEvents != null)
+            jfrEvents.propagate(name, constraintClass, time, removed, failed);
+    }
+
+    synchronized void beliefUpdated(long time) {
+        beliefUpdates++;
+        beliefUpdateTime += time;
+        if (jfrEvents != null)
+            jfrEvents.updateBelief(name, constraintClass, time);
+    }
+
+    synchronized void reset() {
+        propagateCalls = 0;
+        propagateTime = 0;
+        removedValues = 0;
+        failures = 0;
+        beliefUpdates = 0;
+        beliefUpdateTime = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s): %d propagate %.3f ms, %d removed, %d failures, %d belief updates %.3f ms",
+                name, constraintClass.getSimpleName(), propagateCalls, propagateTime / 1e6,
+                removedValues, failures, beliefUpdates(), beliefUpdateTime() / 1e6);
+    }
+}
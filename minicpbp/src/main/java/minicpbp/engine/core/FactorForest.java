@@ -0,0 +1,201 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+import minicpbp.state.StateStack;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The analysis of the factor graph of a solver, the bipartite graph between the constraints
+ * and the unbound variables in their scope (views standing for their underlying variable).
+ * When this graph is a forest, belief propagation is exact after a sweep of the constraints
+ * from the leaves to the roots followed by a sweep from the roots to the leaves:
+ * {@link #build(StateStack)} then orders the constraints so that each one comes after its parent,
+ * the roots first. The arrays are reused from one analysis to the next.
+ */
+final class FactorForest {
+
+    // the index of each variable met in the last analysis
+    private final Map<IntVar, Integer> varIndex = new IdentityHashMap<>();
+    // the variables of constraint c are varOf[varStart[c]..varStart[c+1]-1]
+    private int[] varStart = new int[1];
+    private int[] varOf = new int[0];
+    // the constraints of variable v are constraintOf[constraintStart[v]..constraintStart[v+1]-1]
+    private int[] constraintStart = new int[1];
+    private int[] constraintOf = new int[0];
+    // union-find over the constraints (0..nbConstraints-1) and the variables (nbConstraints..)
+    private int[] uf = new int[0];
+    private int[] parentVar = new int[0];
+    private int[] stack = new int[0];
+
+    private int[] order = new int[0];
+    private boolean[] root = new boolean[0];
+    private int size = 0;
+
+    /**
+     * Analyses the factor graph of the constraints.
+     * Constraints whose variables are all bound take no part in it.
+     *
+     * @param constraints the constraints of the solver
+     * @return true if the factor graph is a forest of constraints performing exact weighted counting,
+     * in which case {@link #size()}, {@link #constraint(int)} and {@link #isRoot(int)} give the schedule
+     */
+    boolean build(StateStack<Constraint> constraints) {
+        int nbConstraints = constraints.size();
+        if (varStart.length < nbConstraints + 1) {
+            varStart = new int[nbConstraints + 1];
+            parentVar = new int[nbConstraints];
+            order = new int[nbConstraints];
+            root = new boolean[nbConstraints];
+            stack = new int[nbConstraints];
+        }
+        size = 0;
+        varIndex.clear();
+        int nbVars = 0;
+        int nbEdges = 0;
+        for (int c = 0; c < nbConstraints; c++) {
+            Constraint constraint = constraints.get(c);
+            IntVar[] scope = constraint.getScope();
+            if (varOf.length < nbEdges + scope.length)
+                varOf = Arrays.copyOf(varOf, Math.max(nbEdges + scope.length, 2 * varOf.length));
+            int first = nbEdges;
+            for (IntVar x : scope) {
+                if (!x.isBound()) {
+                    Integer v = varIndex.get(x.getUnderlyingVar());
+                    if (v == null) {
+                        v = nbVars++;
+                        varIndex.put(x.getUnderlyingVar(), v);
+                    }
+                    varOf[nbEdges++] = v;
+                }
+            }
+            if (nbEdges > first && !constraint.isExactWCounting())
+                return false;
+            varStart[c + 1] = nbEdges;
+        }
+
+        // a cycle closes when an edge joins a constraint to a variable already connected to it
+        // (in particular, a variable occurring twice in a scope)
+        if (uf.length < nbConstraints + nbVars)
+            uf = new int[nbConstraints + nbVars];
+        for (int n = 0; n < nbConstraints + nbVars; n++) {
+            uf[n] = n;
+        }
+        for (int c = 0; c < nbConstraints; c++) {
+            for (int e = varStart[c]; e < varStart[c + 1]; e++) {
+                int rc = find(c);
+                int rv = find(nbConstraints + varOf[e]);
+                if (rc == rv)
+                    return false;
+                uf[rc] = rv;
+            }
+        }
+
+        if (constraintStart.length < nbVars + 1)
+            constraintStart = new int[nbVars + 1];
+        if (constraintOf.length < nbEdges)
+            constraintOf = new int[varOf.length];
+        Arrays.fill(constraintStart, 0, nbVars + 1, 0);
+        for (int e = 0; e < nbEdges; e++) {
+            constraintStart[varOf[e] + 1]++;
+        }
+        for (int v = 0; v < nbVars; v++) {
+            constraintStart[v + 1] += constraintStart[v];
+        }
+        // constraintStart[v] is now the end of the constraints of variable v-1, i.e. the start of those of v
+        for (int c = 0; c < nbConstraints; c++) {
+            for (int e = varStart[c]; e < varStart[c + 1]; e++) {
+                constraintOf[constraintStart[varOf[e]]++] = c;
+            }
+        }
+        // constraintStart[v] is now the end of the constraints of variable v
+        for (int v = nbVars; v > 0; v--) {
+            constraintStart[v] = constraintStart[v - 1];
+        }
+        constraintStart[0] = 0;
+        order(nbConstraints);
+        return true;
+    }
+
+    // depth-first traversal of each tree: a constraint is listed before its children
+    // (the constraints sharing one of its variables, other than its parent variable)
+    private void order(int nbConstraints) {
+        for (int c = 0; c < nbConstraints; c++) {
+            parentVar[c] = -2; // not reached yet
+        }
+        for (int r = 0; r < nbConstraints; r++) {
+            if (parentVar[r] != -2 || varStart[r] == varStart[r + 1])
+                continue;
+            parentVar[r] = -1;
+            int top = 0;
+            stack[top++] = r;
+            while (top > 0) {
+                int c = stack[--top];
+                order[size] = c;
+                root[size++] = parentVar[c] == -1;
+                for (int e = varStart[c]; e < varStart[c + 1]; e++) {
+                    int v = varOf[e];
+                    if (v == parentVar[c])
+                        continue;
+                    for (int k = constraintStart[v]; k < constraintStart[v + 1]; k++) {
+                        int d = constraintOf[k];
+                        if (d != c) {
+                            parentVar[d] = v;
+                            stack[top++] = d;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int find(int n) {
+        while (uf[n] != n) {
+            uf[n] = uf[uf[n]];
+            n = uf[n];
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of constraints in the schedule
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param k a position in the schedule
+     * @return the index of the constraint at that position
+     */
+    int constraint(int k) {
+        return order[k];
+    }
+
+    /**
+     * @param k a position in the schedule
+     * @return whether the constraint at that position is the root of its tree
+     */
+    boolean isRoot(int k) {
+        return root[k];
+    }
+}
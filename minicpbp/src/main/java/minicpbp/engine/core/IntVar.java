@@ -259,6 +259,14 @@ public interface IntVar {
      */
     void receiveMessage(int v, double b);
 
+    /**
+     * Returns the variable holding the domain and the marginals of this variable:
+     * itself, or the variable of which it is a view.
+     *
+     * @return the underlying variable
+     */
+    IntVar getUnderlyingVar();
+
     public String getName();
     public void setName(String name);
 }
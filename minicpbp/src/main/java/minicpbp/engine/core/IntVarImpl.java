@@ -282,6 +282,11 @@ public class IntVarImpl implements IntVar {
         domain.setMarginal(v, beliefRep.multiply(domain.marginal(v), b));
     }
 
+    @Override
+    public IntVar getUnderlyingVar() {
+        return this;
+    }
+
     @Override
     public String getName() {
         return this.name;
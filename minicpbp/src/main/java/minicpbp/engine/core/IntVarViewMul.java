@@ -259,6 +259,11 @@ public class IntVarViewMul implements IntVar {
 	}
     }
 
+    @Override
+    public IntVar getUnderlyingVar() {
+        return x.getUnderlyingVar();
+    }
+
     @Override
     public String getName() {
 	if (this.name!=null)
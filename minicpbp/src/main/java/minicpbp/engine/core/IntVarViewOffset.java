@@ -196,6 +196,11 @@ public class IntVarViewOffset implements IntVar {
         x.setMarginal(v - o, beliefRep.multiply(x.marginal(v - o), b));
     }
 
+    @Override
+    public IntVar getUnderlyingVar() {
+        return x.getUnderlyingVar();
+    }
+
     @Override
     public String getName() {
         if (this.name != null)
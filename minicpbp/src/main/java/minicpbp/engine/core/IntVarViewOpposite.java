@@ -189,6 +189,11 @@ public class IntVarViewOpposite implements IntVar {
         x.setMarginal(-v, beliefRep.multiply(x.marginal(-v), b));
     }
 
+    @Override
+    public IntVar getUnderlyingVar() {
+        return x.getUnderlyingVar();
+    }
+
     @Override
     public String getName() {
         if (this.name != null)
@@ -28,15 +28,22 @@ import minicpbp.util.Belief;
 import minicpbp.util.StdBelief;
 
 import java.util.ArrayDeque;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class MiniCP implements Solver {
 
     private Queue<Constraint> propagationQueue = new ArrayDeque<>();
-    private List<Procedure> fixPointListeners = new LinkedList<>();
-    private List<Procedure> beliefPropaListeners = new LinkedList<>();
+    private List<Procedure> fixPointListeners = new ArrayList<>();
+    private List<Procedure> beliefPropaListeners = new ArrayList<>();
 
     private final StateManager sm;
 
@@ -44,27 +51,46 @@ public class MiniCP implements Solver {
     private StateStack<Constraint> constraints;
 
     //******** PARAMETERS ********
+    // (given by the SolverConfig of the solver, see there for their default value)
     // SP  /* support propagation (aka standard constraint propagation) */
     // BP  /* belief propagation */
     // SBP /* first apply support propagation, then belief propagation */
-    private static final PropaMode mode = PropaMode.SBP;
-    // nb of BP iterations performed
-    private static final int beliefPropaMaxIter = 5;
+    private PropaMode mode;
+    // max nb of BP iterations performed (see setBeliefPropaMaxIter)
+    private int beliefPropaMaxIter;
+    // FLOODING /* synchronous schedule of the messages */
+    // RESIDUAL /* asynchronous schedule, updating first the constraint whose incoming messages changed the most */
+    private BPSchedule schedule;
+    // nb of threads computing the messages of the constraints in a flooding BP iteration (see setBeliefPropaParallelism)
+    private int beliefPropaParallelism = 1;
+    private ForkJoinPool beliefPropaPool = null;
+    // BP stops as soon as no marginal changed by more than this tolerance during an iteration;
+    // 0 to always perform beliefPropaMaxIter iterations (see setBeliefPropaTolerance)
+    private double beliefPropaTolerance;
     // apply damping to variable-to-constraint messages
-    private static final boolean damping = false;
+    private final boolean damping;
     // damping factor in interval [0,1] where 1 is equivalent to no damping
-    private static final double dampingFactor = 0.5;
+    private final double dampingFactor;
     // reset marginals, local beliefs, and previous outside belief before applying BP at each search-tree node
-    private static final boolean resetMarginalsBeforeBP = true;
+    private final boolean resetMarginalsBeforeBP;
+    // start BP from the local beliefs reached by the previous BP instead of resetting them (see setWarmStartBP)
+    private boolean warmStartBP;
+    // use the exact two-pass schedule when the factor graph is a forest (see setExactTreeBP)
+    private boolean exactTreeBP;
+    // defer the posting of constraints to fuse them (see setFuseConstraints)
+    private boolean fuseConstraints;
     // take action upon zero/one beliefs: remove/assign the corresponding value
-    private static final boolean actOnZeroOneBelief = false;
+    private final boolean actOnZeroOneBelief;
     // representation of beliefs: either standard (StdBelief: [0..1]) or log (LogBelief: [-infinity..0])
-    private final Belief beliefRep = new StdBelief();
+    private final Belief beliefRep;
     // SAME   /* constraints all have the same weight; = 1.0 (default) */
     // ARITY  /* a constraint's weight is related to its arity; = 1 + arity/total_nb_of_vars */
-    private static final ConstraintWeighingScheme Wscheme = ConstraintWeighingScheme.SAME;
+    private final ConstraintWeighingScheme Wscheme;
     //****************************
 
+    // records the statistics of the constraints when not null (see setProfiler)
+    private Profiler profiler = null;
+
     //***** TRACING SWITCHES *****
     private static final boolean traceBP = false;
     private static final boolean traceSearch = false;
@@ -74,10 +100,67 @@ public class MiniCP implements Solver {
     // for message damping
     private boolean prevOutsideBeliefRecorded = false;
 
+    // nb of iterations performed and residual (largest change of a marginal during the last iteration) of the last BP
+    private int beliefPropaIterations = 0;
+    private int beliefPropaUpdates = 0;
+    private double beliefPropaResidual = 0;
+    private boolean beliefPropaExact = false;
+    // the analysis of the factor graph, for the exact schedule
+    private final FactorForest factorForest = new FactorForest();
+    // the constraints posted, or whose scope changed, since the last BP: a warm start resets their local belief
+    private final List<Constraint> changedConstraints = new ArrayList<>();
+    // for the residual schedule: the occurrences of the variables in the scope of the posted constraints,
+    // and the constraints to update by decreasing residual
+    private final Map<IntVar, Occurrences> occurrences = new IdentityHashMap<>();
+    private final ResidualQueue residualQueue = new ResidualQueue();
+    // the constraints whose posting is deferred to fuse them, in the order they were posted
+    private final List<Constraint> pendingConstraints = new ArrayList<>();
+    private boolean postingPending = false;
+    // marginals of the variables before the current BP iteration, indexed by value - prevMarginalsOfs[i]
+    private double[][] prevMarginals = new double[0][];
+    private int[] prevMarginalsOfs = new int[0];
+
     public MiniCP(StateManager sm) {
+        this(sm, new SolverConfig());
+    }
+
+    public MiniCP(StateManager sm, SolverConfig config) {
         this.sm = sm;
         variables = new StateStack<>(sm);
         constraints = new StateStack<>(sm);
+        mode = config.getMode();
+        beliefPropaMaxIter = config.getBeliefPropaMaxIter();
+        schedule = config.getBeliefPropaSchedule();
+        setBeliefPropaParallelism(config.getBeliefPropaParallelism());
+        beliefPropaTolerance = config.getBeliefPropaTolerance();
+        damping = config.getDamping();
+        dampingFactor = config.getDampingFactor();
+        resetMarginalsBeforeBP = config.getResetMarginalsBeforeBP();
+        warmStartBP = config.getWarmStartBP();
+        exactTreeBP = config.getExactTreeBP();
+        fuseConstraints = config.getFuseConstraints();
+        actOnZeroOneBelief = config.getActOnZeroOneBelief();
+        beliefRep = config.getBeliefRep();
+        Wscheme = config.getWeighingScheme();
+    }
+
+    @Override
+    public SolverConfig getConfig() {
+        return new SolverConfig()
+                .setMode(mode)
+                .setBeliefPropaMaxIter(beliefPropaMaxIter)
+                .setBeliefPropaTolerance(beliefPropaTolerance)
+                .setBeliefPropaSchedule(schedule)
+                .setBeliefPropaParallelism(beliefPropaParallelism)
+                .setDamping(damping)
+                .setDampingFactor(dampingFactor)
+                .setResetMarginalsBeforeBP(resetMarginalsBeforeBP)
+                .setWarmStartBP(warmStartBP)
+                .setExactTreeBP(exactTreeBP)
+                .setFuseConstraints(fuseConstraints)
+                .setActOnZeroOneBelief(actOnZeroOneBelief)
+                .setBeliefRep(beliefRep)
+                .setWeighingScheme(Wscheme);
     }
 
     @Override
@@ -104,6 +187,10 @@ public class MiniCP implements Solver {
         return mode;
     }
 
+    public void setMode(PropaMode mode) {
+        this.mode = mode;
+    }
+
     public ConstraintWeighingScheme getWeighingScheme() {
         return Wscheme;
     }
@@ -124,6 +211,147 @@ public class MiniCP implements Solver {
         return actOnZeroOneBelief;
     }
 
+    public boolean resettingMarginalsBeforeBP() {
+        return resetMarginalsBeforeBP;
+    }
+
+    public int beliefPropaMaxIter() {
+        return beliefPropaMaxIter;
+    }
+
+    public void setBeliefPropaMaxIter(int maxIter) {
+        assert maxIter >= 0 : "The number of BP iterations should be nonnegative";
+        beliefPropaMaxIter = maxIter;
+    }
+
+    public double beliefPropaTolerance() {
+        return beliefPropaTolerance;
+    }
+
+    public void setBeliefPropaTolerance(double tolerance) {
+        assert tolerance >= 0 : "The BP tolerance should be nonnegative";
+        beliefPropaTolerance = tolerance;
+    }
+
+    public BPSchedule beliefPropaSchedule() {
+        return schedule;
+    }
+
+    public void setBeliefPropaSchedule(BPSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    public int beliefPropaParallelism() {
+        return beliefPropaParallelism;
+    }
+
+    public void setBeliefPropaParallelism(int nbThreads) {
+        assert nbThreads > 0 : "The number of BP threads should be positive";
+        if (nbThreads == beliefPropaParallelism)
+            return;
+        if (beliefPropaPool != null)
+            beliefPropaPool.shutdown();
+        beliefPropaParallelism = nbThreads;
+        beliefPropaPool = nbThreads > 1 ? new ForkJoinPool(nbThreads) : null;
+    }
+
+    public int beliefPropaUpdates() {
+        return beliefPropaUpdates;
+    }
+
+    public int beliefPropaIterations() {
+        return beliefPropaIterations;
+    }
+
+    public double beliefPropaResidual() {
+        return beliefPropaResidual;
+    }
+
+    public boolean warmStartBP() {
+        return warmStartBP;
+    }
+
+    public void setWarmStartBP(boolean warmStart) {
+        warmStartBP = warmStart;
+    }
+
+    @Override
+    public void scopeChanged(Constraint c) {
+        if (warmStartBP)
+            changedConstraints.add(c);
+        for (int k = 0; k < constraints.size(); k++) {
+            if (constraints.get(k) == c) {
+                IntVar[] scope = c.getScope();
+                for (int i = 0; i < scope.length; i++) {
+                    occurrences.computeIfAbsent(scope[i].getUnderlyingVar(), v -> new Occurrences())
+                            .addIfAbsent(k, i, c);
+                }
+                return;
+            }
+        }
+    }
+
+    public boolean exactTreeBP() {
+        return exactTreeBP;
+    }
+
+    public void setExactTreeBP(boolean exact) {
+        exactTreeBP = exact;
+    }
+
+    public boolean beliefPropaExact() {
+        return beliefPropaExact;
+    }
+
+    public boolean fuseConstraints() {
+        return fuseConstraints;
+    }
+
+    public void setFuseConstraints(boolean fuse) {
+        if (!fuse)
+            postPendingConstraints();
+        fuseConstraints = fuse;
+    }
+
+    public void postPendingConstraints() {
+        if (pendingConstraints.isEmpty())
+            return;
+        List<Constraint> fused = new ArrayList<>();
+        for (Constraint c : pendingConstraints) {
+            Constraint f = null;
+            int k = 0;
+            for (; k < fused.size() && f == null; k++) {
+                f = fused.get(k).fuse(c);
+            }
+            if (f != null)
+                fused.set(k - 1, f);
+            else
+                fused.add(c);
+        }
+        pendingConstraints.clear();
+        // the constraints posted by those being posted are not deferred
+        postingPending = true;
+        try {
+            for (Constraint c : fused) {
+                post(c, false);
+            }
+        } finally {
+            postingPending = false;
+        }
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint c = constraints.get(i);
+            c.setProfile(profiler == null ? null : profiler.profile(c));
+        }
+    }
+
     public boolean tracingSearch() {
         return traceSearch;
     }
@@ -146,6 +374,7 @@ public class MiniCP implements Solver {
 
     @Override
     public void fixPoint() {
+        postPendingConstraints();
         notifyFixPoint();
         try {
             while (!propagationQueue.isEmpty()) {
@@ -175,9 +404,17 @@ public class MiniCP implements Solver {
      */
     @Override
     public void beliefPropa() {
+        postPendingConstraints();
         notifyBeliefPropa();
         try {
-            if (resetMarginalsBeforeBP) {
+            if (warmStartBP) {
+                // resume from the current local beliefs, except those of the constraints posted,
+                // or whose scope changed, since the previous BP; the marginals are recomputed from them
+                for (int i = 0; i < changedConstraints.size(); i++) {
+                    changedConstraints.get(i).resetLocalBelief();
+                }
+                sendLocalBeliefs();
+            } else if (resetMarginalsBeforeBP) {
                 // start afresh at each search-tree node
                 for (int i = 0; i < variables.size(); i++) {
                     variables.get(i).resetMarginals();
@@ -186,18 +423,57 @@ public class MiniCP implements Solver {
                     constraints.get(i).resetLocalBelief();
                 }
                 prevOutsideBeliefRecorded = false;
+            } else {
+                // the marginals were left by the previous BP, possibly in another subtree,
+                // whereas the local beliefs may have been restored: recompute the marginals from them
+                sendLocalBeliefs();
+            }
+            changedConstraints.clear();
+            // after the reset, which leaves the local beliefs set by the constraints on elimination
+            eliminateBoundVars();
+
+            beliefPropaIterations = 0;
+            beliefPropaUpdates = 0;
+            beliefPropaResidual = 0;
+            if (profiler != null)
+                profiler.beliefPropaStarted();
+            beliefPropaExact = exactTreeBP && !actingOnZeroOneBelief() && factorForest.build(constraints);
+            if (beliefPropaExact) {
+                treeBeliefPropa();
+                if (traceBP) {
+                    System.out.println("##### after exact BP (" + beliefPropaUpdates + " updates) #####");
+                    for (int i = 0; i < variables.size(); i++) {
+                        System.out.println(variables.get(i).getName() + variables.get(i).toString());
+                    }
+                }
+                return;
+            }
+            if (schedule == BPSchedule.RESIDUAL) {
+                residualBeliefPropa();
+                if (traceBP) {
+                    System.out.println("##### after " + beliefPropaUpdates + " BP updates (residual " + beliefPropaResidual + ") #####");
+                    for (int i = 0; i < variables.size(); i++) {
+                        System.out.println(variables.get(i).getName() + variables.get(i).toString());
+                    }
+                }
+                return;
             }
-
             for (int iter = 1; iter <= beliefPropaMaxIter; iter++) {
-                BPiteration();
+                beliefPropaResidual = BPiteration();
+                beliefPropaIterations = iter;
+                beliefPropaUpdates += constraints.size();
+                if (profiler != null)
+                    profiler.beliefPropaIteration(iter, beliefPropaResidual);
                 if (dampingMessages())
                     prevOutsideBeliefRecorded = true;
                 if (traceBP) {
-                    System.out.println("##### after BP iteration " + iter + " #####");
+                    System.out.println("##### after BP iteration " + iter + " (residual " + beliefPropaResidual + ") #####");
                     for (int i = 0; i < variables.size(); i++) {
                         System.out.println(variables.get(i).getName() + variables.get(i).toString());
                     }
                 }
+                if (beliefPropaResidual < beliefPropaTolerance)
+                    break;
             }
 
         } catch (InconsistencyException e) {
@@ -208,6 +484,157 @@ public class MiniCP implements Solver {
         }
     }
 
+    @Override
+    public void eliminateBoundVars() {
+        for (int i = 0; i < constraints.size(); i++) {
+            constraints.get(i).eliminateBoundVars();
+        }
+    }
+
+    /**
+     * Recomputes the marginals from the current local beliefs of the constraints
+     */
+    private void sendLocalBeliefs() {
+        for (int i = 0; i < variables.size(); i++) {
+            variables.get(i).resetMarginals();
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            constraints.get(i).sendLocalBelief();
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            variables.get(i).normalizeMarginals();
+        }
+    }
+
+    /**
+     * Exact Belief Propagation on a forest (see FactorForest)
+     * the constraints are updated one at a time as in residual BP, first from the leaves to the roots:
+     * each one then collects the final messages of its children and sends its final message to its parent variable;
+     * then from the roots to the leaves, each one collecting the final message of its parent variable
+     * and sending its final messages to its children
+     */
+    private void treeBeliefPropa() {
+        prevOutsideBeliefRecorded = false; // exact messages need no damping
+        for (int k = factorForest.size() - 1; k >= 0; k--) {
+            Constraint c = constraints.get(factorForest.constraint(k));
+            c.receiveMessages();
+            c.replaceMessages();
+            beliefPropaUpdates++;
+        }
+        for (int k = 0; k < factorForest.size(); k++) {
+            if (!factorForest.isRoot(k)) { // a root was updated last, with its final messages
+                Constraint c = constraints.get(factorForest.constraint(k));
+                c.receiveMessages();
+                c.replaceMessages();
+                beliefPropaUpdates++;
+            }
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            variables.get(i).normalizeMarginals(); // those in no constraint were only reset
+        }
+        beliefPropaIterations = 1;
+        beliefPropaResidual = 0; // another iteration would not change the marginals
+        if (profiler != null)
+            profiler.beliefPropaIteration(1, 0);
+    }
+
+    /**
+     * Residual Belief Propagation
+     * asynchronous version, updating one constraint at a time: the one whose incoming messages
+     * changed the most since it last collected them (similarly to the propagation queue of the fix-point),
+     * the marginals of the variables in its scope being updated right away
+     */
+    private void residualBeliefPropa() {
+        int nbConstraints = constraints.size();
+        if (!warmStartBP) {
+            // the local beliefs were reset: a first iteration gives every constraint its messages
+            double r = BPiteration();
+            beliefPropaUpdates = nbConstraints;
+            if (profiler != null)
+                profiler.beliefPropaIteration(1, r);
+        }
+
+        residualQueue.clear(nbConstraints);
+        for (int c = 0; c < nbConstraints; c++) {
+            residualQueue.raise(c, constraints.get(c).pendingResidual());
+        }
+
+        int maxUpdates = beliefPropaMaxIter * nbConstraints;
+        double maxResidual = residualQueue.maxResidual();
+        while (beliefPropaUpdates < maxUpdates) {
+            if (maxResidual < beliefPropaTolerance || maxResidual == 0)
+                break;
+            int c = residualQueue.remove();
+            Constraint constraint = constraints.get(c);
+            constraint.receiveMessages();
+            constraint.replaceMessages();
+            beliefPropaUpdates++;
+            for (IntVar x : constraint.getScope()) {
+                IntVar var = x.getUnderlyingVar();
+                Occurrences occ = occurrences.get(var);
+                for (int k = 0; k < occ.size; k++) {
+                    int d = occ.constraint[k];
+                    if (d != c && occ.isCurrent(k, constraints, var))
+                        residualQueue.raise(d, constraints.get(d).pendingResidual(occ.position[k]));
+                }
+            }
+            maxResidual = residualQueue.maxResidual();
+            if (profiler != null && beliefPropaUpdates % nbConstraints == 0)
+                profiler.beliefPropaIteration(beliefPropaUpdates / nbConstraints, maxResidual);
+        }
+        beliefPropaResidual = maxResidual;
+        beliefPropaIterations = (beliefPropaUpdates + nbConstraints - 1) / Math.max(nbConstraints, 1);
+    }
+
+    /**
+     * The occurrences of a variable, and of the views on it (which share its marginals), in the scope of the posted
+     * constraints, as constraint index and position in its scope.
+     * Those of the constraints no longer posted are dropped when a constraint is posted in their place,
+     * and otherwise skipped: an occurrence is current if the constraint at its index is still the one it was made for
+     * and the variable is still at its position in the scope.
+     */
+    private static final class Occurrences {
+        int size = 0;
+        int[] constraint = new int[2];
+        int[] position = new int[2];
+        Constraint[] posted = new Constraint[2];
+
+        // the occurrence of a constraint posted at index c, past all the current ones
+        void add(int c, int i, Constraint con) {
+            while (size > 0 && constraint[size - 1] >= c && posted[size - 1] != con) {
+                size--;
+            }
+            append(c, i, con);
+        }
+
+        // the occurrence of a constraint at index c whose scope changed, unless it is already there
+        void addIfAbsent(int c, int i, Constraint con) {
+            for (int k = 0; k < size; k++) {
+                if (constraint[k] == c && position[k] == i && posted[k] == con)
+                    return;
+            }
+            append(c, i, con);
+        }
+
+        private void append(int c, int i, Constraint con) {
+            if (size == constraint.length) {
+                constraint = Arrays.copyOf(constraint, 2 * size);
+                position = Arrays.copyOf(position, 2 * size);
+                posted = Arrays.copyOf(posted, 2 * size);
+            }
+            constraint[size] = c;
+            position[size] = i;
+            posted[size] = con;
+            size++;
+        }
+
+        boolean isCurrent(int k, StateStack<Constraint> constraints, IntVar x) {
+            int d = constraint[k];
+            return d < constraints.size() && constraints.get(d) == posted[k]
+                    && posted[k].getScope()[position[k]].getUnderlyingVar() == x;
+        }
+    }
+
     /**
      * Propagate following the right mode
      */
@@ -229,26 +656,90 @@ public class MiniCP implements Solver {
     /**
      * a single iteration of Belief Propagation:
      * from variables to constraints, and then from constraints to variables
+     *
+     * @return the largest change of a marginal
      */
-    private void BPiteration() {
-        for (int i = 0; i < constraints.size(); i++) {
-            constraints.get(i).receiveMessages();
+    private double BPiteration() {
+        boolean parallel = beliefPropaPool != null && !actingOnZeroOneBelief();
+        if (parallel)
+            inParallel(c -> c.receiveMessages());
+        else {
+            for (int i = 0; i < constraints.size(); i++) {
+                constraints.get(i).receiveMessages();
+            }
         }
+        recordMarginals();
         for (int i = 0; i < variables.size(); i++) {
             variables.get(i).resetMarginals(); // prepare to receive all the messages from constraints
         }
-        for (int i = 0; i < constraints.size(); i++) {
-            constraints.get(i).sendMessages();
+        if (parallel) {
+            inParallel(c -> c.computeLocalBelief());
+            // deterministic: the marginals accumulate the messages in the same order as sequentially
+            for (int i = 0; i < constraints.size(); i++) {
+                constraints.get(i).sendLocalBelief();
+            }
+        } else {
+            for (int i = 0; i < constraints.size(); i++) {
+                constraints.get(i).sendMessages();
+            }
         }
         for (int i = 0; i < variables.size(); i++) {
             variables.get(i).normalizeMarginals();
         }
+        return marginalsResidual();
+    }
+
+    /**
+     * Applies an action to every constraint, on the threads of the BP pool
+     */
+    private void inParallel(Consumer<Constraint> action) {
+        beliefPropaPool.invoke(ForkJoinTask.adapt(() ->
+                IntStream.range(0, constraints.size()).parallel().forEach(i -> action.accept(constraints.get(i)))));
+    }
+
+    private void recordMarginals() {
+        if (prevMarginals.length < variables.size()) {
+            prevMarginals = Arrays.copyOf(prevMarginals, variables.size());
+            prevMarginalsOfs = Arrays.copyOf(prevMarginalsOfs, variables.size());
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            IntVar x = variables.get(i);
+            if (prevMarginals[i] == null || prevMarginals[i].length < x.max() - x.min() + 1)
+                prevMarginals[i] = new double[x.max() - x.min() + 1];
+            prevMarginalsOfs[i] = x.min();
+            for (int v = x.min(); v <= x.max(); v++) {
+                if (x.contains(v))
+                    prevMarginals[i][v - x.min()] = x.marginal(v);
+            }
+        }
+    }
+
+    /**
+     * @return the largest change of a marginal since recordMarginals()
+     * (the domains can only have shrunk in between)
+     */
+    private double marginalsResidual() {
+        double residual = 0;
+        for (int i = 0; i < variables.size(); i++) {
+            IntVar x = variables.get(i);
+            for (int v = x.min(); v <= x.max(); v++) {
+                if (x.contains(v)) {
+                    double prev = beliefRep.rep2std(prevMarginals[i][v - prevMarginalsOfs[i]]);
+                    residual = Math.max(residual, Math.abs(beliefRep.rep2std(x.marginal(v)) - prev));
+                }
+            }
+        }
+        return residual;
     }
 
     private void propagate(Constraint c) {
         c.setScheduled(false);
-        if (c.isActive())
-            c.propagate();
+        if (c.isActive()) {
+            if (profiler == null)
+                c.propagate();
+            else
+                profiler.propagate(c);
+        }
     }
 
     @Override
@@ -269,7 +760,22 @@ public class MiniCP implements Solver {
 
     @Override
     public void post(Constraint c, boolean enforcePropagation) {
+        if (fuseConstraints && !postingPending) {
+            pendingConstraints.add(c);
+            if (enforcePropagation)
+                propagateSolver();
+            return;
+        }
         constraints.push(c);
+        IntVar[] scope = c.getScope();
+        for (int i = 0; i < scope.length; i++) {
+            occurrences.computeIfAbsent(scope[i].getUnderlyingVar(), k -> new Occurrences())
+                    .add(constraints.size() - 1, i, c);
+        }
+        if (warmStartBP)
+            changedConstraints.add(c);
+        if (profiler != null)
+            c.setProfile(profiler.profile(c));
         c.post();
         if (enforcePropagation) {
             this.propagateSolver();
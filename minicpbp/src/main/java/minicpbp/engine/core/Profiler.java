@@ -0,0 +1,212 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+import minicpbp.util.exception.InconsistencyException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records, for each constraint of a solver, its propagation and belief propagation statistics
+ * (see {@link ConstraintProfile}), as well as the residuals of the iterations of belief propagation.
+ * The constraints with the same name and class share their statistics,
+ * e.g. the branching constraints posted at every search-tree node.
+ * <p>
+ * Profiling is enabled with {@link Solver#setProfiler(Profiler)}, and costs nothing once disabled.
+ * The statistics can also be recorded as JDK Flight Recorder events
+ * (minicpbp.Propagate, minicpbp.UpdateBelief and minicpbp.BeliefPropaIteration),
+ * committed when a recording with these events enabled is running.
+ */
+public class Profiler {
+
+    private final ProfilerEvents jfrEvents; // null if the events are not recorded
+    private final Map<List<Object>, ConstraintProfile> profiles = new LinkedHashMap<>();
+
+    private int beliefPropaCount = 0;
+    // sum and number of the residuals of the k-th iterations of all the BPs, at index k-1
+    private double[] residualSum = new double[0];
+    private long[] residualCount = new long[0];
+    // residuals of the iterations of the last BP
+    private double[] lastResiduals = new double[0];
+    private int lastIterations = 0;
+
+    /**
+     * Creates a profiler that does not record JDK Flight Recorder events.
+     */
+    public Profiler() {
+        this(false);
+    }
+
+    /**
+     * Creates a profiler.
+     *
+     * @param jfrEvents whether to also record the statistics as JDK Flight Recorder events
+     *                  (which requires a JVM with the jdk.jfr module and the sources compiled on JDK 11 or later)
+     * @throws UnsupportedOperationException if the events are requested but not available
+     */
+    public Profiler(boolean jfrEvents) {
+        this.jfrEvents = jfrEvents ? ProfilerEvents.load() : null;
+        if (jfrEvents && this.jfrEvents == null)
+            throw new UnsupportedOperationException("JDK Flight Recorder events are not available");
+    }
+
+    public boolean recordingJfrEvents() {
+        return jfrEvents != null;
+    }
+
+    /**
+     * @return the profiles of the constraints, in the order in which they were first profiled
+     */
+    public List<ConstraintProfile> constraintProfiles() {
+        return new ArrayList<>(profiles.values());
+    }
+
+    /**
+     * @return the profiles of the constraints, by decreasing time spent in propagation and in updating their belief
+     */
+    public List<ConstraintProfile> constraintProfilesByTime() {
+        List<ConstraintProfile> l = constraintProfiles();
+        l.sort(Comparator.comparingLong(ConstraintProfile::totalTime).reversed());
+        return l;
+    }
+
+    /**
+     * @return the profile of the constraints with the given name and class, or null if none was profiled
+     */
+    public ConstraintProfile constraintProfile(String name, Class<?> constraintClass) {
+        return profiles.get(Arrays.asList(constraintClass, name));
+    }
+
+    /**
+     * @return the number of belief propagations performed
+     */
+    public int beliefPropaCount() {
+        return beliefPropaCount;
+    }
+
+    /**
+     * @return the number of iterations of the last belief propagation
+     */
+    public int lastBeliefPropaIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * @param iter an iteration, from 1 to {@link #lastBeliefPropaIterations()}
+     * @return the residual (largest change of a marginal) of this iteration of the last belief propagation
+     */
+    public double lastBeliefPropaResidual(int iter) {
+        assert iter >= 1 && iter <= lastIterations;
+        return lastResiduals[iter - 1];
+    }
+
+    /**
+     * @param iter an iteration, from 1
+     * @return the number of belief propagations that performed this iteration
+     */
+    public long beliefPropaIterationCount(int iter) {
+        return iter <= residualCount.length ? residualCount[iter - 1] : 0;
+    }
+
+    /**
+     * @param iter an iteration, from 1
+     * @return the mean residual of this iteration over the belief propagations that performed it (0 if none)
+     */
+    public double meanBeliefPropaResidual(int iter) {
+        long count = beliefPropaIterationCount(iter);
+        return count == 0 ? 0 : residualSum[iter - 1] / count;
+    }
+
+    /**
+     * Resets all the statistics.
+     */
+    public void reset() {
+        profiles.values().forEach(ConstraintProfile::reset);
+        beliefPropaCount = 0;
+        Arrays.fill(residualSum, 0);
+        Arrays.fill(residualCount, 0);
+        lastIterations = 0;
+    }
+
+    ConstraintProfile profile(Constraint c) {
+        return profiles.computeIfAbsent(Arrays.asList(c.getClass(), c.getName()), k -> new ConstraintProfile(c, jfrEvents));
+    }
+
+    void propagate(Constraint c) {
+        ConstraintProfile p = c.getProfile();
+        IntVar[] scope = c.getScope();
+        long size = domainSizes(scope);
+        long start = System.nanoTime();
+        try {
+            c.propagate();
+        } catch (InconsistencyException e) {
+            p.propagated(System.nanoTime() - start, size - domainSizes(scope), true);
+            throw e;
+        }
+        p.propagated(System.nanoTime() - start, size - domainSizes(scope), false);
+    }
+
+    private static long domainSizes(IntVar[] scope) {
+        long size = 0;
+        for (IntVar x : scope) {
+            size += x.size();
+        }
+        return size;
+    }
+
+    void beliefPropaStarted() {
+        beliefPropaCount++;
+        lastIterations = 0;
+    }
+
+    void beliefPropaIteration(int iter, double residual) {
+        if (iter > residualSum.length) {
+            residualSum = Arrays.copyOf(residualSum, Math.max(iter, 2 * residualSum.length));
+            residualCount = Arrays.copyOf(residualCount, residualSum.length);
+            lastResiduals = Arrays.copyOf(lastResiduals, residualSum.length);
+        }
+        residualSum[iter - 1] += residual;
+        residualCount[iter - 1]++;
+        lastResiduals[iter - 1] = residual;
+        lastIterations = iter;
+        if (jfrEvents != null)
+            jfrEvents.beliefPropaIteration(iter, residual);
+    }
+
+    /**
+     * @return a report of the statistics, the most time-consuming constraints first
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (ConstraintProfile p : constraintProfilesByTime()) {
+            b.append(p).append('\n');
+        }
+        b.append(beliefPropaCount).append(" belief propagations; mean residual per iteration:");
+        for (int iter = 1; beliefPropaIterationCount(iter) > 0; iter++) {
+            b.append(' ').append(meanBeliefPropaResidual(iter));
+        }
+        return b.append('\n').toString();
+    }
+}
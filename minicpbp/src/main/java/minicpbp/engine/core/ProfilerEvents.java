@@ -0,0 +1,45 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+/**
+ * The JDK Flight Recorder events of a {@link Profiler}.
+ * The events themselves are in a class compiled on JDK 11 or later only,
+ * the sources being compiled for Java 8.
+ */
+abstract class ProfilerEvents {
+
+    /**
+     * @return the events, or null if they are not available
+     * (sources compiled on JDK 8, or JVM without the jdk.jfr module)
+     */
+    static ProfilerEvents load() {
+        try {
+            return (ProfilerEvents) Class.forName("minicpbp.engine.core.JfrProfilerEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    abstract void propagate(String constraint, Class<?> constraintClass, long time, long removedValues, boolean failed);
+
+    abstract void updateBelief(String constraint, Class<?> constraintClass, long time);
+
+    abstract void beliefPropaIteration(int iteration, double residual);
+}
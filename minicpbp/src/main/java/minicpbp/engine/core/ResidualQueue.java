@@ -0,0 +1,122 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+
+package minicpbp.engine.core;
+
+import java.util.Arrays;
+
+/**
+ * The pending residuals of the constraints of a residual BP (see {@link Solver.BPSchedule#RESIDUAL}),
+ * in an indexed binary heap giving the constraint with the largest one.
+ * Its arrays are kept from one BP to the next, so that it allocates nothing once large enough.
+ */
+final class ResidualQueue {
+
+    private double[] residual = new double[0]; // residual[c] = pending residual of constraint c, 0 if not queued
+    private int[] heap = new int[0]; // the queued constraints, heap[0] having the largest residual
+    private int[] position = new int[0]; // position[c] = index of constraint c in heap, -1 if not queued
+    private int size = 0;
+
+    /**
+     * Empties the queue, for constraints 0 to nbConstraints-1.
+     */
+    void clear(int nbConstraints) {
+        for (int k = 0; k < size; k++) {
+            residual[heap[k]] = 0;
+            position[heap[k]] = -1;
+        }
+        size = 0;
+        if (residual.length < nbConstraints) {
+            int capacity = Math.max(nbConstraints, 2 * residual.length);
+            residual = new double[capacity];
+            heap = new int[capacity];
+            position = new int[capacity];
+            Arrays.fill(position, -1);
+        }
+    }
+
+    /**
+     * @return the largest pending residual, 0 if the queue is empty
+     */
+    double maxResidual() {
+        return size == 0 ? 0 : residual[heap[0]];
+    }
+
+    /**
+     * Raises the pending residual of a constraint, queuing it if needed.
+     */
+    void raise(int c, double r) {
+        if (r <= residual[c] || r == 0)
+            return;
+        residual[c] = r;
+        if (position[c] < 0) {
+            position[c] = size;
+            heap[size++] = c;
+        }
+        siftUp(position[c]);
+    }
+
+    /**
+     * Removes the constraint with the largest pending residual.
+     *
+     * @return the constraint
+     */
+    int remove() {
+        int c = heap[0];
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        residual[c] = 0;
+        position[c] = -1;
+        return c;
+    }
+
+    private void siftUp(int k) {
+        int c = heap[k];
+        while (k > 0) {
+            int parent = (k - 1) / 2;
+            if (residual[heap[parent]] >= residual[c])
+                break;
+            heap[k] = heap[parent];
+            position[heap[k]] = k;
+            k = parent;
+        }
+        heap[k] = c;
+        position[c] = k;
+    }
+
+    private void siftDown(int k) {
+        int c = heap[k];
+        while (2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if (child + 1 < size && residual[heap[child + 1]] > residual[heap[child]])
+                child++;
+            if (residual[heap[child]] <= residual[c])
+                break;
+            heap[k] = heap[child];
+            position[heap[k]] = k;
+            k = child;
+        }
+        heap[k] = c;
+        position[c] = k;
+    }
+}
@@ -32,6 +32,11 @@ public interface Solver {
         SBP /* first apply support propagation, then belief propagation, and finally support propagation again if belief propagation may have assigned or removed domain values */
     } 
 
+    public enum BPSchedule {
+	FLOODING /* synchronous: every constraint receives then sends its messages at each iteration (default) */,
+	RESIDUAL /* asynchronous: the constraint whose incoming messages changed the most is updated first */
+    } 
+
     public enum ConstraintWeighingScheme {
 	SAME   /* constraints all have the same weight; = 1.0 (default) */,
 	ARITY  /* a constraint's weight is related to its arity; = 1 + arity/total_nb_of_vars */
@@ -64,11 +69,26 @@ public interface Solver {
      */
     void post(Constraint c, boolean enforcePropagation);
 
+    /**
+     * Returns the parameters of the solver, as they currently are
+     * (the returned configuration is a copy: modifying it does not affect the solver).
+     *
+     * @return the configuration of the solver
+     */
+    SolverConfig getConfig();
+
     /**
      * @return the propagation mode
      */
     PropaMode getMode();
 
+    /**
+     * Sets the propagation mode, used by {@link #propagateSolver()}.
+     *
+     * @param mode the propagation mode (default SBP)
+     */
+    void setMode(PropaMode mode);
+
     /**
      * @return the constraint weighing scheme
      */
@@ -94,6 +114,164 @@ public interface Solver {
      */
     boolean actingOnZeroOneBelief();
 
+    /**
+     * @return whether the marginals and local beliefs are reset before each belief propagation
+     * that does not start warm
+     */
+    boolean resettingMarginalsBeforeBP();
+
+    /**
+     * @return the maximum number of iterations of belief propagation
+     */
+    int beliefPropaMaxIter();
+
+    /**
+     * Sets the maximum number of iterations of belief propagation.
+     *
+     * @param maxIter a nonnegative number of iterations (default 5)
+     */
+    void setBeliefPropaMaxIter(int maxIter);
+
+    /**
+     * @return the tolerance under which belief propagation is considered converged
+     */
+    double beliefPropaTolerance();
+
+    /**
+     * Sets the tolerance of belief propagation: it stops, before its maximum number of iterations,
+     * after an iteration that changed no marginal by more than the tolerance.
+     *
+     * @param tolerance a nonnegative tolerance; 0 (default) to always perform the maximum number of iterations
+     */
+    void setBeliefPropaTolerance(double tolerance);
+
+    /**
+     * @return the schedule of the messages in belief propagation
+     */
+    BPSchedule beliefPropaSchedule();
+
+    /**
+     * Sets the schedule of the messages in belief propagation.
+     * With the residual schedule, an iteration stands for as many constraint updates as there are constraints,
+     * the tolerance applies to the change of the messages received by a constraint,
+     * and message damping is not supported.
+     *
+     * @param schedule the schedule (default FLOODING)
+     */
+    void setBeliefPropaSchedule(BPSchedule schedule);
+
+    /**
+     * @return the number of threads computing the messages of the constraints in belief propagation
+     */
+    int beliefPropaParallelism();
+
+    /**
+     * Sets the number of threads computing the messages of the constraints in belief propagation.
+     * With several threads, each iteration of the flooding schedule collects the messages
+     * and computes the local beliefs of the constraints in parallel; the local beliefs are then sent
+     * to the variables in the order of the constraints, which gives the same marginals as with a single thread.
+     * Not used by the residual schedule nor when acting on zero/one beliefs.
+     *
+     * @param nbThreads a positive number of threads (default 1)
+     */
+    void setBeliefPropaParallelism(int nbThreads);
+
+    /**
+     * @return the number of iterations performed by the last belief propagation
+     */
+    int beliefPropaIterations();
+
+    /**
+     * @return the number of constraint updates (local belief computations) performed by the last belief propagation
+     */
+    int beliefPropaUpdates();
+
+    /**
+     * @return the residual of the last belief propagation, that is the largest change of a marginal
+     * during its last iteration
+     */
+    double beliefPropaResidual();
+
+    /**
+     * @return whether belief propagation starts from the local beliefs reached by the previous one
+     */
+    boolean warmStartBP();
+
+    /**
+     * Sets whether belief propagation starts from the local beliefs reached by the previous one
+     * (at the current search-tree node or at an ancestor) instead of uniform messages.
+     * Constraints posted since, and those whose scope changed since (see {@link #scopeChanged(Constraint)}),
+     * start from uniform beliefs.
+     *
+     * @param warmStart true for a warm start, false to start afresh (default)
+     */
+    void setWarmStartBP(boolean warmStart);
+
+    /**
+     * Notifies that a variable of the scope of a posted constraint was replaced,
+     * so that its local belief starts afresh at the next belief propagation with a warm start.
+     * Called by the constraint, not intended to be called by the user.
+     *
+     * @param c the constraint
+     */
+    void scopeChanged(Constraint c);
+
+    /**
+     * @return whether belief propagation is made exact when the factor graph is a forest
+     */
+    boolean exactTreeBP();
+
+    /**
+     * Sets whether belief propagation first analyses the factor graph, between the constraints
+     * and the unbound variables in their scope: if it is a forest of constraints performing exact weighted counting,
+     * the marginals are computed exactly by updating the constraints once from the leaves to the roots,
+     * then once from the roots to the leaves (which counts as a single iteration); otherwise the schedule applies.
+     * Not used when acting on zero/one beliefs.
+     *
+     * @param exact true to detect forests, false to always follow the schedule (default)
+     */
+    void setExactTreeBP(boolean exact);
+
+    /**
+     * @return whether the last belief propagation was exact, its factor graph being a forest
+     * (see {@link #setExactTreeBP(boolean)})
+     */
+    boolean beliefPropaExact();
+
+    /**
+     * @return whether the constraints posted are fused
+     */
+    boolean fuseConstraints();
+
+    /**
+     * Sets whether the constraints posted are fused: their posting is deferred until the next fix-point
+     * or belief propagation (or {@link #postPendingConstraints()}), when each one is fused into the first
+     * pending constraint it can be fused with (see {@link Constraint#fuse(Constraint)}), e.g. the among constraints
+     * on the same variables into a single counting constraint (see {@link minicpbp.cp.Factory#among(IntVar[], int[][], IntVar[])}).
+     * An inconsistency found by posting them is then only thrown at that point.
+     *
+     * @param fuse true to fuse the constraints, false to post them at once (default)
+     */
+    void setFuseConstraints(boolean fuse);
+
+    /**
+     * Fuses and posts the constraints whose posting was deferred (see {@link #setFuseConstraints(boolean)}).
+     */
+    void postPendingConstraints();
+
+    /**
+     * @return the profiler recording the statistics of the constraints, or null if they are not profiled
+     */
+    Profiler getProfiler();
+
+    /**
+     * Sets the profiler recording the propagation and belief propagation statistics of the constraints,
+     * those already posted as well as those posted afterwards, and the residuals of belief propagation.
+     *
+     * @param profiler the profiler, or null (default) to stop profiling
+     */
+    void setProfiler(Profiler profiler);
+
     /**
      * @return whether search should be traced
      */
@@ -105,10 +283,17 @@ public interface Solver {
     void fixPoint();
 
     /**
-     * Performs belief propagation with all the posted constraints.
+     * Performs belief propagation with all the posted constraints,
+     * after eliminating the bound variables from them (see {@link #eliminateBoundVars()}).
      */
     void beliefPropa();
 
+    /**
+     * Eliminates the bound variables from the scope of the constraints for belief propagation,
+     * the constraints folding them into their own state (see {@link Constraint#eliminateBoundVars()}).
+     */
+    void eliminateBoundVars();
+
     /**
      * Propagate following the right mode (fixpoint and/or belief)
      */
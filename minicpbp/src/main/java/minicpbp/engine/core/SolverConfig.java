@@ -0,0 +1,274 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+import minicpbp.engine.core.Solver.BPSchedule;
+import minicpbp.engine.core.Solver.ConstraintWeighingScheme;
+import minicpbp.engine.core.Solver.PropaMode;
+import minicpbp.util.Belief;
+import minicpbp.util.StdBelief;
+
+/**
+ * The parameters of a solver, given when it is created (see {@link minicpbp.cp.Factory#makeSolver(SolverConfig)}).
+ * The setters return the configuration, so that they can be chained:
+ * <pre>
+ * {@code
+ *  Solver cp = Factory.makeSolver(new SolverConfig().setBeliefPropaMaxIter(10).setDamping(true));
+ * }
+ * </pre>
+ * The default values are those of a solver created without configuration.
+ */
+public class SolverConfig {
+
+    private PropaMode mode = PropaMode.SBP;
+    private int beliefPropaMaxIter = 5;
+    private double beliefPropaTolerance = 0;
+    private BPSchedule schedule = BPSchedule.FLOODING;
+    private int beliefPropaParallelism = 1;
+    private boolean damping = false;
+    private double dampingFactor = 0.5;
+    private boolean resetMarginalsBeforeBP = true;
+    private boolean warmStartBP = false;
+    private boolean exactTreeBP = false;
+    private boolean fuseConstraints = false;
+    private boolean actOnZeroOneBelief = false;
+    private Belief beliefRep = new StdBelief();
+    private ConstraintWeighingScheme weighingScheme = ConstraintWeighingScheme.SAME;
+
+    public SolverConfig() {
+    }
+
+    /**
+     * @return a copy of the configuration
+     */
+    public SolverConfig copy() {
+        return new SolverConfig()
+                .setMode(mode)
+                .setBeliefPropaMaxIter(beliefPropaMaxIter)
+                .setBeliefPropaTolerance(beliefPropaTolerance)
+                .setBeliefPropaSchedule(schedule)
+                .setBeliefPropaParallelism(beliefPropaParallelism)
+                .setDamping(damping)
+                .setDampingFactor(dampingFactor)
+                .setResetMarginalsBeforeBP(resetMarginalsBeforeBP)
+                .setWarmStartBP(warmStartBP)
+                .setExactTreeBP(exactTreeBP)
+                .setFuseConstraints(fuseConstraints)
+                .setActOnZeroOneBelief(actOnZeroOneBelief)
+                .setBeliefRep(beliefRep)
+                .setWeighingScheme(weighingScheme);
+    }
+
+    public PropaMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode the propagation mode (default SBP)
+     */
+    public SolverConfig setMode(PropaMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getBeliefPropaMaxIter() {
+        return beliefPropaMaxIter;
+    }
+
+    /**
+     * @param maxIter the maximum number of iterations of belief propagation (default 5)
+     * @see Solver#setBeliefPropaMaxIter(int)
+     */
+    public SolverConfig setBeliefPropaMaxIter(int maxIter) {
+        assert maxIter >= 0 : "The number of BP iterations should be nonnegative";
+        beliefPropaMaxIter = maxIter;
+        return this;
+    }
+
+    public double getBeliefPropaTolerance() {
+        return beliefPropaTolerance;
+    }
+
+    /**
+     * @param tolerance the tolerance of belief propagation (default 0)
+     * @see Solver#setBeliefPropaTolerance(double)
+     */
+    public SolverConfig setBeliefPropaTolerance(double tolerance) {
+        assert tolerance >= 0 : "The BP tolerance should be nonnegative";
+        beliefPropaTolerance = tolerance;
+        return this;
+    }
+
+    public BPSchedule getBeliefPropaSchedule() {
+        return schedule;
+    }
+
+    /**
+     * @param schedule the schedule of the messages in belief propagation (default FLOODING)
+     * @see Solver#setBeliefPropaSchedule(BPSchedule)
+     */
+    public SolverConfig setBeliefPropaSchedule(BPSchedule schedule) {
+        this.schedule = schedule;
+        return this;
+    }
+
+    public int getBeliefPropaParallelism() {
+        return beliefPropaParallelism;
+    }
+
+    /**
+     * @param nbThreads the number of threads computing the messages in belief propagation (default 1)
+     * @see Solver#setBeliefPropaParallelism(int)
+     */
+    public SolverConfig setBeliefPropaParallelism(int nbThreads) {
+        assert nbThreads > 0 : "The number of BP threads should be positive";
+        beliefPropaParallelism = nbThreads;
+        return this;
+    }
+
+    public boolean getDamping() {
+        return damping;
+    }
+
+    /**
+     * @param damping whether to apply damping to variable-to-constraint messages (default false)
+     */
+    public SolverConfig setDamping(boolean damping) {
+        this.damping = damping;
+        return this;
+    }
+
+    public double getDampingFactor() {
+        return dampingFactor;
+    }
+
+    /**
+     * @param dampingFactor the damping factor in interval [0,1], where 1 is equivalent to no damping (default 0.5)
+     */
+    public SolverConfig setDampingFactor(double dampingFactor) {
+        assert dampingFactor >= 0 && dampingFactor <= 1 : "The damping factor should be in [0,1]";
+        this.dampingFactor = dampingFactor;
+        return this;
+    }
+
+    public boolean getResetMarginalsBeforeBP() {
+        return resetMarginalsBeforeBP;
+    }
+
+    /**
+     * @param reset whether to reset the marginals, local beliefs and previous outside beliefs
+     *              before each belief propagation, unless it starts warm (default true)
+     */
+    public SolverConfig setResetMarginalsBeforeBP(boolean reset) {
+        resetMarginalsBeforeBP = reset;
+        return this;
+    }
+
+    public boolean getWarmStartBP() {
+        return warmStartBP;
+    }
+
+    /**
+     * @param warmStart whether belief propagation starts from the local beliefs reached by the previous one (default false)
+     * @see Solver#setWarmStartBP(boolean)
+     */
+    public SolverConfig setWarmStartBP(boolean warmStart) {
+        warmStartBP = warmStart;
+        return this;
+    }
+
+    public boolean getExactTreeBP() {
+        return exactTreeBP;
+    }
+
+    /**
+     * @param exact whether belief propagation is made exact when the factor graph is a forest (default false)
+     * @see Solver#setExactTreeBP(boolean)
+     */
+    public SolverConfig setExactTreeBP(boolean exact) {
+        exactTreeBP = exact;
+        return this;
+    }
+
+    public boolean getFuseConstraints() {
+        return fuseConstraints;
+    }
+
+    /**
+     * @param fuse whether the constraints posted are fused, e.g. the among constraints on the same variables (default false)
+     * @see Solver#setFuseConstraints(boolean)
+     */
+    public SolverConfig setFuseConstraints(boolean fuse) {
+        fuseConstraints = fuse;
+        return this;
+    }
+
+    public boolean getActOnZeroOneBelief() {
+        return actOnZeroOneBelief;
+    }
+
+    /**
+     * @param act whether to remove/assign the values with a zero/one belief (default false)
+     */
+    public SolverConfig setActOnZeroOneBelief(boolean act) {
+        actOnZeroOneBelief = act;
+        return this;
+    }
+
+    public Belief getBeliefRep() {
+        return beliefRep;
+    }
+
+    /**
+     * @param beliefRep the representation of beliefs: standard (StdBelief, default) or log (LogBelief)
+     */
+    public SolverConfig setBeliefRep(Belief beliefRep) {
+        this.beliefRep = beliefRep;
+        return this;
+    }
+
+    public ConstraintWeighingScheme getWeighingScheme() {
+        return weighingScheme;
+    }
+
+    /**
+     * @param weighingScheme the weighing scheme of the constraints (default SAME)
+     */
+    public SolverConfig setWeighingScheme(ConstraintWeighingScheme weighingScheme) {
+        this.weighingScheme = weighingScheme;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "mode=" + mode +
+                " maxIter=" + beliefPropaMaxIter +
+                " tolerance=" + beliefPropaTolerance +
+                " schedule=" + schedule +
+                " parallelism=" + beliefPropaParallelism +
+                " damping=" + (damping ? dampingFactor : "no") +
+                " reset=" + resetMarginalsBeforeBP +
+                " warmStart=" + warmStartBP +
+                " exactTree=" + exactTreeBP +
+                " fuse=" + fuseConstraints +
+                " actOnZeroOne=" + actOnZeroOneBelief +
+                " beliefRep=" + beliefRep.getClass().getSimpleName() +
+                " weighing=" + weighingScheme;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Solves the independent samples of a music CP model on a fixed pool of worker threads.
+ * Each sample is solved with its own solver (and scratch arrays) by a single worker,
+ * the results being returned in the order of the samples.
+ */
+public class MusicCPBatch implements AutoCloseable {
+
+    /**
+     * Failure of a sample, the cause being the exception thrown while solving it.
+     */
+    public static class SampleException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        // the failed sample and the marginals of the samples solved (at least those before it)
+        public final int sample;
+        public final double[][] marginals;
+
+        public SampleException(int sample, double[][] marginals, Throwable cause) {
+            super(cause);
+            this.sample = sample;
+            this.marginals = marginals;
+        }
+
+        /**
+         * @return the exception thrown while solving the sample
+         */
+        public RuntimeException unwrap() {
+            if (getCause() instanceof Error)
+                throw (Error) getCause();
+            return getCause() instanceof RuntimeException ? (RuntimeException) getCause() : this;
+        }
+    }
+
+    private final ExecutorService pool;
+
+    /**
+     * @param nbWorkers the number of worker threads; with a single worker, the samples are solved by the calling thread
+     */
+    public MusicCPBatch(int nbWorkers) {
+        pool = nbWorkers > 1 ? Executors.newFixedThreadPool(nbWorkers, r -> {
+            Thread t = new Thread(r, "MusicCPBatch");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /**
+     * Solves the samples 0..nbSample-1.
+     *
+     * @param solveSample the marginals of a sample, given its index
+     * @return the marginals of each sample, in sample order
+     * @throws SampleException for the first sample (in sample order) whose resolution failed
+     */
+    public double[][] solve(int nbSample, IntFunction<double[]> solveSample) {
+        double[][] marginals = new double[nbSample][];
+        if (pool == null) {
+            for (int j = 0; j < nbSample; j++) {
+                try {
+                    marginals[j] = solveSample.apply(j);
+                } catch (RuntimeException e) {
+                    throw new SampleException(j, marginals, e);
+                }
+            }
+            return marginals;
+        }
+
+        List<Future<double[]>> futures = new ArrayList<>(nbSample);
+        for (int j = 0; j < nbSample; j++) {
+            final int sample = j;
+            futures.add(pool.submit(() -> solveSample.apply(sample)));
+        }
+        SampleException failure = null;
+        for (int j = 0; j < nbSample; j++) {
+            try {
+                marginals[j] = futures.get(j).get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = new SampleException(j, marginals, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    failure = new SampleException(j, marginals, e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return marginals;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+}
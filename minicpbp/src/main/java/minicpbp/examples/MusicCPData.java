@@ -0,0 +1,103 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.examples;
+
+import minicpbp.util.io.TensorFile;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Scanner;
+
+/**
+ * Samples read from a data file of the music CP models: for each sample, the tokens fixed so far
+ * and possibly the ML distribution of the next token.
+ * <p>
+ * A data file is either a text file (one sample per line: the tokens, then the probabilities)
+ * or a binary {@link TensorFile}, recognized by its magic number.
+ * The results of a binary data file are written as a binary file as well.
+ */
+public class MusicCPData {
+
+    public static final String DIRECTORY = "minicpbp/examples/data/MusicCP/";
+
+    public final boolean binary;
+    public final int[][] tokens;
+    public final double[][] probabilities;
+
+    private MusicCPData(boolean binary, int[][] tokens, double[][] probabilities) {
+        this.binary = binary;
+        this.tokens = tokens;
+        this.probabilities = probabilities;
+    }
+
+    /**
+     * Reads the first samples of a data file.
+     *
+     * @param filename the name of the file in {@link #DIRECTORY}
+     * @param nbSample the number of samples to read
+     * @param nbTokens the number of tokens of each sample
+     * @param vocabularySize the number of probabilities of each sample (0 if none)
+     */
+    public static MusicCPData read(String filename, int nbSample, int nbTokens, int vocabularySize) throws IOException {
+        String path = DIRECTORY + filename;
+        int[][] tokens = new int[nbSample][nbTokens];
+        double[][] probabilities = new double[nbSample][vocabularySize];
+        if (TensorFile.isTensorFile(path)) {
+            TensorFile file = TensorFile.map(path);
+            if (file.getNbSample() < nbSample || file.getNbTokens() < nbTokens || file.getVocabularySize() != vocabularySize)
+                throw new IOException("Unexpected dimensions in " + filename);
+            for (int j = 0; j < nbSample; j++) {
+                file.getTokens(j, tokens[j]);
+                if (vocabularySize > 0)
+                    file.getProbabilities(j, probabilities[j]);
+            }
+            return new MusicCPData(true, tokens, probabilities);
+        }
+
+        Scanner scanner = new Scanner(new FileReader(path));
+        for (int j = 0; j < nbSample; j++) {
+            for (int i = 0; i < nbTokens; i++) {
+                tokens[j][i] = scanner.nextInt();
+            }
+            for (int v = 0; v < vocabularySize; v++) {
+                probabilities[j][v] = scanner.nextDouble();
+            }
+        }
+        scanner.close();
+        return new MusicCPData(false, tokens, probabilities);
+    }
+
+    /**
+     * @return the name of the results file of a data file
+     */
+    public static String resultsFilename(String filename) {
+        return filename.substring(0, filename.length() - 4) + "_results.dat";
+    }
+
+    /**
+     * Writes the marginals computed for the samples of a binary data file, as float64.
+     *
+     * @param filename the name of the data file in {@link #DIRECTORY}
+     * @param idx the index of the token the marginals are about
+     */
+    public static void writeBinaryResults(String filename, int idx, double[][] marginals) throws IOException {
+        TensorFile.write(DIRECTORY + resultsFilename(filename), idx, null, marginals, 8);
+    }
+}
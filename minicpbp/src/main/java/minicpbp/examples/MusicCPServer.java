@@ -0,0 +1,306 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.examples;
+
+import minicpbp.util.exception.InconsistencyException;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Long-running process answering the belief propagation requests of the music generation,
+ * so that the JVM is started (and the models' classes loaded and compiled) only once
+ * instead of once per generated token.
+ * <p>
+ * Arguments: {@code [nbWorkers [port]]}. The samples of a request are solved by nbWorkers threads (1 by default).
+ * The server reads requests from its standard input and answers on its standard output
+ * or, if a port is given, from the connections accepted on that (loopback) port.
+ * Requests are lines of whitespace-separated fields:
+ * <ul>
+ *     <li>{@code rhythmTokens <nbSample>} followed by {@code nbSample} lines holding the rhythm tokens
+ *     of each sample; they are kept for the subsequent pitch requests. Answer: {@code ok <nbSample>}.</li>
+ *     <li>{@code <model> <nbSample> <idx> <weight> <params...>} followed by {@code nbSample} lines holding,
+ *     for each sample, the tokens fixed so far and the distribution of the ML model for token {@code idx}.
+ *     The parameters are those of the command line of the model, without the file names.
+ *     Answer: {@code ok <nbSample>} followed by one line of marginals per sample.</li>
+ *     <li>{@code quit} stops the server.</li>
+ * </ul>
+ * A request that cannot be answered is answered by {@code error <code> <sample> <message>}, the codes
+ * being those returned by the models' command lines (1: input, 2: inconsistency, 3: other).
+ * The model of each sample is built once ({@link MusicCPSession}) and kept as long as the requests
+ * are for the same model and parameters and their prefixes extend the tokens it has fixed at its root:
+ * a prefix that backs up or resamples tokens is answered by restoring the state of the session.
+ * Everything the models print on the standard output is redirected to the standard error.
+ */
+public class MusicCPServer {
+
+    private final MusicCPBatch batch;
+    private final List<String> rhythmTokens = new ArrayList<>();
+    private int[][] rhythmTokenValues = new int[0][];
+    // sessions[j] = the model of sample j kept across the generation steps, for the model and parameters sessionsModel
+    private MusicCPSession[] sessions = new MusicCPSession[0];
+    private String sessionsModel = null;
+
+    /**
+     * @param nbWorkers the number of samples of a request solved in parallel
+     */
+    public MusicCPServer(int nbWorkers) {
+        batch = new MusicCPBatch(nbWorkers);
+    }
+
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        MusicCPServer server = new MusicCPServer(args.length > 0 ? Integer.parseInt(args[0]) : 1);
+        try {
+            if (args.length < 2) {
+                server.serve(new BufferedReader(new InputStreamReader(System.in)), new PrintWriter(out));
+            } else {
+                try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[1]), 0, InetAddress.getLoopbackAddress())) {
+                    boolean running = true;
+                    while (running) {
+                        try (Socket socket = serverSocket.accept()) {
+                            running = server.serve(new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                                    new PrintWriter(new OutputStreamWriter(socket.getOutputStream())));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error 1: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Answers the requests read from the input until it is exhausted or a {@code quit} request is read.
+     *
+     * @return false if a {@code quit} request was read, true otherwise
+     */
+    public boolean serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] request = line.trim().split("\\s+");
+            if (request[0].isEmpty())
+                continue;
+            if (request[0].equals("quit"))
+                return false;
+            answer(request, in, out);
+            out.flush();
+        }
+        return true;
+    }
+
+    private void answer(String[] request, BufferedReader in, PrintWriter out) throws IOException {
+        int nbSample;
+        try {
+            nbSample = Integer.parseInt(request[1]);
+        } catch (RuntimeException e) {
+            out.println("error 1 -1 " + "Malformed request: " + String.join(" ", request));
+            return;
+        }
+        // read the whole request first so that the next one is correctly aligned, whatever happens
+        List<String> samples = new ArrayList<>(nbSample);
+        for (int j = 0; j < nbSample; j++) {
+            String line = in.readLine();
+            if (line == null)
+                throw new IOException("Unexpected end of input in request " + request[0]);
+            samples.add(line);
+        }
+        if (request[0].equals("rhythmTokens")) {
+            rhythmTokens.clear();
+            rhythmTokens.addAll(samples);
+            rhythmTokenValues = new int[nbSample][];
+            sessionsModel = null;
+            out.println("ok " + nbSample);
+            return;
+        }
+
+        double[][] marginals;
+        try {
+            String model = String.join(" ", request[0], String.join(" ", Arrays.copyOfRange(request, 4, request.length)));
+            if (!model.equals(sessionsModel) || sessions.length < nbSample) {
+                sessions = new MusicCPSession[nbSample];
+                sessionsModel = model;
+            }
+            if (request[0].equals("rhythmAlldifferentLastbar")) {
+                marginals = batch.solve(nbSample, j -> {
+                    try {
+                        return solve(request, j, samples.get(j));
+                    } catch (InconsistencyException e) {
+                        // same fallback as the command line model: a rest, printed as integers
+                        return null;
+                    }
+                });
+                int inconsistencyCount = 0;
+                for (double[] marginal : marginals) {
+                    if (marginal == null)
+                        inconsistencyCount++;
+                }
+                FileWriter myWriter = new FileWriter("minicpbp/examples/data/MusicCP/nb_inconsistency_error.txt", true);
+                myWriter.write(inconsistencyCount + "\n");
+                myWriter.close();
+            } else {
+                marginals = batch.solve(nbSample, j -> solve(request, j, samples.get(j)));
+            }
+        } catch (MusicCPBatch.SampleException e) {
+            RuntimeException cause = e.unwrap();
+            if (cause instanceof InconsistencyException)
+                out.println("error 2 " + e.sample + " Inconsistency Exception");
+            else
+                out.println("error 3 " + e.sample + " " + cause);
+            return;
+        } catch (IOException e) {
+            out.println("error 1 -1 " + e);
+            return;
+        } catch (Exception e) {
+            out.println("error 3 -1 " + e);
+            return;
+        }
+
+        out.println("ok " + nbSample);
+        for (double[] marginal : marginals) {
+            StringBuilder sb = new StringBuilder();
+            if (marginal == null) {
+                for (int i = 0; i < rhythmAlldifferentLastbar.nbVal; i++) {
+                    sb.append(i == 0 ? 1 : 0).append(" ");
+                }
+            } else {
+                for (int i = 0; i < marginal.length; i++) {
+                    sb.append(marginal[i]).append(" ");
+                }
+            }
+            out.println(sb);
+        }
+    }
+
+    /**
+     * Answers a sample of a request with the session of the sample, which is created if it cannot answer it.
+     */
+    private double[] solve(String[] request, int sample, String line) {
+        int idx = Integer.parseInt(request[2]);
+        double oracleWeight = Double.parseDouble(request[3]);
+        String[] fields = line.trim().split("\\s+");
+        int[] prefix = new int[idx];
+        for (int i = 0; i < idx; i++) {
+            prefix[i] = Integer.parseInt(fields[i]);
+        }
+        double[] distribution = new double[fields.length - idx];
+        for (int i = 0; i < distribution.length; i++) {
+            distribution[i] = Double.parseDouble(fields[idx + i]);
+        }
+
+        try {
+            if (sessions[sample] == null || !sessions[sample].accepts(prefix)) {
+                sessions[sample] = makeSession(request, sample, prefix);
+            }
+            return sessions[sample].marginals(prefix, distribution, oracleWeight(request, sample, idx, oracleWeight));
+        } catch (InconsistencyException e) {
+            // a session restricts the tokens before they are fixed and cannot tell a conflicting token
+            // from an inconsistent model: the model built from scratch decides. The session is restored to
+            // the tokens before the failure and is kept unless they are fixed at its root (see accepts)
+            return solveSample(request, sample, prefix, distribution);
+        }
+    }
+
+    private MusicCPSession makeSession(String[] request, int sample, int[] prefix) {
+        switch (request[0]) {
+            case "rhythmAlldifferent":
+                return rhythmAlldifferent.makeSession(prefix, Integer.parseInt(request[4]));
+            case "rhythmAlldifferentReset":
+                return rhythmAlldifferentReset.makeSession(prefix, Integer.parseInt(request[4]));
+            case "rhythmIncreasingReset":
+                return rhythmIncreasingReset.makeSession(prefix, Integer.parseInt(request[4]));
+            case "rhythmAtleast":
+                return rhythmAtleast.makeSession(prefix, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            case "rhythmAlldifferentLastbar":
+                return rhythmAlldifferentLastbar.makeSession(prefix, Integer.parseInt(request[4]));
+            case "pitchKey":
+                return pitchKey.makeSession(rhythmTokens(sample), prefix, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            case "pitchKeyOnset":
+                return pitchKeyOnset.makeSession(rhythmTokens(sample), prefix, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            default:
+                throw new IllegalArgumentException("Unknown model " + request[0]);
+        }
+    }
+
+    private double oracleWeight(String[] request, int sample, int idx, double oracleWeight) {
+        switch (request[0]) {
+            case "pitchKey":
+                return pitchKey.oracleWeight(oracleWeight, idx, Integer.parseInt(request[5]));
+            case "pitchKeyOnset":
+                int groupSize = Integer.parseInt(request[5]);
+                return pitchKeyOnset.oracleWeight(oracleWeight, pitchKeyOnset.onsetCounts(rhythmTokens(sample), idx, groupSize), idx, groupSize);
+            default:
+                return oracleWeight;
+        }
+    }
+
+    /**
+     * Answers a sample of a request by building its model from scratch, as the command line of the model does.
+     */
+    private double[] solveSample(String[] request, int sample, int[] prefix, double[] distribution) {
+        int idx = prefix.length;
+        double oracleWeight = Double.parseDouble(request[3]);
+        switch (request[0]) {
+            case "rhythmAlldifferent":
+                return rhythmAlldifferent.solveSample(prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]));
+            case "rhythmAlldifferentReset":
+                return rhythmAlldifferentReset.solveSample(prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]));
+            case "rhythmIncreasingReset":
+                return rhythmIncreasingReset.solveSample(prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]));
+            case "rhythmAtleast":
+                return rhythmAtleast.solveSample(prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            case "rhythmAlldifferentLastbar":
+                return rhythmAlldifferentLastbar.solveSample(prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]));
+            case "pitchKey":
+                return pitchKey.solveSample(rhythmTokens(sample), prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            case "pitchKeyOnset":
+                return pitchKeyOnset.solveSample(rhythmTokens(sample), prefix, distribution, idx, oracleWeight, Integer.parseInt(request[4]), Integer.parseInt(request[5]));
+            default:
+                throw new IllegalArgumentException("Unknown model " + request[0]);
+        }
+    }
+
+    private int[] rhythmTokens(int sample) {
+        if (sample >= rhythmTokens.size())
+            throw new IllegalStateException("No rhythm tokens for sample " + sample);
+        if (rhythmTokenValues[sample] == null) {
+            Scanner scanner = new Scanner(rhythmTokens.get(sample));
+            rhythmTokenValues[sample] = new int[pitchKey.nbVar];
+            for (int i = 0; i < pitchKey.nbVar; i++) {
+                rhythmTokenValues[sample][i] = scanner.nextInt();
+            }
+        }
+        return rhythmTokenValues[sample];
+    }
+}
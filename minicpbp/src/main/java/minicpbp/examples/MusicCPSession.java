@@ -0,0 +1,228 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.examples;
+
+import minicpbp.engine.constraints.Oracle;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.engine.core.SolverConfig;
+import minicpbp.state.StateManager;
+import minicpbp.util.exception.InconsistencyException;
+
+/**
+ * Model of one sample of a music CP model that survives across the generation steps.
+ * <p>
+ * The model is built once. The tokens assigned before the first step are fixed permanently, at the root level.
+ * Each step then saves the state ({@link StateManager#saveState()}) before assigning each token fixed since
+ * the previous step, moves the oracle to the next token, gives it the new ML distribution and weight,
+ * then applies belief propagation.
+ * A step whose prefix departs from the tokens fixed so far (a token backed up or resampled) first restores
+ * the state of the longest prefix they share ({@link StateManager#restoreStateUntil(int)}) instead of
+ * rebuilding the model. The oracle is posted once, at the first step, at the root level.
+ * As the state is only restored to undo tokens, a solver with {@link Solver#setWarmStartBP(boolean) warm start}
+ * resumes from the beliefs of the previous step, or of the step the prefix is restored to.
+ * <p>
+ * Usage from a model: create the solver and the variables, restrict the variables to the values
+ * allowed by the input, create the session, {@link #assign(int[]) assign} the initial prefix,
+ * then post the constraints of the model.
+ */
+public class MusicCPSession {
+
+    // belief propagation stops once no marginal changes by more than this during an iteration
+    public static final double BP_TOLERANCE = 1e-4;
+
+    private final Solver cp;
+    private final StateManager sm;
+    private final IntVar[] x;
+    // inOracleDomain[i][v] = whether value v of x[i] is given to the oracle (the domain before the constraints were posted)
+    private final boolean[][] inOracleDomain;
+    private final int[] tokens;
+    // levels[k] = the level of the state manager where tokens[0..k-1] are assigned, for k >= nbRoot
+    private final int[] levels;
+    private Oracle oracle;
+    private int nbFixed;
+    // the number of tokens fixed at the root level, which cannot be undone
+    private int nbRoot;
+    private boolean failed;
+
+    /**
+     * Creates a session over the variables of a model whose constraints are not posted yet.
+     *
+     * @param cp the solver of the model
+     * @param x the token variables, with domains starting at 0
+     */
+    public MusicCPSession(Solver cp, IntVar[] x) {
+        this.cp = cp;
+        this.sm = cp.getStateManager();
+        this.x = x;
+        inOracleDomain = new boolean[x.length][];
+        for (int i = 0; i < x.length; i++) {
+            inOracleDomain[i] = new boolean[x[i].max() + 1];
+            for (int v = x[i].min(); v <= x[i].max(); v++) {
+                inOracleDomain[i][v] = x[i].contains(v);
+            }
+        }
+        tokens = new int[x.length];
+        levels = new int[x.length + 1];
+        nbFixed = 0;
+        nbRoot = 0;
+        failed = false;
+    }
+
+    /**
+     * @return the solver parameters of the music models (also used by their command lines):
+     * the default ones, belief propagation stopping once no marginal changes by more than {@link #BP_TOLERANCE}
+     */
+    public static SolverConfig solverConfig() {
+        return new SolverConfig().setBeliefPropaTolerance(BP_TOLERANCE);
+    }
+
+    public Solver getSolver() {
+        return cp;
+    }
+
+    /**
+     * @return whether the session can answer a step with the given prefix, that is
+     * whether the tokens fixed at the root level are a prefix of it
+     */
+    public boolean accepts(int[] prefix) {
+        if (failed || prefix.length < nbRoot || prefix.length >= x.length)
+            return false;
+        for (int i = 0; i < nbRoot; i++) {
+            if (tokens[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assigns the tokens of the prefix that are not fixed yet.
+     * Before the first step, they are fixed at the root level, without propagation. Afterwards, the tokens
+     * that are not a prefix of the new one are undone first, by restoring the state, then each token is
+     * assigned in a new state and propagated, so that the state of each prefix can be restored to a fixed point.
+     *
+     * @param prefix the tokens fixed so far, of which the tokens fixed at the root level must be a prefix
+     * @throws InconsistencyException if a token is not in the domain of its variable or fails after the first step;
+     *                                the tokens before it stay fixed, but if it is fixed at the root level
+     *                                the session can no longer be used
+     */
+    public void assign(int[] prefix) {
+        assert (accepts(prefix));
+        if (failed)
+            throw InconsistencyException.INCONSISTENCY;
+        if (oracle == null) {
+            try {
+                for (int i = nbFixed; i < prefix.length; i++) {
+                    x[i].assign(prefix[i]);
+                    tokens[i] = prefix[i];
+                    nbFixed = i + 1;
+                }
+            } catch (InconsistencyException e) {
+                failed = true;
+                throw e;
+            }
+            return;
+        }
+        int shared = nbRoot;
+        while (shared < nbFixed && shared < prefix.length && tokens[shared] == prefix[shared]) {
+            shared++;
+        }
+        undo(shared);
+        for (int i = nbFixed; i < prefix.length; i++) {
+            sm.saveState();
+            try {
+                x[i].assign(prefix[i]);
+                cp.fixPoint();
+            } catch (InconsistencyException e) {
+                sm.restoreStateUntil(levels[i]);
+                throw e;
+            }
+            tokens[i] = prefix[i];
+            nbFixed = i + 1;
+            levels[nbFixed] = sm.getLevel();
+        }
+    }
+
+    // restores the state where only the first k tokens are fixed, k being at least nbRoot
+    private void undo(int k) {
+        if (k < nbFixed) {
+            sm.restoreStateUntil(levels[k]);
+            nbFixed = k;
+        }
+    }
+
+    /**
+     * Computes the marginals of the next token.
+     *
+     * @param prefix the tokens fixed so far, of which the tokens fixed at the root level must be a prefix
+     * @param distribution the ML distribution of the next token x[prefix.length]
+     * @param oracleWeight the weight of the oracle holding the distribution
+     * @return the marginals of x[prefix.length] (zero for values outside its domain)
+     * @throws InconsistencyException if the model is inconsistent; if it is already the case with
+     *                                the tokens fixed at the root level, the session can no longer be used
+     */
+    public double[] marginals(int[] prefix, double[] distribution, double oracleWeight) {
+        int idx = prefix.length;
+        boolean[] inDomain = inOracleDomain[idx];
+        double[] marginal = new double[inDomain.length];
+        double sum = 0;
+        for (int i = 0; i < inDomain.length; i++) {
+            if (inDomain[i]) {
+                marginal[i] = distribution[i];
+                sum += distribution[i];
+            }
+        }
+        for (int i = 0; i < marginal.length; i++) {
+            marginal[i] /= sum;
+        }
+
+        if (oracle == null) {
+            // first step: the tokens assigned so far stay at the root level, with the oracle and the constraints
+            assign(prefix);
+            int[] v = new int[marginal.length];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = i;
+            }
+            oracle = new Oracle(x[idx], v, marginal);
+            cp.post(oracle);
+            try {
+                cp.fixPoint();
+            } catch (InconsistencyException e) {
+                failed = true;
+                throw e;
+            }
+            nbRoot = nbFixed;
+            levels[nbRoot] = sm.getLevel();
+        } else {
+            assign(prefix);
+        }
+
+        oracle.setVariable(x[idx]);
+        oracle.setMarginals(marginal, 0);
+        oracle.setWeight(oracleWeight);
+        cp.beliefPropa();
+
+        double[] result = new double[distribution.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.examples;
+
+import minicpbp.engine.core.Solver.BPSchedule;
+import minicpbp.engine.core.SolverConfig;
+import minicpbp.util.exception.InconsistencyException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tunes the belief propagation parameters of a music CP model: runs the generation steps of samples
+ * with each configuration of a grid, and reports its time and the error of its marginals
+ * with respect to a reference configuration performing many more (damped) iterations.
+ * The cheapest configuration whose error stays within a bound is the one to give to the model.
+ * <p>
+ * Arguments: {@code [-maxError <e>] <model> <model arguments...>}, the arguments being those of the command line
+ * of the model (without the optional number of workers), e.g.
+ * {@code rhythmAlldifferentReset rhythm_testing_31.dat 1 31 0.7 2} or
+ * {@code pitchKey pitch_testing_62.dat 1 62 rhythm_for_pitch_testing.dat 0.6 1 6}.
+ * The steps of a sample compute the marginals of tokens 1 to idx, the previous ones being fixed,
+ * with the model's session (see {@link MusicCPSession}) and the ML distribution of the token at that step.
+ * A data file only holds the distribution of one step: if its name contains {@code %d}
+ * (e.g. {@code cp_rhythm_0_%d.dat}, the files written by cp.py for an epoch), the data file of each step
+ * is the name formatted with the step, and the steps without a data file are skipped;
+ * otherwise only step idx is run.
+ * The error of a configuration is the largest difference between one of its marginals and the reference one.
+ */
+public class MusicCPTuning {
+
+    /**
+     * A model whose sessions can be created with a given solver configuration.
+     */
+    public interface Model {
+        MusicCPSession makeSession(SolverConfig config, int sample, int[] prefix);
+
+        double oracleWeight(int sample, int idx);
+    }
+
+    // the configurations are timed several times, keeping the fastest run
+    private static final int NB_RUNS = 3;
+
+    private final Model model;
+    private final int[][] tokens;
+    private final double[][][] distributions;
+
+    /**
+     * @param model         the model
+     * @param tokens        the tokens of each sample, whose length is the number of steps
+     * @param distributions the ML distribution of the token of each step (1 to the number of steps) of each sample,
+     *                      null for a step not to run
+     */
+    public MusicCPTuning(Model model, int[][] tokens, double[][][] distributions) {
+        this.model = model;
+        this.tokens = tokens;
+        this.distributions = distributions;
+    }
+
+    /**
+     * @return the configurations tried by default: 1 to 10 iterations, flooding with or without damping
+     * and residual schedules, warm or cold start, flooding stopped at convergence with several tolerances,
+     * the exact schedule on forests, and the fusion of the constraints
+     */
+    public static List<SolverConfig> grid() {
+        List<SolverConfig> grid = new ArrayList<>();
+        for (int maxIter : new int[]{1, 2, 3, 5, 10}) {
+            for (boolean warmStart : new boolean[]{false, true}) {
+                grid.add(new SolverConfig().setBeliefPropaMaxIter(maxIter).setWarmStartBP(warmStart));
+                grid.add(new SolverConfig().setBeliefPropaMaxIter(maxIter).setWarmStartBP(warmStart).setDamping(true));
+                // message damping is not supported by the residual schedule
+                grid.add(new SolverConfig().setBeliefPropaMaxIter(maxIter).setWarmStartBP(warmStart).setBeliefPropaSchedule(BPSchedule.RESIDUAL));
+            }
+        }
+        for (double tolerance : new double[]{1e-2, 1e-3, 1e-4}) {
+            for (int maxIter : new int[]{3, 5, 10}) {
+                for (boolean warmStart : new boolean[]{false, true}) {
+                    grid.add(new SolverConfig().setBeliefPropaMaxIter(maxIter).setBeliefPropaTolerance(tolerance).setWarmStartBP(warmStart));
+                }
+            }
+        }
+        grid.add(new SolverConfig().setExactTreeBP(true));
+        for (int maxIter : new int[]{1, 2, 3, 5}) {
+            grid.add(new SolverConfig().setBeliefPropaMaxIter(maxIter).setFuseConstraints(true));
+        }
+        return grid;
+    }
+
+    /**
+     * @return the reference configuration: damped flooding BP up to convergence, or 200 iterations
+     */
+    public static SolverConfig reference() {
+        return new SolverConfig().setBeliefPropaMaxIter(200).setBeliefPropaTolerance(1e-9).setDamping(true);
+    }
+
+    /**
+     * The time and error of a configuration.
+     */
+    public static class Result {
+        public final SolverConfig config;
+        public final double time; // in ms, for all the steps of all the samples
+        public final double meanError; // mean over the steps of the largest error of a marginal
+        public final double maxError; // largest error of a marginal
+
+        Result(SolverConfig config, double time, double meanError, double maxError) {
+            this.config = config;
+            this.time = time;
+            this.meanError = meanError;
+            this.maxError = maxError;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10.1f ms  mean error %.2e  max error %.2e  %s", time, meanError, maxError, config);
+        }
+    }
+
+    /**
+     * Runs the steps of all the samples with a configuration.
+     *
+     * @return the marginals of each step of each sample, null for a step whose model is inconsistent
+     */
+    public double[][][] marginals(SolverConfig config) {
+        double[][][] marginals = new double[tokens.length][][];
+        for (int j = 0; j < tokens.length; j++) {
+            marginals[j] = new double[tokens[j].length][];
+            MusicCPSession session = null;
+            for (int idx = 1; idx <= tokens[j].length; idx++) {
+                if (distributions[j][idx] == null)
+                    continue;
+                int[] prefix = Arrays.copyOf(tokens[j], idx);
+                try {
+                    if (session == null || !session.accepts(prefix))
+                        session = model.makeSession(config, j, prefix);
+                    marginals[j][idx - 1] = session.marginals(prefix, distributions[j][idx], model.oracleWeight(j, idx));
+                } catch (InconsistencyException e) {
+                    session = null;
+                }
+            }
+        }
+        return marginals;
+    }
+
+    /**
+     * Evaluates a configuration against the marginals of the reference.
+     */
+    public Result evaluate(SolverConfig config, double[][][] reference) {
+        double[][][] marginals = null;
+        long time = Long.MAX_VALUE;
+        for (int run = 0; run < NB_RUNS; run++) {
+            long start = System.nanoTime();
+            marginals = marginals(config);
+            time = Math.min(time, System.nanoTime() - start);
+        }
+        double sumError = 0;
+        double maxError = 0;
+        int nbSteps = 0;
+        for (int j = 0; j < reference.length; j++) {
+            for (int s = 0; s < reference[j].length; s++) {
+                if (reference[j][s] == null)
+                    continue;
+                double error = 1; // an inconsistency found by the configuration only
+                if (marginals[j][s] != null) {
+                    error = 0;
+                    for (int v = 0; v < reference[j][s].length; v++) {
+                        error = Math.max(error, Math.abs(marginals[j][s][v] - reference[j][s][v]));
+                    }
+                }
+                sumError += error;
+                maxError = Math.max(maxError, error);
+                nbSteps++;
+            }
+        }
+        return new Result(config, time / 1e6, nbSteps == 0 ? 0 : sumError / nbSteps, maxError);
+    }
+
+    /**
+     * Evaluates the configurations of a grid.
+     *
+     * @return their results, by increasing time
+     */
+    public List<Result> tune(List<SolverConfig> grid, SolverConfig referenceConfig) {
+        double[][][] reference = marginals(referenceConfig);
+        marginals(referenceConfig); // warm-up
+        List<Result> results = new ArrayList<>();
+        for (SolverConfig config : grid) {
+            results.add(evaluate(config, reference));
+        }
+        results.sort(Comparator.comparingDouble(r -> r.time));
+        return results;
+    }
+
+    public static void main(String[] args) {
+        double maxError = 0.01;
+        if (args.length > 1 && args[0].equals("-maxError")) {
+            maxError = Double.parseDouble(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() { // the models print warnings
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            String filename = args[1];
+            int nbSample = Integer.parseInt(args[2]);
+            int idx = Integer.parseInt(args[3]);
+            Model model;
+            int nbVal;
+            switch (args[0]) {
+                case "rhythmAlldifferent":
+                case "rhythmAlldifferentReset":
+                case "rhythmIncreasingReset":
+                case "rhythmAlldifferentLastbar":
+                case "rhythmAtleast":
+                    model = rhythmModel(args[0], Double.parseDouble(args[4]), Arrays.copyOfRange(args, 5, args.length));
+                    nbVal = rhythmAlldifferentReset.nbVal;
+                    break;
+                case "pitchKey":
+                case "pitchKeyOnset":
+                    int[][] rhythms = MusicCPData.read(args[4], nbSample, pitchKey.nbVar, 0).tokens;
+                    model = pitchModel(args[0], rhythms, Double.parseDouble(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+                    nbVal = pitchKey.nbVal;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown model " + args[0]);
+            }
+            MusicCPData data = MusicCPData.read(String.format(filename, idx), nbSample, idx, nbVal);
+            double[][][] distributions = new double[nbSample][idx + 1][];
+            for (int j = 0; j < nbSample; j++) {
+                distributions[j][idx] = data.probabilities[j];
+            }
+            if (filename.contains("%d")) {
+                for (int step = 1; step < idx; step++) {
+                    String stepFilename = String.format(filename, step);
+                    if (!new File(MusicCPData.DIRECTORY + stepFilename).exists())
+                        continue;
+                    // the tokens of an earlier step are a prefix of those of step idx
+                    double[][] probabilities = MusicCPData.read(stepFilename, nbSample, step, nbVal).probabilities;
+                    for (int j = 0; j < nbSample; j++) {
+                        distributions[j][step] = probabilities[j];
+                    }
+                }
+            }
+            MusicCPTuning tuning = new MusicCPTuning(model, data.tokens, distributions);
+            List<Result> results = tuning.tune(grid(), reference());
+            Result best = null;
+            for (Result r : results) {
+                out.println(r);
+                if (best == null && r.maxError <= maxError)
+                    best = r;
+            }
+            out.println("cheapest configuration with a max error <= " + maxError + ": " + (best == null ? "none" : best.config));
+        } catch (IOException e) {
+            System.err.println("Error 1: " + e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Error 3: " + e);
+            System.exit(3);
+        }
+    }
+
+    private static Model rhythmModel(String name, double oracleWeight, String[] params) {
+        int p = Integer.parseInt(params[0]);
+        return new Model() {
+            @Override
+            public MusicCPSession makeSession(SolverConfig config, int sample, int[] prefix) {
+                switch (name) {
+                    case "rhythmAlldifferent":
+                        return rhythmAlldifferent.makeSession(config, prefix, p);
+                    case "rhythmAlldifferentReset":
+                        return rhythmAlldifferentReset.makeSession(config, prefix, p);
+                    case "rhythmIncreasingReset":
+                        return rhythmIncreasingReset.makeSession(config, prefix, p);
+                    case "rhythmAlldifferentLastbar":
+                        return rhythmAlldifferentLastbar.makeSession(config, prefix, p);
+                    default:
+                        return rhythmAtleast.makeSession(config, prefix, p, Integer.parseInt(params[1]));
+                }
+            }
+
+            @Override
+            public double oracleWeight(int sample, int idx) {
+                return oracleWeight;
+            }
+        };
+    }
+
+    private static Model pitchModel(String name, int[][] rhythms, double oracleWeight, int K, int groupSize) {
+        boolean onset = name.equals("pitchKeyOnset");
+        return new Model() {
+            @Override
+            public MusicCPSession makeSession(SolverConfig config, int sample, int[] prefix) {
+                return onset ? pitchKeyOnset.makeSession(config, rhythms[sample], prefix, K, groupSize)
+                        : pitchKey.makeSession(config, rhythms[sample], prefix, K, groupSize);
+            }
+
+            @Override
+            public double oracleWeight(int sample, int idx) {
+                return onset ? pitchKeyOnset.oracleWeight(oracleWeight, pitchKeyOnset.onsetCounts(rhythms[sample], idx, groupSize), idx, groupSize)
+                        : pitchKey.oracleWeight(oracleWeight, idx, groupSize);
+            }
+        };
+    }
+}
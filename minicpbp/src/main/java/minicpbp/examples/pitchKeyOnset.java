@@ -4,14 +4,13 @@ import minicpbp.cp.Factory;
 import minicpbp.engine.core.Constraint;
 import minicpbp.engine.core.IntVar;
 import minicpbp.engine.core.Solver;
+import minicpbp.engine.core.SolverConfig;
 import minicpbp.util.exception.InconsistencyException;
 
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Scanner;
 
 import static minicpbp.cp.Factory.makeIntVar;
 
@@ -27,6 +26,16 @@ public class pitchKeyOnset {
     public static final int rhythmRestToken = 0;
     public static final int pitchHoldToken = 48;
     public static final int pitchRestToken = 49;
+    // pitchIdx[i] = the pitch tokens of pitch class i
+    public static final int[][] pitchIdx = new int[nbPitchClass][Math.floorDiv(nbVal - 2, nbPitchClass)];
+
+    static {
+        for (int i = 0; i < nbPitchClass; i++) {
+            for (int j = 0; j < pitchIdx[i].length; j++) {
+                pitchIdx[i][j] = (j * nbPitchClass) + i;
+            }
+        }
+    }
 
     public static void main(String[] args) {
         String filename = args[0];
@@ -36,85 +45,35 @@ public class pitchKeyOnset {
         double minOracleWeight = Double.parseDouble(args[4]);
         int K = Integer.parseInt(args[5]);
         int groupSize = Integer.parseInt(args[6]);
+        int nbWorkers = args.length > 7 ? Integer.parseInt(args[7]) : 1; // number of samples solved in parallel
 
         int currentSample = -1;
 
-        int pitchOccInRange = Math.floorDiv(nbVal - 2, nbPitchClass);
-        int[][] pitchIdx = new int[nbPitchClass][pitchOccInRange];
-        for (int i = 0; i < nbPitchClass; i++) {
-            for (int j = 0; j < pitchOccInRange; j++) {
-                pitchIdx[i][j] = (j * nbPitchClass) + i;
+        try (MusicCPBatch batch = new MusicCPBatch(nbWorkers)) {
+            MusicCPData data = MusicCPData.read(filename, nbSample, idx, nbVal);
+            MusicCPData dataTokenRhythm = MusicCPData.read(filenameTokenRhythm, nbSample, nbVar, 0);
+            if (!data.binary) {
+                redirectStdout(filename);
             }
-        }
-
-        try {
-            Scanner scannerFilename = new Scanner(new FileReader("minicpbp/examples/data/MusicCP/" + filename));
-            Scanner scannerTokenRhythm = new Scanner(new FileReader("minicpbp/examples/data/MusicCP/" + filenameTokenRhythm));
-            redirectStdout(filename);
 
-            for (int j = 0; j < nbSample; j++) {
-                currentSample = j;
-
-                Solver cp = Factory.makeSolver();
-
-                IntVar[] x = new IntVar[nbVar];
-                for (int i = 0; i < nbVar; i++) {
-                    x[i] = makeIntVar(cp, 0, nbVal-1);
-                    x[i].setName("x"+"["+i+"]");
-                }
-                int[] onsetCounts = initVar(x, idx, groupSize, scannerTokenRhythm, scannerFilename);
-                double commonRatio = Math.pow(minOracleWeight, ((double)1 / (onsetCounts[0] - 1)));
-                double oracleWeight = Math.max(Math.pow(commonRatio, onsetCounts[1]), minOracleWeight);
-                if (idx >= (groupSize * nbVarPerBar)) {
-                    oracleWeight = 1.0;
-                }
-
-                double[] marginal = new double[nbVal];
-                int[] v = new int[nbVal];
-                for (int i = 0; i < nbVal; i++) {
-                    marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
-                    v[i] = i;
+            try {
+                double[][] marginals = batch.solve(nbSample, j -> solveSample(dataTokenRhythm.tokens[j], data.tokens[j], data.probabilities[j], idx, minOracleWeight, K, groupSize));
+                if (data.binary) {
+                    MusicCPData.writeBinaryResults(filename, idx, marginals);
                 }
-
-                IntVar[] x_subset = Arrays.copyOfRange(x, 0 * nbVarPerBar, groupSize * nbVarPerBar);
-                IntVar[] o = new IntVar[nbPitchClass];
-                for (int i = 0; i < nbPitchClass; i++) {
-                    boolean inKey = false;
-                    for (int k = 0; k < CMajorPitchClass.length; k++) {
-                        if (CMajorPitchClass[k] == i) {
-                            inKey = true;
-                            break;
-                        }
-                    }
-                    if (inKey) {
-                        o[i] = makeIntVar(cp, K, onsetCounts[0]);
-                    }
-                    else {
-                        o[i] = makeIntVar(cp, 0, onsetCounts[0]);
+                else {
+                    for (double[] marginal : marginals) {
+                        printMarginals(marginal);
                     }
-                    o[i].setName("o"+"["+i+"]");
                 }
-                for (int i = 0; i < nbPitchClass; i++) {
-                    cp.post(Factory.among(x_subset, pitchIdx[i], o[i]));
-                }
-
-                IntVar s = makeIntVar(cp, onsetCounts[0], onsetCounts[0]);
-                cp.post(Factory.lessOrEqual(Factory.sum(o), s));
-
-                Constraint orac = Factory.oracle(x[idx], v, marginal);
-                orac.setWeight(oracleWeight);
-                cp.post(orac);
-
-                cp.fixPoint();
-                cp.beliefPropa();
-
-                for (int i = 0; i < nbVal; i++) {
-                    System.out.print((x[idx].contains(i) ? x[idx].marginal(i) : 0) + " ");
+            }
+            catch (MusicCPBatch.SampleException e) {
+                for (int j = 0; j < e.sample && !data.binary; j++) {
+                    printMarginals(e.marginals[j]);
                 }
-                System.out.println();
+                currentSample = e.sample;
+                throw e.unwrap();
             }
-            scannerFilename.close();
-            scannerTokenRhythm.close();
         }
         catch (IOException e) {
             System.err.println("Error 1 (" + currentSample + "): " + e) ;
@@ -130,6 +89,163 @@ public class pitchKeyOnset {
         }
     }
 
+    /**
+     * Builds the model of a sample and applies belief propagation.
+     *
+     * @param tokensRhythm the rhythm tokens of the sample
+     * @param tokens the pitch tokens fixed so far, x[0..idx-1]
+     * @param scores the ML distribution of x[idx]
+     *
+     * @return the marginals of x[idx] (zero for values outside its domain)
+     */
+    public static double[] solveSample(int[] tokensRhythm, int[] tokens, double[] scores, int idx, double minOracleWeight, int K, int groupSize) {
+        Solver cp = Factory.makeSolver(MusicCPSession.solverConfig());
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal-1);
+            x[i].setName("x"+"["+i+"]");
+        }
+        int[] onsetCounts = initVar(x, idx, groupSize, tokensRhythm, tokens, scores);
+        double oracleWeight = oracleWeight(minOracleWeight, onsetCounts, idx, groupSize);
+
+        double[] marginal = new double[nbVal];
+        int[] v = new int[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+            v[i] = i;
+        }
+
+        postConstraints(x, K, groupSize, onsetCounts[0]);
+
+        Constraint orac = Factory.oracle(x[idx], v, marginal);
+        orac.setWeight(oracleWeight);
+        cp.post(orac);
+
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        double[] result = new double[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            result[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+        }
+        return result;
+    }
+
+    /**
+     * Builds the model of a sample whose first tokens are fixed, to be kept across the generation steps.
+     *
+     * @param rhythmTokens the rhythm of the sample, which restricts the pitch tokens that are not fixed yet
+     */
+    public static MusicCPSession makeSession(int[] rhythmTokens, int[] prefix, int K, int groupSize) {
+        return makeSession(MusicCPSession.solverConfig(), rhythmTokens, prefix, K, groupSize);
+    }
+
+    /**
+     * Builds the model of a sample as {@link #makeSession(int[],int[],int,int)} does, with a solver of the given parameters.
+     */
+    public static MusicCPSession makeSession(SolverConfig config, int[] rhythmTokens, int[] prefix, int K, int groupSize) {
+        Solver cp = Factory.makeSolver(config);
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal - 1);
+            x[i].setName("x" + "[" + i + "]");
+        }
+        int onsetCount = 0;
+        int maxIdx = groupSize * nbVarPerBar;
+        for (int i = 0; i < nbVar; i++) {
+            if (rhythmTokens[i] == rhythmOnsetToken) {
+                if (i >= prefix.length) {
+                    x[i].remove(pitchHoldToken);
+                    x[i].remove(pitchRestToken);
+                }
+                if (i < maxIdx) {
+                    onsetCount++;
+                }
+            }
+            else if (i >= prefix.length) {
+                x[i].assign(rhythmTokens[i] == rhythmHoldToken ? pitchHoldToken : pitchRestToken);
+            }
+        }
+        MusicCPSession session = new MusicCPSession(cp, x);
+        session.assign(prefix);
+        postConstraints(x, K, groupSize, onsetCount);
+        return session;
+    }
+
+    /**
+     * Posts the constraints of the model on the token variables.
+     *
+     * @param onsetCount the number of onsets in the constrained span
+     */
+    public static void postConstraints(IntVar[] x, int K, int groupSize, int onsetCount) {
+        Solver cp = x[0].getSolver();
+
+        IntVar[] x_subset = Arrays.copyOfRange(x, 0 * nbVarPerBar, groupSize * nbVarPerBar);
+        IntVar[] o = new IntVar[nbPitchClass];
+        for (int i = 0; i < nbPitchClass; i++) {
+            boolean inKey = false;
+            for (int k = 0; k < CMajorPitchClass.length; k++) {
+                if (CMajorPitchClass[k] == i) {
+                    inKey = true;
+                    break;
+                }
+            }
+            if (inKey) {
+                o[i] = makeIntVar(cp, K, onsetCount);
+            }
+            else {
+                o[i] = makeIntVar(cp, 0, onsetCount);
+            }
+            o[i].setName("o"+"["+i+"]");
+        }
+        for (int i = 0; i < nbPitchClass; i++) {
+            cp.post(Factory.among(x_subset, pitchIdx[i], o[i]));
+        }
+
+        IntVar s = makeIntVar(cp, onsetCount, onsetCount);
+        cp.post(Factory.lessOrEqual(Factory.sum(o), s));
+    }
+
+    /**
+     * @param onsetCounts the number of onsets in the constrained span and the number of those before idx
+     * @return the weight of the oracle on x[idx], decaying geometrically from 1.0 to minOracleWeight after each onset
+     * of the constrained span, 1.0 after it
+     */
+    public static double oracleWeight(double minOracleWeight, int[] onsetCounts, int idx, int groupSize) {
+        if (idx >= (groupSize * nbVarPerBar)) {
+            return 1.0;
+        }
+        double commonRatio = Math.pow(minOracleWeight, ((double)1 / (onsetCounts[0] - 1)));
+        return Math.max(Math.pow(commonRatio, onsetCounts[1]), minOracleWeight);
+    }
+
+    /**
+     * @return the number of onsets of the rhythm in the constrained span and the number of those before idx
+     */
+    public static int[] onsetCounts(int[] rhythmTokens, int idx, int groupSize) {
+        int onsetCount = 0;
+        int onsetUntilIdxCount = 0;
+        int maxIdx = Math.min(groupSize * nbVarPerBar, nbVar);
+        for (int i = 0; i < maxIdx; i++) {
+            if (rhythmTokens[i] == rhythmOnsetToken) {
+                onsetCount++;
+                if (i < idx) {
+                    onsetUntilIdxCount++;
+                }
+            }
+        }
+        return new int[]{onsetCount, onsetUntilIdxCount};
+    }
+
+    public static void printMarginals(double[] marginal) {
+        for (int i = 0; i < marginal.length; i++) {
+            System.out.print(marginal[i] + " ");
+        }
+        System.out.println();
+    }
+
     public static void redirectStdout(String filename) {
         try {
             PrintStream fileOut = new PrintStream("minicpbp/examples/data/MusicCP/" + filename.substring(0, filename.length() - 4) + "_results.dat");
@@ -141,27 +257,27 @@ public class pitchKeyOnset {
         }
     }
 
-    public static int[] initVar(IntVar[] x, int idx, int groupSize, Scanner sRhythm, Scanner sPitch) {
+    public static int[] initVar(IntVar[] x, int idx, int groupSize, int[] tokensRhythm, int[] tokens, double[] scores) {
         int onsetCount = 0;
         int onsetUntilIdxCount = 0;
         int maxIdx = groupSize * nbVarPerBar;
 
-        // read rhythm tokens until current idx
+        // rhythm tokens until current idx
         for (int i = 0; i < idx; i++) {
             // count nb of onset rhythm token
-            int tokenRhythm = sRhythm.nextInt();
+            int tokenRhythm = tokensRhythm[i];
             if (tokenRhythm == rhythmOnsetToken && i < maxIdx) {
                 onsetCount++;
                 onsetUntilIdxCount++;
             }
 
             // set value of previously fixed pitch vars
-            int tokenPitch = sPitch.nextInt();
+            int tokenPitch = tokens[i];
             x[i].assign(tokenPitch);
         }
 
-        // read current rhythm token
-        int token = sRhythm.nextInt();
+        // current rhythm token
+        int token = tokensRhythm[idx];
         if (token == rhythmOnsetToken) {
             x[idx].remove(pitchHoldToken);
             x[idx].remove(pitchRestToken);
@@ -175,17 +291,17 @@ public class pitchKeyOnset {
 
         // set marginals for current variable
         for (int i = 0; i < nbVal; i++) {
-            double score = sPitch.nextDouble();
+            double score = scores[i];
             if (x[idx].contains(i)) {
                 x[idx].setMarginal(i, score);
             }
         }
         x[idx].normalizeMarginals();
 
-        // read the later rhythm tokens to keep counting nb of onset and
+        // later rhythm tokens, to keep counting nb of onset and
         // set uniform marginals for following pitch variables
         for (int i = idx + 1; i < nbVar; i++) {
-            int tokenRhythm = sRhythm.nextInt();
+            int tokenRhythm = tokensRhythm[i];
             if (tokenRhythm == rhythmHoldToken) {
                 x[i].assign(pitchHoldToken);
             }
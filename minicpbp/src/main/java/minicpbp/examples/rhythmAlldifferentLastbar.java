@@ -4,15 +4,14 @@ import minicpbp.cp.Factory;
 import minicpbp.engine.core.Constraint;
 import minicpbp.engine.core.IntVar;
 import minicpbp.engine.core.Solver;
+import minicpbp.engine.core.SolverConfig;
 import minicpbp.util.exception.InconsistencyException;
 
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Scanner;
 
 import static minicpbp.cp.Factory.*;
 
@@ -30,76 +29,54 @@ public class rhythmAlldifferentLastbar {
         int idx = Integer.parseInt(args[2]);
         double oracleWeight = Double.parseDouble(args[3]);
         int groupSize = Integer.parseInt(args[4]);
+        int nbWorkers = args.length > 5 ? Integer.parseInt(args[5]) : 1; // number of samples solved in parallel
 
         int currentSample = -1;
         int inconsistencyCount = 0;
 
-        try {
-            Scanner scanner = new Scanner(new FileReader("minicpbp/examples/data/MusicCP/" + filename));
-            redirectStdout(filename);
-
-            for (int j = 0; j < nbSample; j++) {
-                try {
-                    currentSample = j;
-
-                    Solver cp = Factory.makeSolver();
-
-                    IntVar[] x = new IntVar[nbVar];
-                    for (int i = 0; i < nbVar; i++) {
-                        x[i] = makeIntVar(cp, 0, nbVal - 1);
-                        x[i].setName("x" + "[" + i + "]");
-                    }
-                    initVar(x, nbVar, nbVal, idx, scanner);
-
-                    double[] marginal = new double[nbVal];
-                    int[] v = new int[nbVal];
-                    for (int i = 0; i < nbVal; i++) {
-                        marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
-                        v[i] = i;
-                    }
-
-                    IntVar[] o = new IntVar[nbBar];
-                    for (int i = 0; i < nbBar; i++) {
-                        o[i] = makeIntVar(cp, 0, nbVarPerBar);
-                        o[i].setName("o" + "[" + i + "]");
-                    }
+        try (MusicCPBatch batch = new MusicCPBatch(nbWorkers)) {
+            MusicCPData data = MusicCPData.read(filename, nbSample, idx, nbVal);
+            if (!data.binary) {
+                redirectStdout(filename);
+            }
 
-                    for (int i = 0; i < nbBar; i++) {
-                        IntVar[] x_subset = Arrays.copyOfRange(x, i * nbVarPerBar, (i + 1) * nbVarPerBar);
-                        cp.post(Factory.among(x_subset, onSetToken, o[i]));
+            double[][] marginals;
+            try {
+                marginals = batch.solve(nbSample, j -> {
+                    try {
+                        return solveSample(data.tokens[j], data.probabilities[j], idx, oracleWeight, groupSize);
                     }
-
-                    for (int i = 0; i < nbBar; i += groupSize) {
-                        int k = i + groupSize > nbBar ? nbBar : i + groupSize;
-                        IntVar[] o_subset = Arrays.copyOfRange(o, i, k);
-                        cp.post(Factory.allDifferentAC(o_subset));
-                        if (groupSize != 1) {
-                            cp.post(Factory.lessOrEqual(mul(o[k - 2], 2), o[k - 1]));
-                            cp.post(Factory.lessOrEqual(o[k - 1], mul(o[k - 2], 2)));
-                        }
+                    catch (InconsistencyException e) {
+                        return null;
                     }
+                });
+            }
+            catch (MusicCPBatch.SampleException e) {
+                currentSample = e.sample;
+                throw e.unwrap();
+            }
 
-                    Constraint orac = Factory.oracle(x[idx], v, marginal);
-                    orac.setWeight(oracleWeight);
-                    cp.post(orac);
-
-                    cp.fixPoint();
-                    cp.beliefPropa();
-
-                    for (int i = 0; i < nbVal; i++) {
-                        System.out.print((x[idx].contains(i) ? x[idx].marginal(i) : 0) + " ");
+            for (int j = 0; j < nbSample; j++) {
+                if (marginals[j] != null) {
+                    if (!data.binary) {
+                        printMarginals(marginals[j]);
                     }
-                    System.out.println();
                 }
-                catch (InconsistencyException e) {
+                else {
                     inconsistencyCount++;
-                    for (int i = 0; i < nbVal; i++) {
-                        System.out.print((i == 0 ? 1 : 0) + " ");
+                    marginals[j] = new double[nbVal];
+                    marginals[j][0] = 1;
+                    if (!data.binary) {
+                        for (int i = 0; i < nbVal; i++) {
+                            System.out.print((i == 0 ? 1 : 0) + " ");
+                        }
+                        System.out.println();
                     }
-                    System.out.println();
                 }
             }
-            scanner.close();
+            if (data.binary) {
+                MusicCPData.writeBinaryResults(filename, idx, marginals);
+            }
 
             FileWriter myWriter = new FileWriter("minicpbp/examples/data/MusicCP/nb_inconsistency_error.txt", true);
             myWriter.write(inconsistencyCount + "\n");
@@ -119,6 +96,106 @@ public class rhythmAlldifferentLastbar {
         }
     }
 
+    /**
+     * Builds the model of a sample and applies belief propagation.
+     *
+     * @param tokens the tokens fixed so far, x[0..idx-1]
+     * @param scores the ML distribution of x[idx]
+     *
+     * @return the marginals of x[idx] (zero for values outside its domain)
+     */
+    public static double[] solveSample(int[] tokens, double[] scores, int idx, double oracleWeight, int groupSize) {
+        Solver cp = Factory.makeSolver(MusicCPSession.solverConfig());
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal - 1);
+            x[i].setName("x" + "[" + i + "]");
+        }
+        initVar(x, nbVar, nbVal, idx, tokens, scores);
+
+        double[] marginal = new double[nbVal];
+        int[] v = new int[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+            v[i] = i;
+        }
+
+        postConstraints(x, groupSize);
+
+        Constraint orac = Factory.oracle(x[idx], v, marginal);
+        orac.setWeight(oracleWeight);
+        cp.post(orac);
+
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        double[] result = new double[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            result[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+        }
+        return result;
+    }
+
+    /**
+     * Builds the model of a sample whose first tokens are fixed, to be kept across the generation steps.
+     */
+    public static MusicCPSession makeSession(int[] prefix, int groupSize) {
+        return makeSession(MusicCPSession.solverConfig(), prefix, groupSize);
+    }
+
+    /**
+     * Builds the model of a sample as {@link #makeSession(int[],int)} does, with a solver of the given parameters.
+     */
+    public static MusicCPSession makeSession(SolverConfig config, int[] prefix, int groupSize) {
+        Solver cp = Factory.makeSolver(config);
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal - 1);
+            x[i].setName("x" + "[" + i + "]");
+        }
+        MusicCPSession session = new MusicCPSession(cp, x);
+        session.assign(prefix);
+        postConstraints(x, groupSize);
+        return session;
+    }
+
+    /**
+     * Posts the constraints of the model on the token variables.
+     */
+    public static void postConstraints(IntVar[] x, int groupSize) {
+        Solver cp = x[0].getSolver();
+
+        IntVar[] o = new IntVar[nbBar];
+        for (int i = 0; i < nbBar; i++) {
+            o[i] = makeIntVar(cp, 0, nbVarPerBar);
+            o[i].setName("o" + "[" + i + "]");
+        }
+
+        for (int i = 0; i < nbBar; i++) {
+            IntVar[] x_subset = Arrays.copyOfRange(x, i * nbVarPerBar, (i + 1) * nbVarPerBar);
+            cp.post(Factory.among(x_subset, onSetToken, o[i]));
+        }
+
+        for (int i = 0; i < nbBar; i += groupSize) {
+            int k = i + groupSize > nbBar ? nbBar : i + groupSize;
+            IntVar[] o_subset = Arrays.copyOfRange(o, i, k);
+            cp.post(Factory.allDifferentAC(o_subset));
+            if (groupSize != 1) {
+                cp.post(Factory.lessOrEqual(mul(o[k - 2], 2), o[k - 1]));
+                cp.post(Factory.lessOrEqual(o[k - 1], mul(o[k - 2], 2)));
+            }
+        }
+    }
+
+    public static void printMarginals(double[] marginal) {
+        for (int i = 0; i < marginal.length; i++) {
+            System.out.print(marginal[i] + " ");
+        }
+        System.out.println();
+    }
+
     public static void redirectStdout(String filename) {
         try {
             PrintStream fileOut = new PrintStream("minicpbp/examples/data/MusicCP/" + filename.substring(0, filename.length() - 4) + "_results.dat");
@@ -130,16 +207,15 @@ public class rhythmAlldifferentLastbar {
         }
     }
 
-    public static void initVar(IntVar[] x, int nbVar, int nbVal, int idx, Scanner s){
+    public static void initVar(IntVar[] x, int nbVar, int nbVal, int idx, int[] tokens, double[] scores) {
         // set value of previously fixed vars
         for (int i = 0; i < idx; i++) {
-            int token = s.nextInt();
-            x[i].assign(token);
+            x[i].assign(tokens[i]);
         }
 
         // set marginals for variable being fixed
         for (int i = 0; i < nbVal; i++) {
-            double score = s.nextDouble();
+            double score = scores[i];
             if (x[idx].contains(i)) {
                 x[idx].setMarginal(i, score);
             }
@@ -4,14 +4,13 @@ import minicpbp.cp.Factory;
 import minicpbp.engine.core.Constraint;
 import minicpbp.engine.core.IntVar;
 import minicpbp.engine.core.Solver;
+import minicpbp.engine.core.SolverConfig;
 import minicpbp.util.exception.InconsistencyException;
 
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Scanner;
 
 import static minicpbp.cp.Factory.*;
 
@@ -29,59 +28,31 @@ public class rhythmIncreasingReset {
         int idx = Integer.parseInt(args[2]);
         double oracleWeight = Double.parseDouble(args[3]);
         int groupSize = Integer.parseInt(args[4]);
+        int nbWorkers = args.length > 5 ? Integer.parseInt(args[5]) : 1; // number of samples solved in parallel
 
-        try {
-            Scanner scanner = new Scanner(new FileReader("minicpbp/examples/data/MusicCP/" + filename));
-            redirectStdout(filename);
-
-            for (int j = 0; j < nbSample; j++) {
-                Solver cp = Factory.makeSolver();
-
-                IntVar[] x = new IntVar[nbVar];
-                for (int i = 0; i < nbVar; i++) {
-                    x[i] = makeIntVar(cp, 0, nbVal-1);
-                    x[i].setName("x"+"["+i+"]");
-                }
-                initVar(x, nbVar, nbVal, idx, scanner);
-
-                double[] marginal = new double[nbVal];
-                int[] v = new int[nbVal];
-                for (int i = 0; i < nbVal; i++) {
-                    marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
-                    v[i] = i;
-                }
-
-                IntVar[] o = new IntVar[nbBar];
-                for (int i = 0; i < nbBar; i++) {
-                    o[i] = makeIntVar(cp, 0, nbVarPerBar);
-                    o[i].setName("o"+"["+i+"]");
-                }
+        try (MusicCPBatch batch = new MusicCPBatch(nbWorkers)) {
+            MusicCPData data = MusicCPData.read(filename, nbSample, idx, nbVal);
+            if (!data.binary) {
+                redirectStdout(filename);
+            }
 
-                for (int i = 0; i < nbBar; i++) {
-                    IntVar[] x_subset = Arrays.copyOfRange(x, i * nbVarPerBar, (i + 1) * nbVarPerBar);
-                    cp.post(Factory.among(x_subset, onSetToken, o[i]));
+            try {
+                double[][] marginals = batch.solve(nbSample, j -> solveSample(data.tokens[j], data.probabilities[j], idx, oracleWeight, groupSize));
+                if (data.binary) {
+                    MusicCPData.writeBinaryResults(filename, idx, marginals);
                 }
-
-                for (int i = 0; i < nbBar - 1; i++) {
-                    if (((i + 1) % groupSize) == 0) {
-                        continue;
+                else {
+                    for (double[] marginal : marginals) {
+                        printMarginals(marginal);
                     }
-                    cp.post(Factory.lessOrEqual(o[i], minus(o[i + 1], 1)));
                 }
-
-                Constraint orac = Factory.oracle(x[idx], v, marginal);
-                orac.setWeight(oracleWeight);
-                cp.post(orac);
-
-                cp.fixPoint();
-                cp.beliefPropa();
-
-                for (int i = 0; i < nbVal; i++) {
-                    System.out.print((x[idx].contains(i) ? x[idx].marginal(i) : 0) + " ");
+            }
+            catch (MusicCPBatch.SampleException e) {
+                for (int j = 0; j < e.sample && !data.binary; j++) {
+                    printMarginals(e.marginals[j]);
                 }
-                System.out.println();
+                throw e.unwrap();
             }
-            scanner.close();
         }
         catch (IOException e) {
             System.err.println("Error 1: " + e.getMessage()) ;
@@ -97,6 +68,103 @@ public class rhythmIncreasingReset {
         }
     }
 
+    /**
+     * Builds the model of a sample and applies belief propagation.
+     *
+     * @param tokens the tokens fixed so far, x[0..idx-1]
+     * @param scores the ML distribution of x[idx]
+     *
+     * @return the marginals of x[idx] (zero for values outside its domain)
+     */
+    public static double[] solveSample(int[] tokens, double[] scores, int idx, double oracleWeight, int groupSize) {
+        Solver cp = Factory.makeSolver(MusicCPSession.solverConfig());
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal-1);
+            x[i].setName("x"+"["+i+"]");
+        }
+        initVar(x, nbVar, nbVal, idx, tokens, scores);
+
+        double[] marginal = new double[nbVal];
+        int[] v = new int[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            marginal[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+            v[i] = i;
+        }
+
+        postConstraints(x, groupSize);
+
+        Constraint orac = Factory.oracle(x[idx], v, marginal);
+        orac.setWeight(oracleWeight);
+        cp.post(orac);
+
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        double[] result = new double[nbVal];
+        for (int i = 0; i < nbVal; i++) {
+            result[i] = (x[idx].contains(i) ? x[idx].marginal(i) : 0);
+        }
+        return result;
+    }
+
+    /**
+     * Builds the model of a sample whose first tokens are fixed, to be kept across the generation steps.
+     */
+    public static MusicCPSession makeSession(int[] prefix, int groupSize) {
+        return makeSession(MusicCPSession.solverConfig(), prefix, groupSize);
+    }
+
+    /**
+     * Builds the model of a sample as {@link #makeSession(int[],int)} does, with a solver of the given parameters.
+     */
+    public static MusicCPSession makeSession(SolverConfig config, int[] prefix, int groupSize) {
+        Solver cp = Factory.makeSolver(config);
+
+        IntVar[] x = new IntVar[nbVar];
+        for (int i = 0; i < nbVar; i++) {
+            x[i] = makeIntVar(cp, 0, nbVal - 1);
+            x[i].setName("x" + "[" + i + "]");
+        }
+        MusicCPSession session = new MusicCPSession(cp, x);
+        session.assign(prefix);
+        postConstraints(x, groupSize);
+        return session;
+    }
+
+    /**
+     * Posts the constraints of the model on the token variables.
+     */
+    public static void postConstraints(IntVar[] x, int groupSize) {
+        Solver cp = x[0].getSolver();
+
+        IntVar[] o = new IntVar[nbBar];
+        for (int i = 0; i < nbBar; i++) {
+            o[i] = makeIntVar(cp, 0, nbVarPerBar);
+            o[i].setName("o"+"["+i+"]");
+        }
+
+        for (int i = 0; i < nbBar; i++) {
+            IntVar[] x_subset = Arrays.copyOfRange(x, i * nbVarPerBar, (i + 1) * nbVarPerBar);
+            cp.post(Factory.among(x_subset, onSetToken, o[i]));
+        }
+
+        for (int i = 0; i < nbBar - 1; i++) {
+            if (((i + 1) % groupSize) == 0) {
+                continue;
+            }
+            cp.post(Factory.lessOrEqual(o[i], minus(o[i + 1], 1)));
+        }
+    }
+
+    public static void printMarginals(double[] marginal) {
+        for (int i = 0; i < marginal.length; i++) {
+            System.out.print(marginal[i] + " ");
+        }
+        System.out.println();
+    }
+
     public static void redirectStdout(String filename) {
         try {
             PrintStream fileOut = new PrintStream("minicpbp/examples/data/MusicCP/" + filename.substring(0, filename.length() - 4) + "_results.dat");
@@ -108,16 +176,15 @@ public class rhythmIncreasingReset {
         }
     }
 
-    public static void initVar(IntVar[] x, int nbVar, int nbVal, int idx, Scanner s){
+    public static void initVar(IntVar[] x, int nbVar, int nbVal, int idx, int[] tokens, double[] scores) {
         // set value of previously fixed vars
         for (int i = 0; i < idx; i++) {
-            int token = s.nextInt();
-            x[i].assign(token);
+            x[i].assign(tokens[i]);
         }
 
         // set marginals for variable being fixed
         for (int i = 0; i < nbVal; i++) {
-            double score = s.nextDouble();
+            double score = scores[i];
             if (x[idx].contains(i)) {
                 x[idx].setMarginal(i, score);
             }
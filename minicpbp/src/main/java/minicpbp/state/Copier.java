@@ -65,6 +65,12 @@ public class Copier implements StateManager {
         onRestoreListeners.add(listener);
     }
 
+    @Override
+    public void pushState(StateEntry entry) {
+        if (!prior.isEmpty())
+            prior.peek().push(entry);
+    }
+
     public int getLevel() {
         return prior.size() - 1;
     }
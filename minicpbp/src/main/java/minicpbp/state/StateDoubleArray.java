@@ -0,0 +1,130 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.state;
+
+import java.util.Arrays;
+
+/**
+ * Array of doubles that can be saved and restored through
+ * the {@link StateManager#saveState()} / {@link StateManager#restoreState()}
+ * methods.
+ * <p>
+ * Unlike an array of {@link StateDouble}, the array is saved as a whole:
+ * its first modification at a given level copies it once, whatever the number of entries modified,
+ * in an entry pushed on the state manager ({@link StateManager#pushState(StateEntry)}),
+ * and restoring the state copies it back. Only the arrays modified at a level are thus visited by its restoration.
+ * This suits arrays that are mostly rewritten at each level, such as the beliefs of a constraint.
+ * The copies are recycled, hence no allocation once the search has reached its maximum depth.
+ */
+public class StateDoubleArray {
+
+    private final StateManager sm;
+    private double[] values;
+    // the level at which the array was last saved, -1 if not since its creation or replacement
+    private int savedLevel = -1;
+    // incremented at each replacement, whose copies are no longer restored
+    private int version = 0;
+    // the restored copies, to be reused
+    private Copy[] free = new Copy[0];
+    private int nbFree = 0;
+
+    private class Copy implements StateEntry {
+        private double[] values;
+        private int prevSavedLevel;
+        private int version;
+
+        @Override
+        public void restore() {
+            if (version == StateDoubleArray.this.version) {
+                System.arraycopy(values, 0, StateDoubleArray.this.values, 0, values.length);
+                savedLevel = prevSavedLevel;
+            }
+            if (nbFree == free.length)
+                free = Arrays.copyOf(free, Math.max(4, 2 * nbFree));
+            free[nbFree++] = this;
+        }
+    }
+
+    /**
+     * Creates a restorable array.
+     *
+     * @param sm        the state manager that saves/restores the array
+     *                  when {@link StateManager#saveState()} / {@link StateManager#restoreState()}
+     *                  methods are called.
+     * @param n         the length of the array
+     * @param initValue the initial value of the entries
+     */
+    public StateDoubleArray(StateManager sm, int n, double initValue) {
+        this.sm = sm;
+        values = new double[n];
+        Arrays.fill(values, initValue);
+    }
+
+    public int length() {
+        return values.length;
+    }
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    public double set(int i, double v) {
+        if (v != values[i]) {
+            save();
+            values[i] = v;
+        }
+        return v;
+    }
+
+    /**
+     * Sets the entries from (inclusive) .. to (exclusive) to the given value.
+     */
+    public void fill(int from, int to, double v) {
+        save();
+        Arrays.fill(values, from, to, v);
+    }
+
+    /**
+     * Replaces the content of the array, possibly changing its length.
+     * The replacement is not undone when the state is restored.
+     *
+     * @param values the new entries, which are copied
+     */
+    public void replace(double[] values) {
+        this.values = values.clone();
+        savedLevel = -1;
+        version++;
+    }
+
+    private void save() {
+        int level = sm.getLevel();
+        if (level < 0 || savedLevel == level)
+            return; // the array cannot be restored below level -1, or was already saved at this level
+        Copy copy = nbFree > 0 ? free[--nbFree] : new Copy();
+        if (copy.values == null || copy.values.length != values.length)
+            copy.values = new double[values.length];
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.prevSavedLevel = savedLevel;
+        copy.version = version;
+        sm.pushState(copy);
+        savedLevel = level;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -62,6 +62,15 @@ public interface StateManager {
      */
     void onRestore(Procedure listener);
 
+    /**
+     * Registers an entry to be restored when the current state is restored,
+     * that is to undo a modification made at the current level by the next {@link #restoreState()}.
+     * The entries registered at level -1 are never restored.
+     *
+     * @param entry the entry to restore
+     */
+    void pushState(StateEntry entry);
+
     /**
      * Returns the current level.
      * It is increased at each {@link #saveState()}
@@ -23,12 +23,38 @@ import java.util.Arrays;
 /**
  * Class to represent a bit-set that can be saved and restored through
  * the {@link StateManager#saveState()} / {@link StateManager#restoreState()}
+ * <p>
+ * The words are plain longs: the first modification of a word at a given level
+ * pushes its previous value on the state manager ({@link StateManager#pushState(StateEntry)}).
+ * Only the non-zero words are visited by the operations.
  */
 public class StateSparseBitSet {
 
+    private final StateManager sm;
+
     /* Variables used to store value of the bitset */
     private int nWords;
-    private State<Long>[] words;
+    private long[] words;
+    // the level at which each word was last saved, -1 if not since the creation
+    private int[] wordLevel;
+    // the restored entries, to be reused
+    private WordEntry[] free = new WordEntry[0];
+    private int nbFree = 0;
+
+    private class WordEntry implements StateEntry {
+        private int i;
+        private long word;
+        private int prevWordLevel;
+
+        @Override
+        public void restore() {
+            words[i] = word;
+            wordLevel[i] = prevWordLevel;
+            if (nbFree == free.length)
+                free = Arrays.copyOf(free, Math.max(16, 2 * nbFree));
+            free[nbFree++] = this;
+        }
+    }
 
     /* Variables used to make set sparse */
     private int[] nonZeroIdx;
@@ -62,6 +88,13 @@ public class StateSparseBitSet {
             words[i >>> 6] |= 1L << i; // << is a cyclic shift, (1L << 64) == 1L
         }
 
+        /**
+         * @param i the index of a word
+         * @return the ith word
+         */
+        public long word(int i) {
+            return words[i];
+        }
 
         /**
          * Unset all the bits
@@ -105,15 +138,44 @@ public class StateSparseBitSet {
      * @param n  the number of bits
      */
     public StateSparseBitSet(StateManager sm, int n) {
+        this.sm = sm;
         nWords = (n + 63) >>> 6; // divided by 64
-        //System.out.println("nwords:"+nWords);
-        words = new State[nWords];
-        Arrays.setAll(words, i -> sm.makeStateRef(Long.valueOf(0xFFFFFFFFFFFFFFFFL)));
+        words = new long[nWords];
+        Arrays.fill(words, 0xFFFFFFFFFFFFFFFFL);
+        if ((n & 63) != 0)
+            words[nWords - 1] = (1L << n) - 1; // the bits beyond n are unset
+        wordLevel = new int[nWords];
+        Arrays.fill(wordLevel, -1);
         nonZeroIdx = new int[nWords];
         Arrays.setAll(nonZeroIdx, i -> i);
         nNonZero = sm.makeStateInt(nWords);
     }
 
+    private void setWord(int i, long w) {
+        int level = sm.getLevel();
+        if (level >= 0 && wordLevel[i] != level) { // the word cannot be restored below level -1
+            WordEntry entry = nbFree > 0 ? free[--nbFree] : new WordEntry();
+            entry.i = i;
+            entry.word = words[i];
+            entry.prevWordLevel = wordLevel[i];
+            sm.pushState(entry);
+            wordLevel[i] = level;
+        }
+        words[i] = w;
+    }
+
+    // sets the word at position i of the sparse index to w, removing it from the index if it becomes zero
+    private void updateNonZero(int i, long w) {
+        setWord(nonZeroIdx[i], w);
+        if (w == 0L) {
+            int last = nNonZero.value() - 1;
+            nNonZero.setValue(last);
+            int tmp = nonZeroIdx[i];
+            nonZeroIdx[i] = nonZeroIdx[last];
+            nonZeroIdx[last] = tmp;
+        }
+    }
+
     /**
      * Intersect this sparset-set with bs
      *
@@ -121,16 +183,25 @@ public class StateSparseBitSet {
      */
     public void intersect(BitSet bs) {
         for (int i = nNonZero.value() - 1; i >= 0; i--) {
-            State<Long> w = words[nonZeroIdx[i]];
-            long wn = w.value() & bs.words[nonZeroIdx[i]];
-            if (wn == 0L) {
-                nNonZero.decrement();
-                int tmp = nonZeroIdx[i];
-                nonZeroIdx[i] = nonZeroIdx[nNonZero.value()];
-                nonZeroIdx[nNonZero.value()] = tmp;
-            } else {
-                w.setValue(wn);
-            }
+            long w = words[nonZeroIdx[i]];
+            long wn = w & bs.words[nonZeroIdx[i]];
+            if (wn != w)
+                updateNonZero(i, wn);
+        }
+    }
+
+    /**
+     * Removes the bits of bs from this sparse-set,
+     * that is intersects it with the complement of bs
+     *
+     * @param bs the bits to remove
+     */
+    public void remove(BitSet bs) {
+        for (int i = nNonZero.value() - 1; i >= 0; i--) {
+            long w = words[nonZeroIdx[i]];
+            long wn = w & ~bs.words[nonZeroIdx[i]];
+            if (wn != w)
+                updateNonZero(i, wn);
         }
     }
 
@@ -139,22 +210,74 @@ public class StateSparseBitSet {
     }
 
     public boolean hasEmptyIntersection(BitSet bs) {
-        //System.out.println("nonNonZero:"+nNonZero.value());
+        return intersectIndex(bs) < 0;
+    }
+
+    /**
+     * Returns the index of a word where this sparse-set intersects bs, if any.
+     * Such an index is a good residue: it is tested first at the next call with {@link #intersects(BitSet, int)}.
+     *
+     * @param bs the bit-set to intersect with
+     * @return the index of a word with a non-empty intersection, -1 if the intersection is empty
+     */
+    public int intersectIndex(BitSet bs) {
         for (int i = nNonZero.value() - 1; i >= 0; i--) {
-            State<Long> w = words[nonZeroIdx[i]];
-            //System.out.println("intersectino word" + nonZeroIdx[i] +" = "+(w.value() & bs.words[nonZeroIdx[i]]));
-            if ((w.value() & bs.words[nonZeroIdx[i]]) != 0L) {
-                return false;
+            int idx = nonZeroIdx[i];
+            if ((words[idx] & bs.words[idx]) != 0L) {
+                return idx;
             }
         }
-        return true;
+        return -1;
+    }
+
+    /**
+     * @param bs the bit-set to intersect with
+     * @param i  the index of a word
+     * @return true if the ith words of this sparse-set and bs intersect
+     */
+    public boolean intersects(BitSet bs, int i) {
+        return (words[i] & bs.words[i]) != 0L;
+    }
+
+    /**
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        int card = 0;
+        for (int i = 0; i < nNonZero.value(); i++) {
+            card += Long.bitCount(words[nonZeroIdx[i]]);
+        }
+        return card;
+    }
+
+    /**
+     * @return the number of non-zero words
+     */
+    public int nbNonZeroWords() {
+        return nNonZero.value();
+    }
+
+    /**
+     * @param k an index smaller than {@link #nbNonZeroWords()}
+     * @return the index of the kth non-zero word
+     */
+    public int nonZeroWord(int k) {
+        return nonZeroIdx[k];
+    }
+
+    /**
+     * @param i the index of a word
+     * @return the ith word
+     */
+    public long word(int i) {
+        return words[i];
     }
 
     @Override
     public String toString() {
         String res = "";
         for (int i = 0; i < nNonZero.value(); i++) {
-            res += " w" + nonZeroIdx[i] + "=" + Long.toBinaryString(words[nonZeroIdx[i]].value());
+            res += " w" + nonZeroIdx[i] + "=" + Long.toBinaryString(words[nonZeroIdx[i]]);
         }
         return res;
     }
@@ -17,19 +17,25 @@ package minicpbp.state;
 
 import minicpbp.engine.core.Solver;
 
+import java.util.Arrays;
+
 /**
  * Weighted Set implemented using a sparse-set data structure
  * that can be saved and restored through
  * the {@link StateManager#saveState()} / {@link StateManager#restoreState()}
  * methods.
+ * <p>
+ * The weights (the marginals of a variable) are not restored:
+ * belief propagation recomputes them at each search-tree node.
+ * They are stored by value, hence unaffected by the moves of the sparse set.
  */
 public class StateSparseWeightedSet extends StateSparseSet {
 
-    private StateDouble[] weights;
+    private double[] weights; // indexed by value - ofs
 
     /**
      * Creates a set containing the elements {@code {ofs,ofs+1,...,ofs+n-1}},
-     * each with a reversible modifiable weight.
+     * each with a modifiable weight which is not restored with the set.
      *
      * @param cp  the solver
      * @param n   the number of elements in the set
@@ -37,35 +43,8 @@ public class StateSparseWeightedSet extends StateSparseSet {
      */
     public StateSparseWeightedSet(Solver cp, int n, int ofs) {
         super(cp.getStateManager(), n, ofs);
-        weights = new StateDouble[n];
-        for (int i = 0; i < n; i++) {
-            weights[i] = cp.getStateManager().makeStateDouble(cp.getBeliefRep().one()); // not normalized
-        }
-    }
-
-
-    protected void exchangePositions(int val1, int val2) {
-        int i1 = indexes[val1];
-        int i2 = indexes[val2];
-        StateDouble w1 = weights[i1];
-        StateDouble w2 = weights[i2];
-        super.exchangePositions(val1, val2);
-        weights[i1] = w2;
-        weights[i2] = w1;
-    }
-
-    /**
-     * Removes all the element from the set except the given value.
-     *
-     * @param v is an element in the set
-     */
-    public void removeAllBut(int v) {
-        assert (contains(v));
-        int index = indexes[v - ofs];
-        super.removeAllBut(v);
-        double w = weights[0].value();
-        weights[0].setValue(weights[index].value());
-        weights[index].setValue(w);
+        weights = new double[n];
+        Arrays.fill(weights, cp.getBeliefRep().one()); // not normalized
     }
 
 
@@ -76,13 +55,13 @@ public class StateSparseWeightedSet extends StateSparseSet {
         for (int i = 0; i < size() - 1; i++) {
             b.append(values[i] + ofs);
             b.append("  <");
-            b.append(weights[i].value());
+            b.append(weights[values[i]]);
             b.append(">, ");
         }
         if (size() > 0) {
             b.append(values[size() - 1] + ofs);
             b.append("  <");
-            b.append(weights[size() - 1].value());
+            b.append(weights[values[size() - 1]]);
             b.append('>');
         }
         b.append("}");
@@ -96,7 +75,7 @@ public class StateSparseWeightedSet extends StateSparseSet {
      */
     public double weight(int v) {
         assert (contains(v));
-        return weights[indexes[v - ofs]].value();
+        return weights[v - ofs];
     }
 
     /**
@@ -106,6 +85,6 @@ public class StateSparseWeightedSet extends StateSparseSet {
      */
     public void setWeight(int v, double w) {
         assert (contains(v));
-        weights[indexes[v - ofs]].setValue(w);
+        weights[v - ofs] = w;
     }
 }
@@ -69,6 +69,7 @@ public class Trailer implements StateManager {
         return magic;
     }
 
+    @Override
     public void pushState(StateEntry entry) {
         current.push(entry);
     }
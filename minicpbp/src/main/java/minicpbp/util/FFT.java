@@ -0,0 +1,149 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.util;
+
+import java.util.Arrays;
+
+/**
+ * Linear convolution of nonnegative real sequences through a radix-2 fast Fourier transform.
+ * The work arrays are kept from one call to the next.
+ */
+public class FFT {
+
+    private double[] re1 = new double[0];
+    private double[] im1 = new double[0];
+    private double[] re2 = new double[0];
+    private double[] im2 = new double[0];
+    // cos and sin of -2*PI*j/size for j < size/2, size being the length of the work arrays
+    private double[] cos = new double[0];
+    private double[] sin = new double[0];
+
+    /**
+     * Returns the size of the transforms used to convolve sequences of the given lengths.
+     *
+     * @param na the length of the first sequence
+     * @param nb the length of the second sequence
+     * @return the smallest power of two at least {@code na+nb-1}
+     */
+    public static int size(int na, int nb) {
+        return Integer.highestOneBit(Math.max(1, na + nb - 2)) << 1;
+    }
+
+    /**
+     * Returns an estimate of the number of operations of a convolution, in the unit of a multiply-add.
+     *
+     * @param na the length of the first sequence
+     * @param nb the length of the second sequence
+     * @return the estimated cost of {@link #convolve(double[], int, double[], int, double[])}
+     */
+    public static long cost(int na, int nb) {
+        long size = size(na, nb);
+        // three transforms of log(size) rounds of size/2 butterflies, a butterfly being about four multiply-adds
+        return 6 * size * Long.numberOfTrailingZeros(size) + size;
+    }
+
+    /**
+     * Computes the linear convolution {@code c[k] = sum_j a[j]*b[k-j]} for k from 0 to na+nb-2.
+     * As the sequences are nonnegative, the rounding errors (relative to the largest term)
+     * are cleared, leaving entries that are exactly zero in the convolution at zero.
+     *
+     * @param a  the first sequence
+     * @param na its length
+     * @param b  the second sequence
+     * @param nb its length
+     * @param c  the convolution, of length at least na+nb-1
+     */
+    public void convolve(double[] a, int na, double[] b, int nb, double[] c) {
+        int size = size(na, nb);
+        if (re1.length < size) {
+            re1 = new double[size];
+            im1 = new double[size];
+            re2 = new double[size];
+            im2 = new double[size];
+            cos = new double[size / 2];
+            sin = new double[size / 2];
+            for (int j = 0; j < size / 2; j++) {
+                cos[j] = Math.cos(2 * Math.PI * j / size);
+                sin[j] = -Math.sin(2 * Math.PI * j / size);
+            }
+        }
+        double maxA = 0;
+        double maxB = 0;
+        for (int j = 0; j < na; j++) {
+            re1[j] = a[j];
+            maxA = Math.max(maxA, a[j]);
+        }
+        for (int j = 0; j < nb; j++) {
+            re2[j] = b[j];
+            maxB = Math.max(maxB, b[j]);
+        }
+        Arrays.fill(re1, na, size, 0);
+        Arrays.fill(re2, nb, size, 0);
+        Arrays.fill(im1, 0, size, 0);
+        Arrays.fill(im2, 0, size, 0);
+        transform(re1, im1, size, false);
+        transform(re2, im2, size, false);
+        for (int j = 0; j < size; j++) {
+            double re = re1[j] * re2[j] - im1[j] * im2[j];
+            im1[j] = re1[j] * im2[j] + im1[j] * re2[j];
+            re1[j] = re;
+        }
+        transform(re1, im1, size, true);
+        // the error of each entry is within a small multiple of the machine epsilon times log(size) of the largest product
+        double threshold = 1e-13 * maxA * maxB * Math.min(na, nb);
+        for (int k = 0; k < na + nb - 1; k++) {
+            double v = re1[k] / size;
+            c[k] = v > threshold ? v : 0;
+        }
+    }
+
+    // in-place iterative Cooley-Tukey transform of (re,im)[0..size-1], size being a power of two
+    private void transform(double[] re, double[] im, int size, boolean inverse) {
+        for (int i = 1, j = 0; i < size; i++) {
+            int bit = size >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        int tableSize = 2 * cos.length;
+        for (int len = 2; len <= size; len <<= 1) {
+            int step = tableSize / len;
+            for (int i = 0; i < size; i += len) {
+                for (int j = 0; j < len / 2; j++) {
+                    double uRe = cos[j * step];
+                    double uIm = inverse ? -sin[j * step] : sin[j * step];
+                    int p = i + j;
+                    int q = p + len / 2;
+                    double tRe = re[q] * uRe - im[q] * uIm;
+                    double tIm = re[q] * uIm + im[q] * uRe;
+                    re[q] = re[p] - tRe;
+                    im[q] = im[p] - tIm;
+                    re[p] += tRe;
+                    im[p] += tIm;
+                }
+            }
+        }
+    }
+}
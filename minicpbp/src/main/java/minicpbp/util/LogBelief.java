@@ -18,8 +18,6 @@
 
 package minicpbp.util;
 
-import java.util.Arrays;
-
 /**
  * Operations on beliefs/marginals/probabilities
  * Adopting a log-probability representation
@@ -88,13 +86,19 @@ public class LogBelief implements Belief {
 
     public  double summation(double a[], int size) {
 	// see https://en.wikipedia.org/wiki/List_of_logarithmic_identities#Summation/subtraction
- 	Arrays.sort(a,0,size); // need sorted log beliefs in order to sum them
- 	double largestBelief = a[size-1];
+	// (a is left as is: callers read it back, in the order of their domain values)
+ 	int largest = 0;
+	for (int j = 1; j < size; j++) {
+	    if (a[j] > a[largest])
+		largest = j;
+	}
+ 	double largestBelief = a[largest];
 	if (isZero(largestBelief))
 	    return zero();
  	double sum = 0;
-	for (int j = size-2; j>=0; j--) {  // proceed in decreasing order, starting from the 2nd largest
-	    sum += exp(a[j]-largestBelief);
+	for (int j = 0; j < size; j++) {  // relative to the largest belief
+	    if (j != largest)
+		sum += exp(a[j]-largestBelief);
 	}
      	return largestBelief + Math.log1p(sum);
     }
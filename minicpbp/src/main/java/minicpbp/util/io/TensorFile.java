@@ -0,0 +1,192 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.util.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file holding a batch of samples, each made of a sequence of tokens
+ * and of a probability distribution over a vocabulary,
+ * read and written through memory-mapped buffers.
+ * <p>
+ * Layout, little-endian:
+ * <ul>
+ *     <li>a header of {@link #HEADER_INTS} int32: {@link #MAGIC}, number of samples, vocabulary size,
+ *     step (index of the token the distributions are about), number of tokens per sample,
+ *     size of a probability in bytes (4 for float32, 8 for float64);</li>
+ *     <li>the int32 tokens, sample after sample;</li>
+ *     <li>the probabilities, sample after sample.</li>
+ * </ul>
+ */
+public class TensorFile {
+
+    public static final int MAGIC = 0x4250434D; // "MCPB"
+    public static final int HEADER_INTS = 6;
+
+    private final int nbSample;
+    private final int vocabularySize;
+    private final int step;
+    private final int nbTokens;
+    private final int probabilityBytes;
+    private final ByteBuffer buffer;
+
+    private TensorFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a tensor file");
+        nbSample = buffer.getInt(4);
+        vocabularySize = buffer.getInt(8);
+        step = buffer.getInt(12);
+        nbTokens = buffer.getInt(16);
+        probabilityBytes = buffer.getInt(20);
+        if (probabilityBytes != 4 && probabilityBytes != 8)
+            throw new IllegalArgumentException("Probabilities of " + probabilityBytes + " bytes");
+        if (buffer.capacity() < size(nbSample, vocabularySize, nbTokens, probabilityBytes))
+            throw new IllegalArgumentException("Truncated tensor file");
+    }
+
+    /**
+     * Maps a tensor file in memory.
+     *
+     * @param path the path of the file
+     * @return the file, whose content is read lazily
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a tensor file
+     */
+    public static TensorFile map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new TensorFile(buffer);
+        }
+    }
+
+    /**
+     * @param path the path of a file
+     * @return whether the file starts with the magic number of the tensor files
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isTensorFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) ;
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes a tensor file.
+     *
+     * @param path the path of the file, which is overwritten
+     * @param step the index of the token the distributions are about
+     * @param tokens the tokens of each sample, all of the same length, or null if the samples have no tokens
+     * @param probabilities the distribution of each sample, all of the same size, or null if the samples have none
+     * @param probabilityBytes 4 to write the probabilities as float32, 8 as float64
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String path, int step, int[][] tokens, double[][] probabilities, int probabilityBytes) throws IOException {
+        if (probabilityBytes != 4 && probabilityBytes != 8)
+            throw new IllegalArgumentException("Probabilities of " + probabilityBytes + " bytes");
+        int nbSample = tokens != null ? tokens.length : (probabilities != null ? probabilities.length : 0);
+        int nbTokens = tokens != null && nbSample > 0 ? tokens[0].length : 0;
+        int vocabularySize = probabilities != null && nbSample > 0 ? probabilities[0].length : 0;
+        long size = size(nbSample, vocabularySize, nbTokens, probabilityBytes);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(nbSample).putInt(vocabularySize).putInt(step).putInt(nbTokens).putInt(probabilityBytes);
+            for (int j = 0; j < nbSample && nbTokens > 0; j++) {
+                if (tokens[j].length != nbTokens)
+                    throw new IllegalArgumentException("Samples with different numbers of tokens");
+                buffer.asIntBuffer().put(tokens[j]);
+                buffer.position(buffer.position() + 4 * nbTokens);
+            }
+            for (int j = 0; j < nbSample && vocabularySize > 0; j++) {
+                if (probabilities[j].length != vocabularySize)
+                    throw new IllegalArgumentException("Samples with different vocabulary sizes");
+                if (probabilityBytes == 8) {
+                    buffer.asDoubleBuffer().put(probabilities[j]);
+                } else {
+                    for (int v = 0; v < vocabularySize; v++) {
+                        buffer.putFloat(4 * v + buffer.position(), (float) probabilities[j][v]);
+                    }
+                }
+                buffer.position(buffer.position() + probabilityBytes * vocabularySize);
+            }
+            buffer.force();
+        }
+    }
+
+    private static long size(int nbSample, int vocabularySize, int nbTokens, int probabilityBytes) {
+        return HEADER_INTS * 4L + (long) nbSample * (4L * nbTokens + (long) probabilityBytes * vocabularySize);
+    }
+
+    public int getNbSample() {
+        return nbSample;
+    }
+
+    public int getVocabularySize() {
+        return vocabularySize;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getNbTokens() {
+        return nbTokens;
+    }
+
+    public int getProbabilityBytes() {
+        return probabilityBytes;
+    }
+
+    /**
+     * Copies the tokens of a sample.
+     *
+     * @param sample the sample
+     * @param tokens the array receiving the first tokens.length tokens of the sample
+     */
+    public void getTokens(int sample, int[] tokens) {
+        assert (tokens.length <= nbTokens);
+        int pos = HEADER_INTS * 4 + 4 * nbTokens * sample;
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = buffer.getInt(pos + 4 * i);
+        }
+    }
+
+    /**
+     * Copies the distribution of a sample.
+     *
+     * @param sample the sample
+     * @param probabilities the array receiving the vocabularySize probabilities of the sample
+     */
+    public void getProbabilities(int sample, double[] probabilities) {
+        assert (probabilities.length == vocabularySize);
+        long pos = HEADER_INTS * 4L + 4L * nbTokens * nbSample + (long) probabilityBytes * vocabularySize * sample;
+        for (int v = 0; v < vocabularySize; v++) {
+            probabilities[v] = probabilityBytes == 8 ? buffer.getDouble((int) pos + 8 * v) : buffer.getFloat((int) pos + 4 * v);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ *
+ * mini-cpbp, replacing classic propagation by belief propagation
+ * Copyright (c)  2019. by Gilles Pesant
+ */
+
+package minicpbp.engine.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The JDK Flight Recorder events of a {@link Profiler}.
+ * This class is only compiled on JDK 11 or later (profile jfr of the pom),
+ * and loaded reflectively by {@link ProfilerEvents#load()}.
+ */
+final class JfrProfilerEvents extends ProfilerEvents {
+
+    @Name("minicpbp.Propagate")
+    @Label("Propagate")
+    @Category("MiniCP-BP")
+    static class PropagateEvent extends Event {
+        @Label("Constraint")
+        String constraint;
+        @Label("Constraint Class")
+        Class<?> constraintClass;
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+        @Label("Removed Values")
+        long removedValues;
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("minicpbp.UpdateBelief")
+    @Label("Update Belief")
+    @Category("MiniCP-BP")
+    static class UpdateBeliefEvent extends Event {
+        @Label("Constraint")
+        String constraint;
+        @Label("Constraint Class")
+        Class<?> constraintClass;
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("minicpbp.BeliefPropaIteration")
+    @Label("Belief Propagation Iteration")
+    @Category("MiniCP-BP")
+    static class BeliefPropaIterationEvent extends Event {
+        @Label("Iteration")
+        int iteration;
+        @Label("Residual")
+        double residual;
+    }
+
+    @Override
+    void propagate(String constraint, Class<?> constraintClass, long time, long removedValues, boolean failed) {
+        PropagateEvent e = new PropagateEvent();
+        if (e.isEnabled()) {
+            e.constraint = constraint;
+            e.constraintClass = constraintClass;
+            e.time = time;
+            e.removedValues = removedValues;
+            e.failed = failed;
+            e.commit();
+        }
+    }
+
+    @Override
+    void updateBelief(String constraint, Class<?> constraintClass, long time) {
+        UpdateBeliefEvent e = new UpdateBeliefEvent();
+        if (e.isEnabled()) {
+            e.constraint = constraint;
+            e.constraintClass = constraintClass;
+            e.time = time;
+            e.commit();
+        }
+    }
+
+    @Override
+    void beliefPropaIteration(int iteration, double residual) {
+        BeliefPropaIterationEvent e = new BeliefPropaIterationEvent();
+        if (e.isEnabled()) {
+            e.iteration = iteration;
+            e.residual = residual;
+            e.commit();
+        }
+    }
+}
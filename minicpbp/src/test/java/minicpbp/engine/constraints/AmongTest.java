@@ -0,0 +1,63 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.SearchStatistics;
+import org.junit.Test;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class AmongTest extends SolverTest {
+
+    @Test
+    public void testAtleast() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 4, 3);
+        cp.post(atleast(x, new int[]{0, 1}, 3));
+        // no indicator variables: only x and the count
+        assertEquals(5, cp.getVariables().size());
+        cp.fixPoint();
+        cp.beliefPropa();
+        // 16 assignments with four values in {0,1}, 4*8 with three of them
+        assertEquals((8.0 + 12) / 48, x[0].marginal(0), 1e-9);
+        assertEquals(8.0 / 48, x[0].marginal(2), 1e-9);
+
+        x[0].assign(2);
+        cp.fixPoint();
+        for (int i = 1; i < 4; i++) {
+            assertFalse(x[i].contains(2));
+        }
+    }
+
+    @Test
+    public void testSolutions() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 5, 3);
+        cp.post(atmost(x, 0, 1));
+        cp.post(exactly(x, 2, 2));
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+        // 10 placements of the 2s, times 1 + 3 ways to place at most one 0 among the other three
+        assertEquals(40, stats.numberOfSolutions());
+    }
+}
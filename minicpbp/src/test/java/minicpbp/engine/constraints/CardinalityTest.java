@@ -0,0 +1,156 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.SearchStatistics;
+import minicpbp.util.exception.InconsistencyException;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class CardinalityTest extends SolverTest {
+
+    private static final int[] VALS = {0, 2, 3};
+
+    // whether assignment a counts each VALS[j] between oMin[j] and oMax[j] times
+    private static boolean satisfies(int[] a, int[] oMin, int[] oMax) {
+        for (int j = 0; j < VALS.length; j++) {
+            int count = 0;
+            for (int v : a) {
+                if (v == VALS[j])
+                    count++;
+            }
+            if (count < oMin[j] || count > oMax[j])
+                return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void testDomainConsistency() {
+        Random rand = new Random(42);
+        int n = 5;
+        int d = 5;
+        for (int iter = 0; iter < 200; iter++) {
+            Solver cp = solverFactory.get();
+            IntVar[] x = makeIntVarArray(cp, n, d);
+            boolean[][] dom = new boolean[n][d];
+            for (int i = 0; i < n; i++) {
+                for (int v = 0; v < d; v++) {
+                    dom[i][v] = rand.nextInt(3) > 0 || v == i;
+                    if (!dom[i][v])
+                        x[i].remove(v);
+                }
+            }
+            int[] oMin = new int[VALS.length];
+            int[] oMax = new int[VALS.length];
+            IntVar[] o = new IntVar[VALS.length];
+            for (int j = 0; j < VALS.length; j++) {
+                oMin[j] = rand.nextInt(3);
+                oMax[j] = oMin[j] + rand.nextInt(2);
+                o[j] = makeIntVar(cp, oMin[j], oMax[j]);
+            }
+
+            // the supports of each value, by enumeration
+            boolean[][] supported = Enumeration.supports(n, d, dom, a -> satisfies(a, oMin, oMax));
+
+            try {
+                cp.post(cardinality(x, VALS, o));
+                cp.fixPoint();
+                assertNotNull(supported);
+                Enumeration.assertDomains(supported, x);
+            } catch (InconsistencyException e) {
+                assertNull(supported);
+            }
+        }
+    }
+
+    @Test
+    public void testSolutions() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 6, 4);
+        cp.post(cardinality(x, VALS, new int[]{2, 1, 2}));
+        // no indicator variables: only x and the counts
+        assertEquals(9, cp.getVariables().size());
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+        // 6!/(2!1!2!1!) assignments with one variable taking value 1
+        assertEquals(180, stats.numberOfSolutions());
+    }
+
+    @Test
+    public void testMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 4, 4);
+        cp.post(cardinality(x, new int[]{2}, new int[]{2}));
+        cp.fixPoint();
+        cp.beliefPropa();
+        // two variables take value 2, the other two one of three values
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0.5, x[i].marginal(2), 1e-9);
+            assertEquals(1.0 / 6, x[i].marginal(0), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMarginalsOfSeveralValues() {
+        Solver cp = solverFactory.get();
+        int n = 5;
+        int d = 4;
+        IntVar[] x = makeIntVarArray(cp, n, d);
+        x[0].remove(0);
+        x[1].remove(3);
+        int[] oMin = {1, 0, 1};
+        int[] oMax = {2, 2, 3};
+        IntVar[] o = new IntVar[VALS.length];
+        for (int j = 0; j < VALS.length; j++) {
+            o[j] = makeIntVar(cp, oMin[j], oMax[j]);
+        }
+        cp.post(cardinality(x, VALS, o));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        Enumeration.assertMarginals(x, d, a -> satisfies(a, oMin, oMax));
+        double[][] exactO = new double[VALS.length][n + 1];
+        int nbSolutions = Enumeration.count(n, d, Enumeration.domains(x, d), a -> {
+            if (!satisfies(a, oMin, oMax))
+                return false;
+            for (int j = 0; j < VALS.length; j++) {
+                int count = 0;
+                for (int v : a) {
+                    if (v == VALS[j])
+                        count++;
+                }
+                exactO[j][count]++;
+            }
+            return true;
+        });
+        for (int j = 0; j < VALS.length; j++) {
+            for (int c = 0; c <= n; c++) {
+                assertEquals(exactO[j][c] / nbSolutions, o[j].contains(c) ? o[j].marginal(c) : 0, 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.SearchStatistics;
+import minicpbp.util.exception.InconsistencyException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class CostRegularTest extends SolverTest {
+
+    private static final List<Integer> FINAL = Arrays.asList(1, 2);
+
+    // the cost of word a if automaton A recognizes it from state 0, -1 otherwise
+    private static int cost(int[][] A, int[][] c, int[] a) {
+        int state = 0;
+        int total = 0;
+        for (int v : a) {
+            total += c[state][v];
+            state = A[state][v];
+            if (state < 0)
+                return -1;
+        }
+        return FINAL.contains(state) ? total : -1;
+    }
+
+    @Test
+    public void testSupportsKept() {
+        Random rand = new Random(42);
+        int n = 5;
+        int d = 3;
+        int nbStates = 3;
+        for (int iter = 0; iter < 200; iter++) {
+            int[][] A = new int[nbStates][d];
+            int[][] c = new int[nbStates][d];
+            for (int k = 0; k < nbStates; k++) {
+                for (int v = 0; v < d; v++) {
+                    A[k][v] = rand.nextInt(4) > 0 ? rand.nextInt(nbStates) : -1;
+                    c[k][v] = rand.nextInt(4);
+                }
+            }
+            int lo = rand.nextInt(8);
+            int hi = lo + rand.nextInt(4);
+
+            // the supports of each value and the feasible costs, by enumeration
+            int[] minCost = {Integer.MAX_VALUE};
+            int[] maxCost = {Integer.MIN_VALUE};
+            boolean[][] supported = Enumeration.supports(n, d, null, a -> {
+                int cost = cost(A, c, a);
+                if (cost < lo || cost > hi)
+                    return false;
+                minCost[0] = Math.min(minCost[0], cost);
+                maxCost[0] = Math.max(maxCost[0], cost);
+                return true;
+            });
+
+            Solver cp = solverFactory.get();
+            IntVar[] x = makeIntVarArray(cp, n, d);
+            IntVar tc = makeIntVar(cp, lo, hi);
+            try {
+                cp.post(costRegular(x, A, 0, FINAL, c, tc));
+                // the cost windows are a relaxation: an infeasible instance may not be detected
+                if (supported != null) {
+                    for (int j = 0; j < n; j++) {
+                        for (int v = 0; v < d; v++) {
+                            if (supported[j][v])
+                                assertTrue(x[j].contains(v));
+                        }
+                    }
+                    assertTrue(tc.min() <= minCost[0]);
+                    assertTrue(tc.max() >= maxCost[0]);
+                }
+            } catch (InconsistencyException e) {
+                assertNull(supported);
+            }
+        }
+    }
+
+    @Test
+    public void testSolutions() {
+        Random rand = new Random(7);
+        int n = 5;
+        int d = 3;
+        int[][] A = {{1, 0, 2}, {2, -1, 0}, {0, 1, -1}};
+        int[][] c = new int[3][d];
+        for (int[] row : c) {
+            for (int v = 0; v < d; v++) {
+                row[v] = rand.nextInt(3);
+            }
+        }
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, n, d);
+        cp.post(costRegular(x, A, 0, FINAL, c, makeIntVar(cp, 3, 5)));
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+
+        int nbSolutions = Enumeration.count(n, d, null, a -> {
+            int cost = cost(A, c, a);
+            return cost >= 3 && cost <= 5;
+        });
+        assertEquals(nbSolutions, stats.numberOfSolutions());
+    }
+
+    @Test
+    public void testMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 2);
+        // state k: k ones read so far (2 for two or more)
+        int[][] A = {{0, 1}, {1, 2}, {2, 2}};
+        IntVar tc = makeIntVar(cp, 0, 1);
+        cp.post(costRegular(x, A, Arrays.asList(0, 1, 2), new int[]{0, 1}, tc));
+        cp.fixPoint();
+        cp.beliefPropa();
+        // no arc of state 2 is in the cost window: 000, 001, 010, 100
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0.25, x[i].marginal(1), 1e-9);
+        }
+
+        // the path lengths computed below are not reused once backtracked
+        cp.getStateManager().saveState();
+        x[0].assign(1);
+        cp.fixPoint();
+        assertFalse(x[1].contains(1));
+        cp.getStateManager().restoreState();
+        cp.beliefPropa();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0.25, x[i].marginal(1), 1e-9);
+        }
+    }
+
+    @Test
+    public void testPathsAcrossSearchNodes() {
+        int n = 5;
+        int d = 3;
+        int maxCost = 6;
+        // state k: cost k read so far (maxCost+1 beyond), so that the beliefs within the cost windows are exact
+        int[][] A = new int[maxCost + 2][d];
+        int[][] c = new int[maxCost + 2][d];
+        List<Integer> f = new ArrayList<>();
+        for (int k = 0; k <= maxCost + 1; k++) {
+            for (int v = 0; v < d; v++) {
+                A[k][v] = Math.min(k + v, maxCost + 1);
+                c[k][v] = v;
+            }
+            f.add(k);
+        }
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, n, d);
+        IntVar tc = makeIntVar(cp, 3, 5);
+        cp.post(costRegular(x, A, 0, f, c, tc));
+        Predicate<int[]> inWindow = a -> {
+            int cost = Arrays.stream(a).sum();
+            return cost >= tc.min() && cost <= tc.max();
+        };
+
+        // the path lengths of the propagation are reused by the BP of the same node
+        cp.fixPoint();
+        cp.beliefPropa();
+        Enumeration.assertMarginals(x, d, inWindow);
+
+        cp.getStateManager().saveState();
+        x[0].remove(0);
+        tc.removeAbove(4);
+        cp.fixPoint();
+        cp.beliefPropa();
+        Enumeration.assertMarginals(x, d, inWindow);
+
+        // and recomputed once those of the child node are backtracked
+        cp.getStateManager().restoreState();
+        cp.beliefPropa();
+        Enumeration.assertMarginals(x, d, inWindow);
+
+        // or reused by a child node, whose windows they contain
+        cp.getStateManager().saveState();
+        x[1].remove(2);
+        cp.beliefPropa();
+        Enumeration.assertMarginals(x, d, inWindow);
+        cp.getStateManager().restoreState();
+        cp.beliefPropa();
+        Enumeration.assertMarginals(x, d, inWindow);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.core.IntVar;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Brute-force enumeration of the assignments of a few variables with small domains {0..d-1},
+ * against which the filtering, the number of solutions and the marginals of a constraint are checked.
+ */
+final class Enumeration {
+
+    private Enumeration() {
+    }
+
+    /**
+     * Calls the action on each assignment of n variables to values 0..d-1 of their domains.
+     * The assignment array is reused from one call to the next.
+     *
+     * @param dom dom[i][v] iff v is in the domain of variable i, null for the full domains
+     */
+    static void forEach(int n, int d, boolean[][] dom, Consumer<int[]> action) {
+        int[] a = new int[n];
+        for (int k = 0; k < Math.pow(d, n); k++) {
+            boolean inDomains = true;
+            for (int i = 0, r = k; i < n; i++, r /= d) {
+                a[i] = r % d;
+                inDomains &= dom == null || dom[i][a[i]];
+            }
+            if (inDomains)
+                action.accept(a);
+        }
+    }
+
+    /**
+     * @return the number of solutions in the domains
+     */
+    static int count(int n, int d, boolean[][] dom, Predicate<int[]> solution) {
+        int[] count = {0};
+        forEach(n, d, dom, a -> {
+            if (solution.test(a))
+                count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * @return supported[i][v] iff a solution in the domains assigns v to variable i, null if there is no solution
+     */
+    static boolean[][] supports(int n, int d, boolean[][] dom, Predicate<int[]> solution) {
+        boolean[][] supported = new boolean[n][d];
+        boolean[] consistent = {false};
+        forEach(n, d, dom, a -> {
+            if (solution.test(a)) {
+                consistent[0] = true;
+                for (int i = 0; i < n; i++) {
+                    supported[i][a[i]] = true;
+                }
+            }
+        });
+        return consistent[0] ? supported : null;
+    }
+
+    /**
+     * @return the domains of the variables, among values 0..d-1
+     */
+    static boolean[][] domains(IntVar[] x, int d) {
+        boolean[][] dom = new boolean[x.length][d];
+        for (int i = 0; i < x.length; i++) {
+            for (int v = 0; v < d; v++) {
+                dom[i][v] = x[i].contains(v);
+            }
+        }
+        return dom;
+    }
+
+    /**
+     * Asserts that the domains of the variables are the given ones, among values 0..d-1.
+     */
+    static void assertDomains(boolean[][] dom, IntVar[] x) {
+        for (int i = 0; i < x.length; i++) {
+            for (int v = 0; v < dom[i].length; v++) {
+                assertEquals(dom[i][v], x[i].contains(v));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the marginals of the variables are the exact ones, over the solutions in their current domains
+     * (a value out of its domain having a zero marginal).
+     */
+    static void assertMarginals(IntVar[] x, int d, Predicate<int[]> solution) {
+        int n = x.length;
+        double[][] exact = new double[n][d];
+        int nbSolutions = count(n, d, domains(x, d), a -> {
+            if (!solution.test(a))
+                return false;
+            for (int i = 0; i < n; i++) {
+                exact[i][a[i]]++;
+            }
+            return true;
+        });
+        for (int i = 0; i < n; i++) {
+            for (int v = 0; v < d; v++) {
+                assertEquals(exact[i][v] / nbSolutions, x[i].contains(v) ? x[i].marginal(v) : 0, 1e-9);
+            }
+        }
+    }
+}
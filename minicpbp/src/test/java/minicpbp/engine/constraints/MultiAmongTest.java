@@ -0,0 +1,242 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Profiler;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.SearchStatistics;
+import org.junit.Test;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class MultiAmongTest extends SolverTest {
+
+    private static final int[][] V = {{0}, {1, 2}};
+
+    // the nb of occurrences of the values in a
+    private static int count(int[] a, int[] values) {
+        int count = 0;
+        for (int v : a) {
+            for (int w : values) {
+                if (v == w)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // the assignments of x, which all have the same domain 0..d-1 (the k-th one in lexicographic order)
+    private static int[] assignment(int k, int n, int d) {
+        int[] a = new int[n];
+        for (int i = n - 1; i >= 0; i--, k /= d) {
+            a[i] = k % d;
+        }
+        return a;
+    }
+
+    @Test
+    public void testPropagate() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 4, 4);
+        IntVar[] o = new IntVar[]{makeIntVar(cp, 0, 0), makeIntVar(cp, 3, 4)};
+        x[0].assign(3);
+        cp.post(among(x, V, o));
+        cp.fixPoint();
+        // no 0 and the three unbound variables in {1,2}
+        assertEquals(3, o[1].min());
+        assertEquals(3, o[1].max());
+        for (int i = 1; i < 4; i++) {
+            assertEquals(2, x[i].size());
+            assertFalse(x[i].contains(0));
+            assertFalse(x[i].contains(3));
+        }
+    }
+
+    @Test
+    public void testSolutions() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        IntVar[] o = new IntVar[]{makeIntVar(cp, 1, 2), makeIntVar(cp, 0, 2)};
+        cp.post(among(x, V, o));
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+
+        int nbSolutions = 0;
+        for (int k = 0; k < 1024; k++) {
+            int[] a = assignment(k, 5, 4);
+            int c0 = count(a, V[0]);
+            int c1 = count(a, V[1]);
+            if (c0 >= 1 && c0 <= 2 && c1 <= 2)
+                nbSolutions++;
+        }
+        assertEquals(nbSolutions, stats.numberOfSolutions());
+    }
+
+    @Test
+    public void testExactMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        x[0].remove(1);
+        IntVar o = makeIntVar(cp, 1, 2);
+        cp.post(among(x, new int[][]{V[1]}, new IntVar[]{o}));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        double[][] exact = new double[5][4];
+        double[] exactO = new double[3];
+        int nbSolutions = 0;
+        for (int k = 0; k < 1024; k++) {
+            int[] a = assignment(k, 5, 4);
+            int c = count(a, V[1]);
+            if (a[0] != 1 && c >= 1 && c <= 2) {
+                nbSolutions++;
+                exactO[c]++;
+                for (int i = 0; i < 5; i++) {
+                    exact[i][a[i]]++;
+                }
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            for (int v = 0; v < 4; v++) {
+                assertEquals(exact[i][v] / nbSolutions, x[i].contains(v) ? x[i].marginal(v) : 0, 1e-9);
+            }
+        }
+        for (int c = 1; c <= 2; c++) {
+            assertEquals(exactO[c] / nbSolutions, o.marginal(c), 1e-9);
+        }
+
+        // the bound variables are eliminated from the counts
+        cp.getStateManager().saveState();
+        x[4].assign(2);
+        x[3].assign(0);
+        cp.fixPoint();
+        cp.beliefPropa();
+        // at most one of x[0..2] takes a value in {1,2}: 28 solutions
+        assertEquals(12.0 / 28, x[0].marginal(0), 1e-9);
+        assertEquals(10.0 / 28, x[1].marginal(0), 1e-9);
+        assertEquals(4.0 / 28, x[1].marginal(1), 1e-9);
+        assertEquals(1.0, o.marginal(1) + o.marginal(2), 1e-9);
+        cp.getStateManager().restoreState();
+    }
+
+    @Test
+    public void testJointMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        x[0].remove(1);
+        x[2].remove(0);
+        IntVar[] o = new IntVar[]{makeIntVar(cp, 1, 2), makeIntVar(cp, 0, 2)};
+        cp.post(among(x, V, o));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        // the counts of the two sets are not independent: the marginals are those of the joint counts
+        double[][] exact = new double[5][4];
+        double[][] exactO = new double[2][3];
+        int nbSolutions = 0;
+        for (int k = 0; k < 1024; k++) {
+            int[] a = assignment(k, 5, 4);
+            int c0 = count(a, V[0]);
+            int c1 = count(a, V[1]);
+            if (a[0] != 1 && a[2] != 0 && c0 >= 1 && c0 <= 2 && c1 <= 2) {
+                nbSolutions++;
+                exactO[0][c0]++;
+                exactO[1][c1]++;
+                for (int i = 0; i < 5; i++) {
+                    exact[i][a[i]]++;
+                }
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            for (int v = 0; v < 4; v++) {
+                assertEquals(exact[i][v] / nbSolutions, x[i].contains(v) ? x[i].marginal(v) : 0, 1e-9);
+            }
+        }
+        for (int j = 0; j < 2; j++) {
+            for (int c = 0; c <= 2; c++) {
+                assertEquals(exactO[j][c] / nbSolutions, o[j].contains(c) ? o[j].marginal(c) : 0, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testFusedMarginals() {
+        Solver cp = solverFactory.get();
+        cp.setFuseConstraints(true);
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        cp.post(atleast(x, V[0], 2));
+        cp.post(atmost(x, V[1], 1));
+        cp.post(atmost(x, new int[]{3}, 1));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        // a single constraint doing exact weighted counting: the marginals are exact
+        double[][] exact = new double[5][4];
+        int nbSolutions = 0;
+        for (int k = 0; k < 1024; k++) {
+            int[] a = assignment(k, 5, 4);
+            if (count(a, V[0]) >= 2 && count(a, V[1]) <= 1 && count(a, new int[]{3}) <= 1) {
+                nbSolutions++;
+                for (int i = 0; i < 5; i++) {
+                    exact[i][a[i]]++;
+                }
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            for (int v = 0; v < 4; v++) {
+                assertEquals(exact[i][v] / nbSolutions, x[i].marginal(v), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testFusion() {
+        Solver cp = solverFactory.get();
+        cp.setFuseConstraints(true);
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        IntVar o = makeIntVar(cp, 1, 2);
+        cp.post(among(x, V[0], o));
+        cp.post(notEqual(x[0], x[1]));
+        cp.post(atmost(x, V[1], 2));
+        cp.post(exactly(x, 3, 2));
+        // no indicator variables
+        assertEquals(8, cp.getVariables().size());
+        Profiler profiler = new Profiler();
+        cp.setProfiler(profiler);
+        cp.fixPoint();
+        cp.beliefPropa();
+        // a single constraint for the three among constraints
+        assertEquals(2, profiler.constraintProfiles().size());
+        assertEquals(cp.beliefPropaIterations(), profiler.constraintProfile("MultiAmong", MultiAmong.class).beliefUpdates());
+
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+        int nbSolutions = 0;
+        for (int k = 0; k < 1024; k++) {
+            int[] a = assignment(k, 5, 4);
+            int c0 = count(a, V[0]);
+            if (a[0] != a[1] && c0 >= 1 && c0 <= 2 && count(a, V[1]) <= 2 && count(a, new int[]{3}) == 2)
+                nbSolutions++;
+        }
+        assertEquals(nbSolutions, stats.numberOfSolutions());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import org.junit.Test;
+
+import java.nio.DoubleBuffer;
+
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class OracleTest extends SolverTest {
+
+    private static final double EPS = 1e-9;
+
+    private static void assertMarginals(IntVar x, double... m) {
+        for (int v = 0; v < m.length; v++) {
+            assertEquals(m[v], x.marginal(v), EPS);
+        }
+    }
+
+    @Test
+    public void oracle1() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        cp.post(new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4}));
+        cp.beliefPropa();
+        assertMarginals(x, 0.1, 0.2, 0.3, 0.4);
+    }
+
+    @Test
+    public void setMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        Oracle oracle = new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4});
+        cp.post(oracle);
+
+        oracle.setMarginals(new int[]{1, 2}, new double[]{0.25, 0.75});
+        cp.beliefPropa();
+        assertMarginals(x, 0, 0.25, 0.75, 0);
+
+        // slice of an array indexed by value
+        oracle.setMarginals(new double[]{9, 9, 0.4, 0.3, 0.2, 0.1}, 2);
+        cp.beliefPropa();
+        assertMarginals(x, 0.4, 0.3, 0.2, 0.1);
+
+        // slice of a buffer, values outside the slice getting a zero marginal
+        DoubleBuffer buffer = DoubleBuffer.wrap(new double[]{9, 0.5, 0.5});
+        oracle.setMarginals(buffer, 1);
+        cp.beliefPropa();
+        assertMarginals(x, 0.5, 0.5, 0, 0);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void setVariable() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 5);
+        Oracle oracle = new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4});
+        cp.post(oracle);
+        cp.beliefPropa();
+        assertMarginals(x, 0.1, 0.2, 0.3, 0.4);
+
+        oracle.setVariable(y);
+        assertSame(y, oracle.getVariable());
+        oracle.setMarginals(new double[]{0, 0, 0, 0, 0.5, 0.5}, 0);
+        cp.beliefPropa();
+        assertMarginals(x, 0.25, 0.25, 0.25, 0.25);
+        assertMarginals(y, 0, 0, 0, 0, 0.5, 0.5);
+    }
+
+    @Test
+    public void setVariableAfterBoundVariable() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        Oracle oracle = new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4});
+        cp.post(oracle);
+
+        cp.getStateManager().saveState();
+        x.assign(2);
+        cp.beliefPropa(); // eliminates x from the scope
+        cp.getStateManager().saveState();
+        oracle.setVariable(y);
+        oracle.setMarginals(new double[]{0.4, 0.3, 0.2, 0.1}, 0);
+        cp.beliefPropa();
+        assertMarginals(y, 0.4, 0.3, 0.2, 0.1);
+
+        // back to the state in which the replaced variable was eliminated
+        cp.getStateManager().restoreState();
+        oracle.setMarginals(new double[]{0.1, 0.1, 0.1, 0.7}, 0);
+        cp.beliefPropa();
+        assertMarginals(y, 0.1, 0.1, 0.1, 0.7);
+    }
+
+    @Test
+    public void trailedWeight() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 1);
+        Oracle oracle = new Oracle(x, new int[]{0, 1}, new double[]{0.2, 0.8});
+        cp.post(oracle);
+
+        cp.getStateManager().saveState();
+        oracle.setWeight(0);
+        cp.beliefPropa();
+        assertMarginals(x, 0.5, 0.5);
+
+        oracle.setWeight(2);
+        cp.beliefPropa();
+        assertMarginals(x, 0.04 / 0.68, 0.64 / 0.68);
+
+        cp.getStateManager().restoreState();
+        assertEquals(1, oracle.weight(), 0);
+        cp.beliefPropa();
+        assertMarginals(x, 0.2, 0.8);
+    }
+}
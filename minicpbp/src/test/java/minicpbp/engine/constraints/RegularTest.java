@@ -0,0 +1,123 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.constraints;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.core.IntVar;
+import minicpbp.engine.core.Solver;
+import minicpbp.search.DFSearch;
+import minicpbp.search.SearchStatistics;
+import minicpbp.util.exception.InconsistencyException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static minicpbp.cp.BranchingScheme.firstFail;
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class RegularTest extends SolverTest {
+
+    // whether the automaton A recognizes a from state 0, its accepting states being in f
+    private static boolean accepts(int[][] A, List<Integer> f, int[] a) {
+        int state = 0;
+        for (int v : a) {
+            state = A[state][v];
+            if (state < 0)
+                return false;
+        }
+        return f.contains(state);
+    }
+
+    @Test
+    public void testDomainConsistency() {
+        Random rand = new Random(42);
+        int n = 5;
+        int d = 3;
+        int nbStates = 4;
+        List<Integer> f = Arrays.asList(1, 3);
+        for (int iter = 0; iter < 200; iter++) {
+            int[][] A = new int[nbStates][d];
+            for (int k = 0; k < nbStates; k++) {
+                for (int v = 0; v < d; v++) {
+                    A[k][v] = rand.nextInt(3) > 0 ? rand.nextInt(nbStates) : -1;
+                }
+            }
+            Solver cp = solverFactory.get();
+            IntVar[] x = makeIntVarArray(cp, n, d);
+            try {
+                cp.post(regular(x, A, f));
+                // removals after the post, to exercise the incremental updates
+                cp.getStateManager().saveState();
+                boolean[][] dom = Enumeration.domains(x, d);
+                int i = rand.nextInt(n);
+                int v = rand.nextInt(d);
+                boolean removed = dom[i][v];
+                dom[i][v] = false;
+
+                // the supports of each value, by enumeration
+                boolean[][] supported = Enumeration.supports(n, d, dom, a -> accepts(A, f, a));
+
+                try {
+                    x[i].remove(v);
+                    cp.fixPoint();
+                    assertNotNull(supported);
+                    Enumeration.assertDomains(supported, x);
+                } catch (InconsistencyException e) {
+                    assertNull(supported);
+                }
+                cp.getStateManager().restoreState();
+                for (int j = 0; j < n; j++) {
+                    for (int w = 0; w < d; w++) {
+                        assertEquals(dom[j][w] || (removed && j == i && w == v), x[j].contains(w));
+                    }
+                }
+            } catch (InconsistencyException e) {
+                // no word of length n is recognized
+            }
+        }
+    }
+
+    @Test
+    public void testSolutions() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 6, 2);
+        // words without two consecutive 1s
+        int[][] A = {{0, 1}, {0, -1}};
+        cp.post(regular(x, A, 0, Arrays.asList(0, 1)));
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        SearchStatistics stats = dfs.solve();
+        // the Fibonacci number F(8)
+        assertEquals(21, stats.numberOfSolutions());
+    }
+
+    @Test
+    public void testMarginals() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 2);
+        int[][] A = {{0, 1}, {0, -1}};
+        cp.post(regular(x, A, 0, Arrays.asList(0, 1)));
+        cp.fixPoint();
+        cp.beliefPropa();
+        // 000, 001, 010, 100, 101
+        assertEquals(2.0 / 5, x[0].marginal(1), 1e-9);
+        assertEquals(1.0 / 5, x[1].marginal(1), 1e-9);
+        assertEquals(2.0 / 5, x[2].marginal(1), 1e-9);
+    }
+}
@@ -19,8 +19,10 @@ import minicpbp.cp.Factory;
 import minicpbp.engine.SolverTest;
 import minicpbp.engine.core.IntVar;
 import minicpbp.engine.core.Solver;
+import minicpbp.engine.core.SolverConfig;
 import minicpbp.search.DFSearch;
 import minicpbp.search.SearchStatistics;
+import minicpbp.util.LogBelief;
 import minicpbp.util.exception.InconsistencyException;
 import minicpbp.util.exception.IntOverFlowException;
 import minicpbp.util.exception.NotImplementedException;
@@ -269,28 +271,27 @@ public class SumTest extends SolverTest {
         assertTrue(failed);
     }
 
-// TODO Test with big integers, not handled with the current version of Sum due to modif brought by belief propagation
-//    @Test
-//    public void sum11() {
-//
-//        try {
-//            Solver cp = solverFactory.get();
-//
-//            IntVar x = makeIVar(cp, -2147483645, -2147483639, -2147483637);
-//            IntVar y = makeIVar(cp, -2147483645, -2147483638);
-//
-//            boolean failed = false;
-//            try {
-//                cp.post(Factory.sum(new IntVar[]{x}, y),true);
-//            } catch (InconsistencyException e) {
-//                failed = true;
-//            }
-//            assertFalse(failed);
-//
-//        } catch (NotImplementedException e) {
-//            NotImplementedExceptionAssume.fail(e);
-//        }
-//    }
+    @Test
+    public void sum11() {
+
+        try {
+            Solver cp = solverFactory.get();
+
+            IntVar x = makeIVar(cp, -2147483645, -2147483639, -2147483637);
+            IntVar y = makeIVar(cp, -2147483645, -2147483638);
+
+            boolean failed = false;
+            try {
+                cp.post(Factory.sum(new IntVar[]{x}, y),true);
+            } catch (InconsistencyException e) {
+                failed = true;
+            }
+            assertFalse(failed);
+
+        } catch (NotImplementedException e) {
+            NotImplementedExceptionAssume.fail(e);
+        }
+    }
 
     @Test
     public void sum12() {
@@ -339,4 +340,118 @@ public class SumTest extends SolverTest {
 //    }
 
 
+
+    @Test
+    public void testWideDomainMarginals() {
+        // wide layers, convolved through an FFT with the standard representation of beliefs
+        int k = 3000;
+        for (Solver cp : new Solver[]{solverFactory.get(), Factory.makeSolver(new SolverConfig().setBeliefRep(new LogBelief()))}) {
+            IntVar[] x = Factory.makeIntVarArray(cp, 3, k + 1);
+            cp.post(new Sum(x, k));
+            cp.fixPoint();
+            cp.beliefPropa();
+            // (k-v+1) of the (k+1)(k+2)/2 solutions have x[0] = v
+            double nbSolutions = (k + 1) * (k + 2) / 2.0;
+            for (int v : new int[]{0, 1, 1500, 2999, 3000}) {
+                assertEquals((k - v + 1) / nbSolutions, cp.getBeliefRep().rep2std(x[0].marginal(v)), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testWideDomainTinyBeliefNotRemoved() {
+        // x[0] = k only with x[1] = x[2] = 0, whose beliefs are tiny: acting on zero beliefs must keep it
+        int k = 3000;
+        Solver cp = Factory.makeSolver(new SolverConfig().setActOnZeroOneBelief(true));
+        IntVar[] x = Factory.makeIntVarArray(cp, 3, k + 1);
+        int[] values = new int[k + 1];
+        double[] tiny = new double[k + 1];
+        for (int v = 0; v <= k; v++) {
+            values[v] = v;
+            tiny[v] = v == 0 ? 1e-15 : 1.0 / k;
+        }
+        cp.post(new Oracle(x[1], values, tiny));
+        cp.post(new Oracle(x[2], values, tiny));
+        cp.post(new Sum(x, k));
+        cp.fixPoint();
+        cp.beliefPropa();
+        assertTrue(x[0].contains(k));
+        assertTrue(x[0].marginal(k) > 0);
+    }
+
+    @Test
+    public void testWeightedSumMarginals() {
+        // few reachable partial sums in wide ranges, in hashed tables
+        Solver cp = solverFactory.get();
+        int[] c = {1000, 1001, 1003, 1007, 1013, 1021};
+        IntVar[] x = Factory.makeIntVarArray(cp, c.length, 2);
+        IntVar y = makeIntVar(cp, 3000, 4100);
+        cp.post(Factory.sum(c, x, y));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        double[] exact = new double[c.length];
+        int nbSolutions = 0;
+        int nbSolutions4011 = 0;
+        for (int a = 0; a < 1 << c.length; a++) {
+            int total = 0;
+            for (int i = 0; i < c.length; i++) {
+                total += ((a >> i) & 1) * c[i];
+            }
+            if (total >= 3000 && total <= 4100) {
+                nbSolutions++;
+                if (total == 4011)
+                    nbSolutions4011++;
+                for (int i = 0; i < c.length; i++) {
+                    exact[i] += (a >> i) & 1;
+                }
+            }
+        }
+        for (int i = 0; i < c.length; i++) {
+            assertEquals(exact[i] / nbSolutions, x[i].marginal(1), 1e-9);
+        }
+        assertEquals((double) nbSolutions4011 / nbSolutions, y.marginal(4011), 1e-9);
+        assertEquals(0, y.marginal(3000), 1e-9);
+    }
+
+    @Test
+    public void testMomentMatchedMarginals() {
+        // too many partial sums for an exact computation
+        Solver cp = solverFactory.get();
+        int n = 25;
+        int[] c = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            c[i] = 100000 + 37 * i;
+            total += c[i];
+        }
+        // a target far from the mean total/2 of the sum, about one standard deviation above it
+        int target = 3 * total / 5;
+        IntVar[] x = Factory.makeIntVarArray(cp, n, 2);
+        cp.post(Factory.sum(c, x, target));
+        cp.fixPoint();
+        cp.beliefPropa();
+        double expectedSum = 0;
+        for (int i = 0; i < n; i++) {
+            // normal approximation of the sum of the other (uniform) variables:
+            // mean (total-c[i])/2, variance sum_{j != i} c[j]^2/4
+            double otherMean = (total - c[i]) / 2.0;
+            double otherVariance = 0;
+            for (int j = 0; j < n; j++) {
+                if (j != i)
+                    otherVariance += c[j] * (double) c[j] / 4;
+            }
+            double d0 = target - otherMean;
+            double d1 = target - c[i] - otherMean;
+            double p1 = 1 / (1 + Math.exp((d1 * d1 - d0 * d0) / (2 * otherVariance)));
+            assertEquals(p1, x[i].marginal(1), 1e-6);
+            // shifted towards 1, by about 0.1
+            assertTrue(x[i].marginal(1) > 0.55 && x[i].marginal(1) < 0.65);
+            if (i > 0)
+                assertTrue(x[i].marginal(1) > x[i - 1].marginal(1)); // larger coefficients are shifted more
+            expectedSum += c[i] * x[i].marginal(1);
+        }
+        // the sum under the marginals is close to the target
+        assertEquals(target, expectedSum, 0.01 * target);
+    }
 }
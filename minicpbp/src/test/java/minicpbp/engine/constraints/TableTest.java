@@ -119,6 +119,75 @@ public class TableTest extends SolverTest {
     }
 
 
+    @Test
+    public void randomLargeTest() {
+        Random rand = new Random(4271);
+
+        // several words of tuples for the current table of TableCT
+        for (int i = 0; i < 20; i++) {
+            int[][] tuples1 = randomTuples(rand, 3, 300, 0, 9);
+            int[][] tuples2 = randomTuples(rand, 3, 200, 0, 9);
+            int[][] tuples3 = randomTuples(rand, 3, 150, 0, 9);
+            testTable(TableCT::new, tuples1, tuples2, tuples3);
+        }
+    }
+
+    @Test
+    public void testMarginals() {
+        Random rand = new Random(1234);
+        // about half of the 216 distinct tuples
+        boolean[][][] inTable = new boolean[6][6][6];
+        List<int[]> tuples = new ArrayList<>();
+        for (int a = 0; a < 6; a++) {
+            for (int b = 0; b < 6; b++) {
+                for (int c = 0; c < 6; c++) {
+                    if (rand.nextBoolean()) {
+                        inTable[a][b][c] = true;
+                        tuples.add(new int[]{a, b, c});
+                    }
+                }
+            }
+        }
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 6);
+        cp.post(new TableCT(x, tuples.toArray(new int[0][])));
+        x[0].remove(2);
+        x[1].removeAbove(3);
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        // the marginals are the frequencies of the values among the tuples in the domains
+        boolean[][][] inDomains = new boolean[6][6][6];
+        for (int a = 0; a < 6; a++) {
+            for (int b = 0; b < 6; b++) {
+                for (int c = 0; c < 6; c++) {
+                    inDomains[a][b][c] = inTable[a][b][c] && x[0].contains(a) && x[1].contains(b) && x[2].contains(c);
+                }
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            for (int v = 0; v < 6; v++) {
+                int count = 0;
+                int total = 0;
+                for (int a = 0; a < 6; a++) {
+                    for (int b = 0; b < 6; b++) {
+                        for (int c = 0; c < 6; c++) {
+                            if (inDomains[a][b][c]) {
+                                total++;
+                                if (new int[]{a, b, c}[i] == v)
+                                    count++;
+                            }
+                        }
+                    }
+                }
+                if (x[i].contains(v))
+                    assertEquals((double) count / total, x[i].marginal(v), 1e-9);
+                else
+                    assertEquals(0, count);
+            }
+        }
+    }
+
     public void testTable(BiFunction<IntVar[], int[][], Constraint> tc, int[][] t1, int[][] t2, int[][] t3) {
 
         SearchStatistics statsDecomp;
@@ -16,13 +16,22 @@
 package minicpbp.engine.core;
 
 import minicpbp.engine.SolverTest;
+import minicpbp.engine.constraints.Oracle;
 import minicpbp.search.DFSearch;
 import minicpbp.search.SearchStatistics;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
 import static minicpbp.cp.BranchingScheme.*;
 import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 
 public class MiniCPTest extends SolverTest {
@@ -74,5 +83,457 @@ public class MiniCPTest extends SolverTest {
         assertEquals ((8 + 4 + 2),stats.numberOfNodes());
     }
 
+    @Test
+    public void testBranchingPostsNoConstraint() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 3);
+        cp.post(notEqual(x[0], x[1]));
+        cp.post(notEqual(x[1], x[2]));
+
+        DFSearch dfs = makeDfs(cp, firstFail(x));
+        // belief propagation below the decisions still updates the two constraints only
+        dfs.onSolution(() -> assertEquals(2 * cp.beliefPropaIterations(), cp.beliefPropaUpdates()));
+        SearchStatistics stats = dfs.solve();
+        assertEquals(12, stats.numberOfSolutions());
+    }
+
+    private static double[] marginals(IntVar x) {
+        double[] m = new double[x.max() + 1];
+        for (int v = x.min(); v <= x.max(); v++) {
+            m[v] = x.contains(v) ? x.marginal(v) : 0;
+        }
+        return m;
+    }
+
+    @Test
+    public void testWarmStartBP() {
+        // a tree-structured model, on which BP reaches the exact marginals from any starting point
+        Solver cp = solverFactory.get();
+        assertFalse(cp.warmStartBP());
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        cp.post(new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+        cp.post(notEqual(x, y));
+        cp.setWarmStartBP(true);
+        cp.beliefPropa();
+        double[] mx = marginals(x);
+        double[] my = marginals(y);
+
+        // restarting from the converged beliefs leaves them unchanged
+        cp.beliefPropa();
+        assertArrayEquals(mx, marginals(x), 1e-12);
+        assertArrayEquals(my, marginals(y), 1e-12);
+
+        // a constraint posted since the previous BP
+        cp.getStateManager().saveState();
+        cp.post(new Oracle(y, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.1, 0.1, 0.7}));
+        cp.beliefPropa();
+        double[] wx = marginals(x);
+        double[] wy = marginals(y);
+        cp.setWarmStartBP(false);
+        cp.beliefPropa();
+        assertArrayEquals(marginals(x), wx, 1e-12);
+        assertArrayEquals(marginals(y), wy, 1e-12);
+        cp.getStateManager().restoreState();
+
+        // the beliefs of the restored state
+        cp.setWarmStartBP(true);
+        cp.beliefPropa();
+        assertArrayEquals(mx, marginals(x), 1e-12);
+        assertArrayEquals(my, marginals(y), 1e-12);
+    }
+
+    // x == y, whose second variable can be replaced
+    private static class Equal extends AbstractConstraint {
+        Equal(IntVar x, IntVar y) {
+            super(x.getSolver(), new IntVar[]{x, y});
+            setName("Equal");
+        }
+
+        void replaceSecond(IntVar z) {
+            replaceVar(1, z);
+        }
+
+        @Override
+        protected void updateBelief() {
+            for (int i = 0; i < 2; i++) {
+                IntVar v = getScope()[i];
+                IntVar w = getScope()[1 - i];
+                for (int val = v.min(); val <= v.max(); val++) {
+                    if (v.contains(val))
+                        setLocalBelief(i, val, w.contains(val) ? outsideBelief(1 - i, val) : beliefRep.zero());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWarmStartAfterScopeChange() {
+        Solver cp = solverFactory.get();
+        cp.setWarmStartBP(true);
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        IntVar z = makeIntVar(cp, 0, 3);
+        cp.post(new Oracle(y, new int[]{0, 1, 2, 3}, new double[]{0.1, 0.1, 0.1, 0.7}));
+        Equal eq = new Equal(x, y);
+        cp.post(eq);
+        cp.beliefPropa();
+        assertEquals(0.7, x.marginal(3), 1e-9);
+
+        // the local belief of the equality was computed from y: it starts afresh,
+        // so that without any iteration x no longer receives the belief of y
+        eq.replaceSecond(z);
+        cp.setBeliefPropaMaxIter(0);
+        cp.beliefPropa();
+        assertEquals(0.25, x.marginal(3), 1e-12);
+        cp.setBeliefPropaMaxIter(5);
+        cp.beliefPropa();
+        assertEquals(0.25, x.marginal(3), 1e-12);
+        assertEquals(0.25, z.marginal(3), 1e-12);
+    }
+
+    @Test
+    public void testNoResetAfterBacktrack() {
+        for (Solver.BPSchedule schedule : Solver.BPSchedule.values()) {
+            // BP at the root after exploring a subtree, and BP at the root again without exploring it
+            double[][] m = new double[2][];
+            for (int t = 0; t < 2; t++) {
+                Solver cp = makeSolver(new SolverConfig().setResetMarginalsBeforeBP(false)
+                        .setBeliefPropaSchedule(schedule).setBeliefPropaMaxIter(2));
+                IntVar[] x = makeIntVarArray(cp, 4, 4);
+                cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+                for (int i = 0; i < 4; i++) {
+                    cp.post(notEqual(x[i], x[(i + 1) % 4]));
+                }
+                cp.fixPoint();
+                cp.beliefPropa();
+                if (t == 0) {
+                    cp.getStateManager().saveState();
+                    cp.post(new Oracle(x[2], new int[]{0, 1, 2, 3}, new double[]{0.1, 0.1, 0.1, 0.7}));
+                    x[1].remove(0);
+                    cp.fixPoint();
+                    cp.beliefPropa();
+                    cp.getStateManager().restoreState();
+                }
+                // the local beliefs are those of the first BP at the root, the marginals recomputed from them
+                cp.beliefPropa();
+                m[t] = new double[16];
+                for (int i = 0; i < 4; i++) {
+                    System.arraycopy(marginals(x[i]), 0, m[t], 4 * i, 4);
+                }
+            }
+            assertArrayEquals(m[1], m[0], 1e-12);
+        }
+    }
+
+    @Test
+    public void testBeliefPropaTolerance() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        cp.post(new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+        cp.post(notEqual(x, y));
+
+        // by default, all the iterations are performed
+        cp.beliefPropa();
+        assertEquals(5, cp.beliefPropaIterations());
+        assertEquals(0, cp.beliefPropaResidual(), 1e-12);
+        double[] mx = marginals(x);
+        double[] my = marginals(y);
+
+        // the tree converges in a couple of iterations
+        cp.setBeliefPropaTolerance(1e-9);
+        cp.beliefPropa();
+        assertTrue(cp.beliefPropaIterations() < 5);
+        assertTrue(cp.beliefPropaResidual() < 1e-9);
+        assertArrayEquals(mx, marginals(x), 1e-9);
+        assertArrayEquals(my, marginals(y), 1e-9);
+
+        // the maximum number of iterations is a hard cap
+        cp.setBeliefPropaMaxIter(1);
+        cp.beliefPropa();
+        assertEquals(1, cp.beliefPropaIterations());
+        assertTrue(cp.beliefPropaResidual() > 1e-9);
+    }
+
+    @Test
+    public void testResidualSchedule() {
+        double[][] m = new double[2][];
+        int[] updates = new int[2];
+        for (Solver.BPSchedule schedule : Solver.BPSchedule.values()) {
+            Solver cp = solverFactory.get();
+            cp.setBeliefPropaSchedule(schedule);
+            cp.setBeliefPropaTolerance(1e-12);
+            cp.setBeliefPropaMaxIter(100);
+            // a chain of cheap constraints next to a costlier one
+            IntVar[] x = makeIntVarArray(cp, 6, 4);
+            cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+            for (int i = 0; i < 4; i++) {
+                cp.post(notEqual(x[i], x[i + 1]));
+            }
+            cp.post(new Oracle(x[4], new int[]{0, 1, 2, 3}, new double[]{0.1, 0.1, 0.1, 0.7}));
+            cp.post(sum(new IntVar[]{x[4], x[5]}, 4));
+            cp.beliefPropa();
+            assertTrue(cp.beliefPropaResidual() < 1e-12);
+            m[schedule.ordinal()] = new double[24];
+            for (int i = 0; i < 6; i++) {
+                System.arraycopy(marginals(x[i]), 0, m[schedule.ordinal()], 4 * i, 4);
+            }
+            updates[schedule.ordinal()] = cp.beliefPropaUpdates();
+        }
+        assertArrayEquals(m[Solver.BPSchedule.FLOODING.ordinal()], m[Solver.BPSchedule.RESIDUAL.ordinal()], 1e-9);
+        assertTrue(updates[Solver.BPSchedule.RESIDUAL.ordinal()] < updates[Solver.BPSchedule.FLOODING.ordinal()]);
+    }
+
+    @Test
+    public void testResidualScheduleThroughViews() {
+        double[][] m = new double[2][];
+        for (Solver.BPSchedule schedule : Solver.BPSchedule.values()) {
+            Solver cp = solverFactory.get();
+            cp.setBeliefPropaSchedule(schedule);
+            cp.setBeliefPropaTolerance(1e-12);
+            cp.setBeliefPropaMaxIter(100);
+            // a chain whose variables are shared through views
+            IntVar[] x = makeIntVarArray(cp, 5, 4);
+            cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+            cp.post(notEqual(x[0], plus(x[1], 1)));
+            cp.post(notEqual(minus(x[1]), minus(x[2])));
+            cp.post(lessOrEqual(mul(x[2], 2), plus(x[3], 3)));
+            cp.post(notEqual(minus(x[3], 1), x[4]));
+            cp.post(new Oracle(x[4], new int[]{0, 1, 2, 3}, new double[]{0.1, 0.1, 0.1, 0.7}));
+            cp.fixPoint();
+            cp.beliefPropa();
+            assertTrue(cp.beliefPropaResidual() < 1e-12);
+            m[schedule.ordinal()] = new double[20];
+            for (int i = 0; i < 5; i++) {
+                System.arraycopy(marginals(x[i]), 0, m[schedule.ordinal()], 4 * i, 4);
+            }
+        }
+        assertArrayEquals(m[Solver.BPSchedule.FLOODING.ordinal()], m[Solver.BPSchedule.RESIDUAL.ordinal()], 1e-9);
+    }
+
+    @Test
+    public void testParallelBeliefPropa() {
+        double[][] m = new double[2][];
+        for (int t = 0; t < 2; t++) {
+            Solver cp = solverFactory.get();
+            cp.setBeliefPropaParallelism(t == 0 ? 1 : 4);
+            IntVar[] x = makeIntVarArray(cp, 8, 5);
+            cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3, 4}, new double[]{0.4, 0.3, 0.1, 0.1, 0.1}));
+            cp.post(allDifferentAC(new IntVar[]{x[0], x[1], x[2], x[3]}));
+            cp.post(sum(new IntVar[]{x[2], x[3], x[4], x[5]}, 9));
+            cp.post(among(new IntVar[]{x[4], x[5], x[6], x[7]}, new int[]{0, 1}, makeIntVar(cp, 2, 3)));
+            cp.post(table(new IntVar[]{x[1], x[7]}, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 0}}));
+            cp.fixPoint();
+            cp.beliefPropa();
+            m[t] = new double[40];
+            for (int i = 0; i < 8; i++) {
+                System.arraycopy(marginals(x[i]), 0, m[t], 5 * i, 5);
+            }
+            cp.setBeliefPropaParallelism(1);
+        }
+        // the same marginals, not only up to rounding
+        assertArrayEquals(m[0], m[1], 0);
+    }
+
+    @Test
+    public void testExactTreeBP() {
+        Solver cp = solverFactory.get();
+        assertFalse(cp.exactTreeBP());
+        cp.setExactTreeBP(true);
+        IntVar[] x = makeIntVarArray(cp, 5, 4);
+        double[] m0 = {0.4, 0.3, 0.2, 0.1};
+        double[] m4 = {0.1, 0.1, 0.1, 0.7};
+        cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3}, m0));
+        cp.post(notEqual(x[0], x[1]));
+        cp.post(lessOrEqual(x[1], x[2]));
+        cp.post(notEqual(x[1], x[3]));
+        cp.post(sum(new IntVar[]{x[3], x[4]}, 4));
+        cp.post(new Oracle(x[4], new int[]{0, 1, 2, 3}, m4));
+        cp.beliefPropa();
+        assertTrue(cp.beliefPropaExact());
+        assertEquals(1, cp.beliefPropaIterations());
+        assertEquals(2 * 6 - 1, cp.beliefPropaUpdates());
+        assertEquals(0, cp.beliefPropaResidual(), 0);
+        double[][] exact = exactMarginals(5, 4, a -> a[0] != a[1] && a[1] <= a[2] && a[1] != a[3] && a[3] + a[4] == 4 ?
+                m0[a[0]] * m4[a[4]] : 0);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(exact[i], Arrays.copyOf(marginals(x[i]), 4), 1e-12);
+        }
+
+        // a cycle: back to the loopy schedule
+        cp.getStateManager().saveState();
+        cp.post(notEqual(x[2], x[3]));
+        cp.beliefPropa();
+        assertFalse(cp.beliefPropaExact());
+        assertEquals(cp.beliefPropaMaxIter(), cp.beliefPropaIterations());
+
+        // binding a variable of the cycle breaks it
+        x[2].assign(2);
+        cp.fixPoint();
+        cp.beliefPropa();
+        assertTrue(cp.beliefPropaExact());
+        exact = exactMarginals(5, 4, a -> a[0] != a[1] && a[1] <= a[2] && a[1] != a[3] && a[3] + a[4] == 4
+                && a[2] == 2 && a[2] != a[3] ? m0[a[0]] * m4[a[4]] : 0);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(exact[i], Arrays.copyOf(marginals(x[i]), 4), 1e-12);
+        }
+        cp.getStateManager().restoreState();
+
+        // a cycle through a view
+        cp.post(lessOrEqual(plus(x[2], 1), x[0]));
+        cp.beliefPropa();
+        assertFalse(cp.beliefPropaExact());
+    }
+
+    // the exact marginals of n variables with domain 0..d-1, from the weight of each assignment
+    private static double[][] exactMarginals(int n, int d, ToDoubleFunction<int[]> weight) {
+        double[][] m = new double[n][d];
+        int[] a = new int[n];
+        double total = 0;
+        for (int k = 0; k < Math.pow(d, n); k++) {
+            for (int i = 0, r = k; i < n; i++, r /= d) {
+                a[i] = r % d;
+            }
+            double w = weight.applyAsDouble(a);
+            total += w;
+            for (int i = 0; i < n; i++) {
+                m[i][a[i]] += w;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int v = 0; v < d; v++) {
+                m[i][v] /= total;
+            }
+        }
+        return m;
+    }
+
+    @Test
+    public void testEliminateBoundVars() {
+        // constraints folding bound variables in different ways
+        int[][] A = {{1, 1, 0, 2}, {2, 0, 1, -1}, {0, 2, -1, 1}};
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 6, 4);
+        cp.post(new Oracle(x[5], new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4}));
+        cp.post(regular(x, A, Arrays.asList(0, 1)));
+        cp.post(sum(new IntVar[]{x[1], x[2], x[3], x[4]}, 7));
+        cp.post(among(new IntVar[]{x[0], x[1], x[4], x[5]}, new int[]{0, 1}, makeIntVar(cp, 1, 2)));
+        cp.post(allDifferentAC(new IntVar[]{x[0], x[3], x[5]}));
+        cp.fixPoint();
+        cp.beliefPropa();
+        double[][] before = marginals(x, 4);
+
+        cp.getStateManager().saveState();
+        x[0].assign(1);
+        x[1].assign(2);
+        cp.fixPoint();
+        cp.beliefPropa();
+        double[][] assigned = marginals(x, 4);
+
+        // the same marginals as with x[0] and x[1] folded by hand into the constraints
+        Solver cp2 = solverFactory.get();
+        IntVar[] y = makeIntVarArray(cp2, 4, 4); // x[2..5]
+        cp2.post(new Oracle(y[3], new int[]{0, 1, 2, 3}, new double[]{0.1, 0.2, 0.3, 0.4}));
+        cp2.post(regular(y, A, A[A[0][1]][2], Arrays.asList(0, 1)));
+        cp2.post(sum(new IntVar[]{y[0], y[1], y[2]}, 5));
+        cp2.post(among(new IntVar[]{y[2], y[3]}, new int[]{0, 1}, makeIntVar(cp2, 0, 1)));
+        y[1].remove(1);
+        y[3].remove(1);
+        cp2.post(allDifferentAC(new IntVar[]{y[1], y[3]}));
+        cp2.fixPoint();
+        cp2.beliefPropa();
+        double[][] folded = marginals(y, 4);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(folded[i], assigned[i + 2], 1e-12);
+        }
+
+        // the eliminated variables are back once the state is restored
+        cp.getStateManager().restoreState();
+        cp.beliefPropa();
+        double[][] after = marginals(x, 4);
+        for (int i = 0; i < 6; i++) {
+            assertArrayEquals(before[i], after[i], 1e-12);
+        }
+    }
+
+    private static double[][] marginals(IntVar[] x, int nbVal) {
+        double[][] m = new double[x.length][];
+        for (int i = 0; i < x.length; i++) {
+            m[i] = Arrays.copyOf(marginals(x[i]), nbVal);
+        }
+        return m;
+    }
+
+    @Test
+    public void testSolverConfig() {
+        // the default configuration is that of a solver created without one
+        assertEquals(new SolverConfig().toString(), makeSolver().getConfig().toString());
+
+        SolverConfig config = new SolverConfig()
+                .setMode(Solver.PropaMode.SP)
+                .setBeliefPropaMaxIter(2)
+                .setDamping(true)
+                .setDampingFactor(0.3)
+                .setResetMarginalsBeforeBP(false)
+                .setWeighingScheme(Solver.ConstraintWeighingScheme.ARITY);
+        Solver cp = makeSolver(false, config);
+        config.setBeliefPropaMaxIter(7); // the solver keeps the parameters it was created with
+        assertEquals(Solver.PropaMode.SP, cp.getMode());
+        assertEquals(2, cp.beliefPropaMaxIter());
+        assertTrue(cp.dampingMessages());
+        assertEquals(0.3, cp.dampingFactor(), 0);
+        assertFalse(cp.resettingMarginalsBeforeBP());
+        assertEquals(Solver.ConstraintWeighingScheme.ARITY, cp.getWeighingScheme());
+        assertEquals(config.setBeliefPropaMaxIter(2).toString(), cp.getConfig().toString());
 
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        cp.post(new Oracle(x, new int[]{0, 1, 2, 3}, new double[]{0.4, 0.3, 0.2, 0.1}));
+        cp.post(notEqual(x, y));
+        // support propagation only
+        cp.propagateSolver();
+        assertEquals(0, cp.beliefPropaIterations());
+        cp.setMode(Solver.PropaMode.SBP);
+        cp.propagateSolver();
+        assertEquals(2, cp.beliefPropaIterations());
+    }
+
+    @Test
+    public void testBeliefPropaAllocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 8, 5);
+        cp.post(new Oracle(x[0], new int[]{0, 1, 2, 3, 4}, new double[]{0.4, 0.3, 0.1, 0.1, 0.1}));
+        cp.post(allDifferentAC(new IntVar[]{x[0], x[1], x[2], x[3]}));
+        cp.post(sum(new IntVar[]{x[2], x[3], x[4], x[5]}, 9));
+        cp.post(among(new IntVar[]{x[4], x[5], x[6], x[7]}, new int[]{0, 1}, makeIntVar(cp, 2, 3)));
+        cp.post(table(new IntVar[]{x[1], x[7]}, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 0}}));
+        cp.post(regular(new IntVar[]{x[5], x[6], x[7]}, new int[][]{{0, 1, 0, 1, 0}, {1, 0, 1, 0, 1}}));
+        cp.post(notEqual(x[6], x[7]));
+        cp.fixPoint();
+        cp.getStateManager().saveState();
+
+        // once compiled, a BP (on a model already propagated) allocates nothing, whatever its schedule
+        for (Solver.BPSchedule schedule : Solver.BPSchedule.values()) {
+            cp.setBeliefPropaSchedule(schedule);
+            long allocated = -1;
+            for (int round = 0; round < 50 && allocated != 0; round++) {
+                for (int i = 0; i < 200; i++) {
+                    cp.beliefPropa();
+                }
+                long before = threads.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < 100; i++) {
+                    cp.beliefPropa();
+                }
+                allocated = threads.getThreadAllocatedBytes(thread) - before;
+            }
+            assertEquals("bytes allocated by 100 BPs with the " + schedule + " schedule", 0, allocated);
+        }
+    }
 }
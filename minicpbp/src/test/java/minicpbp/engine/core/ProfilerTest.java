@@ -0,0 +1,103 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.core;
+
+import minicpbp.engine.SolverTest;
+import minicpbp.engine.constraints.LessOrEqual;
+import minicpbp.engine.constraints.NotEqual;
+import minicpbp.util.exception.InconsistencyException;
+import org.junit.Test;
+
+
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+
+public class ProfilerTest extends SolverTest {
+
+    @Test
+    public void testPropagateStatistics() {
+        Solver cp = solverFactory.get();
+        IntVar x = makeIntVar(cp, 0, 3);
+        IntVar y = makeIntVar(cp, 0, 3);
+        Profiler profiler = new Profiler();
+        cp.setProfiler(profiler);
+        assertSame(profiler, cp.getProfiler());
+        Constraint c = lessOrEqual(x, y);
+        cp.post(c);
+        cp.fixPoint();
+        ConstraintProfile p = c.getProfile();
+        assertSame(p, profiler.constraintProfile("LessOrEqual", LessOrEqual.class));
+        assertEquals(0, p.removedValues());
+
+        y.removeAbove(1);
+        cp.fixPoint();
+        assertTrue(p.propagateCalls() >= 1);
+        assertEquals(2, p.removedValues());
+        assertEquals(0, p.failures());
+
+        x.assign(1);
+        y.assign(0);
+        try {
+            cp.fixPoint();
+            fail();
+        } catch (InconsistencyException e) {
+        }
+        assertEquals(1, p.failures());
+    }
+
+    @Test
+    public void testBeliefPropaStatistics() {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 3);
+        // posted before the profiler is set
+        Constraint c1 = notEqual(x[0], x[1]);
+        cp.post(c1);
+        Profiler profiler = new Profiler();
+        cp.setProfiler(profiler);
+        Constraint c2 = notEqual(x[1], x[2]);
+        cp.post(c2);
+        cp.post(lessOrEqual(x[0], x[2]));
+        cp.fixPoint();
+        cp.beliefPropa();
+
+        // the NotEqual constraints share their profile
+        assertEquals(2, profiler.constraintProfiles().size());
+        ConstraintProfile p = profiler.constraintProfile("NotEqual", NotEqual.class);
+        assertSame(p, c1.getProfile());
+        assertSame(p, c2.getProfile());
+        assertEquals(2 * cp.beliefPropaMaxIter(), p.beliefUpdates());
+        assertEquals(cp.beliefPropaMaxIter(), profiler.constraintProfile("LessOrEqual", LessOrEqual.class).beliefUpdates());
+
+        assertEquals(1, profiler.beliefPropaCount());
+        assertEquals(cp.beliefPropaIterations(), profiler.lastBeliefPropaIterations());
+        assertEquals(cp.beliefPropaResidual(), profiler.lastBeliefPropaResidual(cp.beliefPropaIterations()), 0);
+        assertEquals(1, profiler.beliefPropaIterationCount(1));
+        assertEquals(profiler.lastBeliefPropaResidual(1), profiler.meanBeliefPropaResidual(1), 0);
+        assertEquals(0, profiler.beliefPropaIterationCount(cp.beliefPropaMaxIter() + 1));
+
+        // stopping the profiler stops recording
+        cp.setProfiler(null);
+        assertNull(c1.getProfile());
+        cp.beliefPropa();
+        assertEquals(2 * cp.beliefPropaMaxIter(), p.beliefUpdates());
+        assertEquals(1, profiler.beliefPropaCount());
+
+        profiler.reset();
+        assertEquals(0, p.beliefUpdates());
+        assertEquals(0, profiler.beliefPropaCount());
+    }
+}
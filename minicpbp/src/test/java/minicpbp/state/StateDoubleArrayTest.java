@@ -0,0 +1,130 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.state;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StateDoubleArrayTest extends StateManagerTest {
+
+    private static double[] values(StateDoubleArray a) {
+        double[] v = new double[a.length()];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = a.get(i);
+        }
+        return v;
+    }
+
+    @Test
+    public void testExample() {
+        StateManager sm = stateFactory.get();
+        StateDoubleArray a = new StateDoubleArray(sm, 4, 1.0);
+
+        // modifications at level -1 are never undone
+        a.set(0, 0.5);
+        sm.saveState();
+
+        a.set(1, 0.25);
+        a.set(1, 0.125);
+        assertEquals(0.125, a.get(1), 0);
+        sm.saveState();
+
+        a.fill(0, 4, 0.0);
+        a.set(3, 2.0);
+        assertArrayEquals(new double[]{0, 0, 0, 2}, values(a), 0);
+
+        sm.restoreState();
+        assertArrayEquals(new double[]{0.5, 0.125, 1, 1}, values(a), 0);
+
+        sm.restoreState();
+        assertArrayEquals(new double[]{0.5, 1, 1, 1}, values(a), 0);
+    }
+
+    @Test
+    public void testRestoreUntil() {
+        StateManager sm = stateFactory.get();
+        StateDoubleArray a = new StateDoubleArray(sm, 2, 0.0);
+        sm.saveState();
+        for (int level = 1; level <= 10; level++) {
+            a.set(0, level);
+            sm.saveState();
+            // a level without modification
+            sm.saveState();
+        }
+        a.set(1, 3.0);
+        sm.restoreStateUntil(4);
+        assertArrayEquals(new double[]{3, 0}, values(a), 0);
+
+        // the level is reached again by another path
+        sm.saveState();
+        a.set(0, 7);
+        sm.saveState();
+        a.set(1, 8);
+        sm.restoreState();
+        assertArrayEquals(new double[]{7, 0}, values(a), 0);
+        sm.restoreState();
+        assertArrayEquals(new double[]{3, 0}, values(a), 0);
+        sm.restoreAllState();
+        assertArrayEquals(new double[]{0, 0}, values(a), 0);
+    }
+
+    @Test
+    public void testReplace() {
+        StateManager sm = stateFactory.get();
+        StateDoubleArray a = new StateDoubleArray(sm, 2, 0.0);
+        sm.saveState();
+        a.set(0, 1.0);
+        a.replace(new double[]{4, 5, 6});
+        sm.restoreState();
+        assertArrayEquals(new double[]{4, 5, 6}, values(a), 0);
+        sm.saveState();
+        a.set(2, 1.0);
+        sm.restoreState();
+        assertArrayEquals(new double[]{4, 5, 6}, values(a), 0);
+    }
+
+    @Test
+    public void testArraysModifiedAtDifferentLevels() {
+        StateManager sm = stateFactory.get();
+        StateDoubleArray a = new StateDoubleArray(sm, 2, 0.0);
+        sm.saveState();
+        a.set(0, 1.0);
+        sm.saveState();
+        // an array created below the root
+        StateDoubleArray b = new StateDoubleArray(sm, 2, 0.0);
+        b.set(1, 2.0);
+        sm.saveState();
+        a.set(1, 3.0);
+        sm.saveState();
+        b.set(0, 4.0);
+        a.set(0, 5.0);
+
+        sm.restoreState();
+        assertArrayEquals(new double[]{1, 3}, values(a), 0);
+        assertArrayEquals(new double[]{0, 2}, values(b), 0);
+        sm.restoreState();
+        assertArrayEquals(new double[]{1, 0}, values(a), 0);
+        assertArrayEquals(new double[]{0, 2}, values(b), 0);
+        sm.restoreState();
+        assertArrayEquals(new double[]{1, 0}, values(a), 0);
+        assertArrayEquals(new double[]{0, 0}, values(b), 0);
+        sm.restoreState();
+        assertArrayEquals(new double[]{0, 0}, values(a), 0);
+    }
+}
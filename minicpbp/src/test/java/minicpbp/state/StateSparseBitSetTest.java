@@ -58,9 +58,52 @@ public class StateSparseBitSetTest extends StateManagerTest {
         assertTrue(!set.hasEmptyIntersection(b1));
 
         assertTrue(set.hasEmptyIntersection(b2));
+    }
 
+    @Test
+    public void testRemove() {
 
-    }
+        StateManager sm = stateFactory.get();
+        StateSparseBitSet set = new StateSparseBitSet(sm, 200);
+        assertEquals(200, set.cardinality());
+
+        StateSparseBitSet.BitSet even = set.new BitSet();
+        StateSparseBitSet.BitSet high = set.new BitSet(); // [150..199]
+        for (int i = 0; i < 200; i++) {
+            if (i % 2 == 0)
+                even.set(i);
+            if (i >= 150)
+                high.set(i);
+        }
+
+        sm.saveState();
 
+        set.remove(even); // set is now the odd numbers
+        assertEquals(100, set.cardinality());
+        assertEquals(4, set.nbNonZeroWords());
 
+        sm.saveState();
+
+        set.remove(high); // set is now the odd numbers of [0..149]
+        assertEquals(75, set.cardinality());
+        assertEquals(3, set.nbNonZeroWords());
+        assertTrue(set.hasEmptyIntersection(even));
+        assertTrue(set.hasEmptyIntersection(high));
+        assertEquals(0L, set.word(3));
+        assertFalse(set.intersects(high, 3));
+
+        sm.restoreState(); // set is the odd numbers
+
+        assertEquals(100, set.cardinality());
+        int idx = set.intersectIndex(high);
+        assertTrue(idx == 2 || idx == 3);
+        assertTrue(set.intersects(high, 3));
+        assertTrue(set.hasEmptyIntersection(even));
+
+        sm.restoreState(); // set is full
+
+        assertEquals(200, set.cardinality());
+        assertEquals(4, set.nbNonZeroWords());
+        assertFalse(set.hasEmptyIntersection(even));
+    }
 }
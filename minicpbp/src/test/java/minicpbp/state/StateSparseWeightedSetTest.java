@@ -0,0 +1,57 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.state;
+
+import minicpbp.engine.core.MiniCP;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StateSparseWeightedSetTest extends StateManagerTest {
+
+    @Test
+    public void testWeightsFollowValues() {
+        StateManager sm = stateFactory.get();
+        StateSparseWeightedSet set = new StateSparseWeightedSet(new MiniCP(sm), 5, 10);
+        for (int v = 10; v < 15; v++) {
+            assertEquals(1.0, set.weight(v), 0);
+            set.setWeight(v, v / 100.0);
+        }
+
+        sm.saveState();
+        set.remove(10);
+        set.remove(12);
+        set.removeAllBut(13);
+        assertEquals(1, set.size());
+        assertEquals(0.13, set.weight(13), 0);
+
+        sm.restoreState();
+        assertEquals(5, set.size());
+        for (int v = 10; v < 15; v++) {
+            assertEquals(v / 100.0, set.weight(v), 0);
+        }
+    }
+
+    @Test
+    public void testWeightsNotRestored() {
+        StateManager sm = stateFactory.get();
+        StateSparseWeightedSet set = new StateSparseWeightedSet(new MiniCP(sm), 3, 0);
+        sm.saveState();
+        set.setWeight(1, 0.5);
+        sm.restoreState();
+        assertEquals(0.5, set.weight(1), 0);
+    }
+}
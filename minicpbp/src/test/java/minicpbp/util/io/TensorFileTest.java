@@ -0,0 +1,127 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.util.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class TensorFileTest {
+
+    private static String tempFile() throws IOException {
+        File f = File.createTempFile("tensor", ".dat");
+        f.deleteOnExit();
+        return f.getPath();
+    }
+
+    @Test
+    public void roundTripFloat64() throws IOException {
+        String path = tempFile();
+        int[][] tokens = {{1, 2, 3}, {4, 5, 6}};
+        double[][] probabilities = {{0.1, 0.2, 0.3, 0.4}, {0.25, 0.25, 0.5, 0.0}};
+        TensorFile.write(path, 3, tokens, probabilities, 8);
+
+        assertTrue(TensorFile.isTensorFile(path));
+        TensorFile file = TensorFile.map(path);
+        assertEquals(2, file.getNbSample());
+        assertEquals(4, file.getVocabularySize());
+        assertEquals(3, file.getStep());
+        assertEquals(3, file.getNbTokens());
+        assertEquals(8, file.getProbabilityBytes());
+        for (int j = 0; j < 2; j++) {
+            int[] t = new int[3];
+            file.getTokens(j, t);
+            assertArrayEquals(tokens[j], t);
+            double[] p = new double[4];
+            file.getProbabilities(j, p);
+            assertArrayEquals(probabilities[j], p, 0.0);
+        }
+    }
+
+    @Test
+    public void roundTripFloat32() throws IOException {
+        String path = tempFile();
+        int[][] tokens = {{7, 8}, {9, 10}, {11, 12}};
+        double[][] probabilities = {{0.1, 0.9}, {1.0 / 3, 2.0 / 3}, {0.5, 0.5}};
+        TensorFile.write(path, 2, tokens, probabilities, 4);
+
+        TensorFile file = TensorFile.map(path);
+        assertEquals(4, file.getProbabilityBytes());
+        // a prefix of the tokens can be read
+        int[] t = new int[1];
+        file.getTokens(2, t);
+        assertEquals(11, t[0]);
+        for (int j = 0; j < 3; j++) {
+            double[] p = new double[2];
+            file.getProbabilities(j, p);
+            for (int v = 0; v < 2; v++) {
+                assertEquals((float) probabilities[j][v], p[v], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void tokensOnly() throws IOException {
+        String path = tempFile();
+        int[][] tokens = {{1, 0, 2, 2}, {0, 0, 1, 2}};
+        TensorFile.write(path, 0, tokens, null, 4);
+
+        TensorFile file = TensorFile.map(path);
+        assertEquals(0, file.getVocabularySize());
+        int[] t = new int[4];
+        file.getTokens(1, t);
+        assertArrayEquals(tokens[1], t);
+    }
+
+    @Test
+    public void textFileIsNotTensorFile() throws IOException {
+        String path = tempFile();
+        try (FileWriter w = new FileWriter(path)) {
+            w.write("1 2 3 0.5 0.5\n");
+        }
+        assertFalse(TensorFile.isTensorFile(path));
+        try {
+            TensorFile.map(path);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void emptyFileIsNotTensorFile() throws IOException {
+        assertFalse(TensorFile.isTensorFile(tempFile()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFile() throws IOException {
+        String path = tempFile();
+        TensorFile.write(path, 1, new int[][]{{1}, {2}}, new double[][]{{0.5, 0.5}, {0.5, 0.5}}, 8);
+        try (RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+            f.setLength(f.length() - 8);
+        }
+        TensorFile.map(path);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void samplesOfDifferentSizes() throws IOException {
+        TensorFile.write(tempFile(), 1, new int[][]{{1}, {2}}, new double[][]{{0.5, 0.5}, {1.0}}, 8);
+    }
+}
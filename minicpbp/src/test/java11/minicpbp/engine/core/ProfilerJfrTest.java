@@ -0,0 +1,63 @@
+/*
+ * mini-cp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License  v3
+ * as published by the Free Software Foundation.
+ *
+ * mini-cp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY.
+ * See the GNU Lesser General Public License  for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with mini-cp. If not, see http://www.gnu.org/licenses/lgpl-3.0.en.html
+ *
+ * Copyright (c)  2018. by Laurent Michel, Pierre Schaus, Pascal Van Hentenryck
+ */
+
+package minicpbp.engine.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import minicpbp.engine.SolverTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static minicpbp.cp.Factory.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the JDK Flight Recorder events of {@link Profiler}, only compiled on JDK 11 or later.
+ */
+public class ProfilerJfrTest extends SolverTest {
+
+    @Test
+    public void testJfrEvents() throws IOException {
+        Solver cp = solverFactory.get();
+        IntVar[] x = makeIntVarArray(cp, 3, 3);
+        cp.setProfiler(new Profiler(true));
+        cp.post(notEqual(x[0], x[1]));
+        cp.post(notEqual(x[1], x[2]));
+        Path file = Files.createTempFile("profiler", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("minicpbp.Propagate");
+            recording.enable("minicpbp.UpdateBelief");
+            recording.enable("minicpbp.BeliefPropaIteration");
+            recording.start();
+            x[0].assign(0);
+            cp.fixPoint();
+            cp.beliefPropa();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("minicpbp.Propagate")
+                && e.getString("constraint").equals("NotEqual")));
+        assertEquals(2 * cp.beliefPropaIterations(), events.stream().filter(e -> e.getEventType().getName().equals("minicpbp.UpdateBelief")).count());
+        assertEquals(cp.beliefPropaIterations(), events.stream().filter(e -> e.getEventType().getName().equals("minicpbp.BeliefPropaIteration")).count());
+    }
+}
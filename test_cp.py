@@ -0,0 +1,96 @@
+import os
+import shutil
+import tempfile
+import unittest
+
+try:
+    import numpy as np
+    import torch
+    from cp import ConstraintProgramming
+except ImportError:
+    torch = None
+
+ROOT = os.path.dirname(os.path.abspath(__file__))
+MINICPBP_PATH = os.path.join(ROOT, 'minicpbp')
+JAR = os.path.join(MINICPBP_PATH, 'target', 'minicpbp-1.0.jar')
+MUSIC_PATH = os.path.join(MINICPBP_PATH, 'src', 'main', 'java', 'minicpbp', 'examples', 'data', 'MusicCP')
+
+
+@unittest.skipIf(torch is None or not os.path.exists(JAR), 'needs torch and minicpbp/target/minicpbp-1.0.jar (mvn package)')
+class ConstraintProgrammingSmokeTest(unittest.TestCase):
+    """Runs one generation step of a rhythm model in text, binary and server mode."""
+
+    NUM_SAMPLE = 2
+    STEP = 16
+
+    def setUp(self):
+        # cp.py writes its debug files (ML.txt, Token.txt, Oracle.txt) in the current directory
+        self.cwd = os.getcwd()
+        self.tmp = tempfile.mkdtemp()
+        os.chdir(self.tmp)
+        self.music_files = set(os.listdir(MUSIC_PATH))
+        self.token_rhythm = os.path.join(MUSIC_PATH, ConstraintProgramming.FILENAME_TOKEN_RHYTHM)
+        if os.path.exists(self.token_rhythm):
+            shutil.copy(self.token_rhythm, self.tmp)
+
+    def tearDown(self):
+        os.chdir(self.cwd)
+        for name in set(os.listdir(MUSIC_PATH)) - self.music_files:
+            os.remove(os.path.join(MUSIC_PATH, name))
+        saved = os.path.join(self.tmp, ConstraintProgramming.FILENAME_TOKEN_RHYTHM)
+        if os.path.exists(saved):
+            shutil.copy(saved, self.token_rhythm)
+        shutil.rmtree(self.tmp)
+
+    def _config(self, server, binary, rhythm=True):
+        weight_variation = {'technique': 'constant', 'ml_weight': 0.5, 'nb_bars_group': 6, 'weight_min': 0.1, 'weight_max': 1.0}
+        return {'minicpbp_path': MINICPBP_PATH, 'server': server, 'workers': 1, 'binary': binary,
+                'rhythm': {'activate': rhythm, 'model': {'name': 'rhythmAtleast', 'min_nb_notes': 8}, 'weight_variation': dict(weight_variation)},
+                'pitch': {'activate': False, 'model': {'name': 'pitchKey', 'k': 1}, 'weight_variation': dict(weight_variation)}}
+
+    # runs one step and returns the sampled tokens and the marginals computed by minicpbp
+    def _step(self, server=False, binary=False):
+        cp = ConstraintProgramming(self._config(server, binary), frame_per_bar=16)
+        try:
+            tokens = torch.tensor([[2, 1, 1, 1] * 32, [2, 1, 0, 0] * 32], dtype=torch.long)
+            output = torch.log(torch.tensor([[0.2, 0.3, 0.5], [0.6, 0.3, 0.1]]))
+            cp.save_rhythm_token(tokens)
+            idx = cp.get_cp_rhythm_idx(tokens, output, 'smoketest', self.STEP, torch.device('cpu'))
+        finally:
+            cp.close()
+
+        # the marginals of the step are the last lines of the debug file Oracle.txt
+        with open('Oracle.txt') as f:
+            marginals = np.loadtxt(f.read().splitlines()[-self.NUM_SAMPLE:], ndmin=2)
+        return idx, marginals
+
+    def _check(self, idx, marginals):
+        self.assertEqual((self.NUM_SAMPLE,), tuple(idx.shape))
+        self.assertTrue(all(0 <= int(v) < 3 for v in idx))
+        self.assertEqual((self.NUM_SAMPLE, 3), marginals.shape)
+        np.testing.assert_allclose(marginals.sum(axis=1), 1, atol=1e-6)
+        for j in range(self.NUM_SAMPLE):
+            self.assertGreater(marginals[j, int(idx[j])], 0)
+
+    def test_text(self):
+        self._check(*self._step())
+
+    def test_binary(self):
+        idx, marginals = self._step(binary=True)
+        self._check(idx, marginals)
+        np.testing.assert_allclose(marginals, self._step()[1], atol=1e-6)
+
+    def test_server(self):
+        # binary is ignored in server mode, where the samples and marginals go through the pipe
+        idx, marginals = self._step(server=True, binary=True)
+        self._check(idx, marginals)
+        self.assertEqual([], [name for name in os.listdir(MUSIC_PATH) if name.startswith('cp_rhythm_smoketest')])
+        np.testing.assert_allclose(marginals, self._step()[1], atol=1e-6)
+
+    def test_no_server_without_cp(self):
+        cp = ConstraintProgramming(self._config(server=True, binary=False, rhythm=False), frame_per_bar=16)
+        self.assertIsNone(cp.server)
+
+
+if __name__ == '__main__':
+    unittest.main()